@@ -14,6 +14,12 @@ public interface WebResourceInventoryManager {
 
 	public static final String COMPILE_ALL_EVENT = "org/apache/sling/webresource/COMPILEALL";
 
+	/**
+	 * Requests the compile of the web resource groups under "paths". Requests
+	 * are merged into {@link #COMPILE_EVENT}s.
+	 */
+	public static final String COMPILE_REQUEST_EVENT = "org/apache/sling/webresource/COMPILEREQUEST";
+
 	public List<String> getSourceWebResources(String webResourceName);
 
 	public String getWebResourcePathLookup(String webResourceName);
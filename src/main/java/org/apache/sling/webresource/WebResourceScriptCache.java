@@ -69,4 +69,22 @@ public interface WebResourceScriptCache {
 	
 	public InputStream getGlobalWebResourceScripts() throws RepositoryException, LoginException;
 
+	/**
+	 * 
+	 * Counts a request of a web resource group to order the warm up after a
+	 * restart.
+	 * 
+	 * @param webResourceGroupName
+	 */
+	public void recordWebResourceGroupRequest(String webResourceGroupName);
+
+	/**
+	 * 
+	 * Compiles the most requested web resource groups and web resources
+	 * first, until the configured warm up budget is spent.
+	 * 
+	 * @param session
+	 */
+	public void warmUp(Session session);
+
 }
@@ -16,4 +16,16 @@ public interface WebResourceScriptCompilerProvider {
 	 */
 	public WebResourceScriptCompiler getWebResourceCompilerForNode(
 			Node sourceNode) throws WebResourceCompilerNotFoundException;
+
+	/**
+	 * 
+	 * Returns the highest ranked web resource compiler that can compile a
+	 * given file extension, without raising an exception for resources no
+	 * compiler handles.
+	 * 
+	 * @param sourceNode
+	 * @return the compiler or null
+	 */
+	public WebResourceScriptCompiler findWebResourceCompilerForNode(
+			Node sourceNode);
 }
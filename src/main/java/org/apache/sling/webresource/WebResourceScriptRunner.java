@@ -5,6 +5,19 @@ import java.util.Map;
 
 public interface WebResourceScriptRunner {
 
+	/**
+	 * 
+	 * Evaluates a script in a scope layered on the root scope.
+	 * 
+	 * @param script
+	 * @param scriptVariables
+	 *            variables bound in the scope of the script. Character
+	 *            sequences are bound as script strings, so passing a source
+	 *            here avoids embedding it in the script as a literal.
+	 * @return the script result
+	 * @throws org.apache.sling.webresource.exception.WebResourceScriptException
+	 *             if the evaluation exceeds the configured limits
+	 */
 	public String evaluateScript(InputStream script,
 			Map<String, Object> scriptVariables);
 
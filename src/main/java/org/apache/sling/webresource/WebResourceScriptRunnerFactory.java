@@ -1,8 +1,50 @@
 package org.apache.sling.webresource;
 
 import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.model.WebResourceScriptRunnerPoolStatistics;
 
 public interface WebResourceScriptRunnerFactory {
 	public WebResourceScriptRunner createRunner(String scriptCompilerName,
 			InputStream globalScriptStream);
+
+	/**
+	 * 
+	 * Checks out an initialized runner from the pool kept for the script
+	 * compiler. The global script is only evaluated when the pool has to
+	 * create a new runner. The global script content is compared with the one
+	 * the pool was built with when the pool is created and after a script
+	 * compiler was bound or unbound, replacing the pool if it differs. Every
+	 * borrowed runner must be handed back with
+	 * {@link #returnRunner(WebResourceScriptRunner)}.
+	 * 
+	 * @param scriptCompilerName
+	 * @param globalScriptStream
+	 *            global compiler script. May be null once the pool for the
+	 *            compiler exists.
+	 * @return
+	 * @throws WebResourceCompileException
+	 *             if no runner becomes available in time
+	 */
+	public WebResourceScriptRunner borrowRunner(String scriptCompilerName,
+			InputStream globalScriptStream) throws WebResourceCompileException;
+
+	/**
+	 * 
+	 * Returns a runner obtained from
+	 * {@link #borrowRunner(String, InputStream)} to its pool.
+	 * 
+	 * @param runner
+	 */
+	public void returnRunner(WebResourceScriptRunner runner);
+
+	/**
+	 * 
+	 * Statistics of the runner pools keyed by script compiler name.
+	 * 
+	 * @return
+	 */
+	public Map<String, WebResourceScriptRunnerPoolStatistics> getRunnerPoolStatistics();
 }
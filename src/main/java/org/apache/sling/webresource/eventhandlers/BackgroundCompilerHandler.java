@@ -50,6 +50,14 @@ public class BackgroundCompilerHandler implements EventHandler {
 
 	private BundleContext bundleContext;
 
+	/**
+	 * Compiles requested while the warm up runs, started once it is done so
+	 * they do not compete with the most requested web resources.
+	 */
+	private final List<List<String>> deferredCompiles = new ArrayList<List<String>>();
+
+	private boolean warmedUp;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	protected void activate(ComponentContext context) {
@@ -57,7 +65,7 @@ public class BackgroundCompilerHandler implements EventHandler {
 
 		this.executorService = Executors.newFixedThreadPool(4);
 
-		compilePaths(new ArrayList<String>(
+		warmUpAndCompilePaths(new ArrayList<String>(
 				this.webResourceInventoryManager.getAllWebResourcePaths()));
 		String[] compileTopics = new String[] {
 				WebResourceInventoryManager.COMPILE_EVENT,
@@ -83,6 +91,12 @@ public class BackgroundCompilerHandler implements EventHandler {
 	}
 
 	private void compilePaths(final List<String> paths) {
+		synchronized (deferredCompiles) {
+			if (!warmedUp) {
+				deferredCompiles.add(paths);
+				return;
+			}
+		}
 		Runnable compileTask = new Runnable() {
 
 			private List<String> pathList = paths;
@@ -104,6 +118,64 @@ public class BackgroundCompilerHandler implements EventHandler {
 		this.executorService.submit(compileTask);
 	}
 
+	/**
+	 * 
+	 * Compiles the most requested web resources before all others, so the
+	 * first requests after a restart find them compiled. Compile events
+	 * received in the meantime are queued behind the warm up.
+	 * 
+	 * @param paths
+	 */
+	private void warmUpAndCompilePaths(final List<String> paths) {
+		Runnable warmUpTask = new Runnable() {
+
+			private List<String> pathList = paths;
+
+			@Override
+			public void run() {
+				try {
+					warmUp();
+				} finally {
+					startDeferredCompiles();
+				}
+
+				Iterator<String> pendingWebResourcePathIt = this.pathList
+						.iterator();
+				if (pendingWebResourcePathIt.hasNext()) {
+					processPendingWebRequests(pendingWebResourcePathIt);
+				}
+			}
+		};
+
+		this.executorService.submit(warmUpTask);
+	}
+
+	private void warmUp() {
+		Session jcrSession = null;
+		try {
+			jcrSession = repository.loginAdministrative(null);
+			webResourceScriptCache.warmUp(jcrSession);
+		} catch (RepositoryException e) {
+			log.error("Unable to login as admin", e);
+		} finally {
+			if (jcrSession != null) {
+				jcrSession.logout();
+			}
+		}
+	}
+
+	private void startDeferredCompiles() {
+		List<List<String>> pendingCompiles;
+		synchronized (deferredCompiles) {
+			warmedUp = true;
+			pendingCompiles = new ArrayList<List<String>>(deferredCompiles);
+			deferredCompiles.clear();
+		}
+		for (List<String> currentPaths : pendingCompiles) {
+			compilePaths(currentPaths);
+		}
+	}
+
 	private void processPendingWebRequests(Iterator<String> pendingWebRequestIt) {
 		Session jcrSession = null;
 		log.info("Starting Background Compile");
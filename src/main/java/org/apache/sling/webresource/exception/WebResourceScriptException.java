@@ -0,0 +1,24 @@
+package org.apache.sling.webresource.exception;
+
+/**
+ * 
+ * Unchecked exception for a failed script evaluation. Carries the
+ * {@link WebResourceCompileException} describing the failure so compilers
+ * can rethrow it from their compile method.
+ * 
+ */
+public class WebResourceScriptException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3318925044714356502L;
+
+	public WebResourceScriptException(WebResourceCompileException e) {
+		super(e.getMessage(), e);
+	}
+
+	public WebResourceCompileException getCompileException() {
+		return (WebResourceCompileException) getCause();
+	}
+}
@@ -0,0 +1,89 @@
+package org.apache.sling.webresource.exception;
+
+/**
+ * 
+ * Exception for a script evaluation stopped because it exceeded one of the
+ * configured limits. Carries what the evaluation used up to that point.
+ * 
+ */
+public class WebResourceScriptLimitException extends
+		WebResourceCompileException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2875305526171936604L;
+
+	public static final String LIMIT_INSTRUCTIONS = "instructions";
+
+	public static final String LIMIT_TIMEOUT = "timeout";
+
+	public static final String LIMIT_OUTPUT_SIZE = "outputSize";
+
+	private final String scriptCompilerName;
+
+	private final String limit;
+
+	private final long instructionCount;
+
+	private final long elapsedTime;
+
+	private final long outputSize;
+
+	private final String scriptStackTrace;
+
+	/**
+	 * 
+	 * @param scriptCompilerName
+	 * @param limit
+	 *            the limit that was exceeded
+	 * @param instructionCount
+	 *            instructions executed or -1 if they were not counted
+	 * @param elapsedTime
+	 *            milliseconds the evaluation ran
+	 * @param outputSize
+	 *            characters produced or -1 if the evaluation did not finish
+	 * @param scriptStackTrace
+	 *            script stack at the time the limit was hit, may be null
+	 * @param e
+	 */
+	public WebResourceScriptLimitException(String scriptCompilerName,
+			String limit, long instructionCount, long elapsedTime,
+			long outputSize, String scriptStackTrace, Throwable e) {
+		super("Script evaluation for " + scriptCompilerName
+				+ " exceeded the " + limit + " limit after " + elapsedTime
+				+ " ms (instructions: " + instructionCount + ", output size: "
+				+ outputSize + ")"
+				+ (scriptStackTrace != null ? "\n" + scriptStackTrace : ""), e);
+		this.scriptCompilerName = scriptCompilerName;
+		this.limit = limit;
+		this.instructionCount = instructionCount;
+		this.elapsedTime = elapsedTime;
+		this.outputSize = outputSize;
+		this.scriptStackTrace = scriptStackTrace;
+	}
+
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
+	public String getLimit() {
+		return limit;
+	}
+
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	public long getOutputSize() {
+		return outputSize;
+	}
+
+	public String getScriptStackTrace() {
+		return scriptStackTrace;
+	}
+}
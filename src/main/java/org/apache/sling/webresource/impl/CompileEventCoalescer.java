@@ -0,0 +1,211 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * 
+ * Merges compile requests of web resource groups into one compile event. A
+ * group is compiled once no request for it arrived during the quiet period,
+ * or once its first pending request waited for the maximum delay, so a
+ * continuous stream of changes still gets compiled.
+ * 
+ * Compile events list the group paths due together under "paths". Groups are
+ * the unit of compilation: the whole group is compiled, with members whose
+ * fingerprints did not change served from the cache instead of being
+ * compiled again, so the changed files are not passed on.
+ * 
+ */
+public class CompileEventCoalescer {
+
+	static class PendingCompile {
+
+		private final long firstRequested;
+
+		private long lastRequested;
+
+		PendingCompile(long requested) {
+			this.firstRequested = requested;
+			this.lastRequested = requested;
+		}
+	}
+
+	private final EventAdmin eventAdmin;
+
+	private final long quietPeriod;
+
+	private final long maxDelay;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Map<String, PendingCompile> pendingCompiles = new LinkedHashMap<String, PendingCompile>();
+
+	private boolean flushScheduled;
+
+	private int requestCount;
+
+	private int eventCount;
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			long nextDue = flushDue(System.currentTimeMillis());
+			if (nextDue >= 0) {
+				scheduleFlush(Math.max(0, nextDue - System.currentTimeMillis()));
+			}
+		}
+	};
+
+	/**
+	 * 
+	 * @param eventAdmin
+	 * @param quietPeriod
+	 *            milliseconds without requests for a group before it is
+	 *            compiled, 0 or less to post every request at once
+	 * @param maxDelay
+	 *            milliseconds the first request of a group waits at most
+	 * @param scheduler
+	 *            runs the delayed flushes, null to flush only through
+	 *            {@link #flushDue(long)}
+	 */
+	public CompileEventCoalescer(EventAdmin eventAdmin, long quietPeriod,
+			long maxDelay, ScheduledExecutorService scheduler) {
+		this.eventAdmin = eventAdmin;
+		this.quietPeriod = quietPeriod;
+		this.maxDelay = Math.max(quietPeriod, maxDelay);
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * 
+	 * Requests the compile of a web resource group.
+	 * 
+	 * @param webResourceGroupPath
+	 */
+	public void request(String webResourceGroupPath) {
+		request(webResourceGroupPath, System.currentTimeMillis());
+	}
+
+	void request(String webResourceGroupPath, long now) {
+		if (quietPeriod <= 0) {
+			List<String> webResourceGroupPaths = new ArrayList<String>();
+			webResourceGroupPaths.add(webResourceGroupPath);
+			synchronized (this) {
+				requestCount++;
+			}
+			postCompileEvent(webResourceGroupPaths);
+			return;
+		}
+		boolean schedule;
+		synchronized (this) {
+			requestCount++;
+			PendingCompile pendingCompile = pendingCompiles
+					.get(webResourceGroupPath);
+			if (pendingCompile == null) {
+				pendingCompile = new PendingCompile(now);
+				pendingCompiles.put(webResourceGroupPath, pendingCompile);
+			}
+			pendingCompile.lastRequested = now;
+			schedule = !flushScheduled;
+			flushScheduled = true;
+		}
+		if (schedule) {
+			scheduleFlush(quietPeriod);
+		}
+	}
+
+	/**
+	 * 
+	 * Posts one compile event for all groups that are due. Whoever receives
+	 * a due time schedules the next flush.
+	 * 
+	 * @param now
+	 * @return time the next pending group is due or -1 if none is pending
+	 */
+	long flushDue(long now) {
+		List<String> dueGroupPaths = new ArrayList<String>();
+		long nextDue = -1;
+		synchronized (this) {
+			Iterator<Map.Entry<String, PendingCompile>> pendingIt = pendingCompiles
+					.entrySet().iterator();
+			while (pendingIt.hasNext()) {
+				Map.Entry<String, PendingCompile> currentEntry = pendingIt
+						.next();
+				PendingCompile pendingCompile = currentEntry.getValue();
+				long due = Math.min(pendingCompile.lastRequested + quietPeriod,
+						pendingCompile.firstRequested + maxDelay);
+				if (due <= now) {
+					dueGroupPaths.add(currentEntry.getKey());
+					pendingIt.remove();
+				} else if (nextDue < 0 || due < nextDue) {
+					nextDue = due;
+				}
+			}
+			// Requests arriving from now on schedule a flush if this one
+			// does not
+			flushScheduled = nextDue >= 0;
+		}
+		if (!dueGroupPaths.isEmpty()) {
+			postCompileEvent(dueGroupPaths);
+		}
+		return nextDue;
+	}
+
+	/**
+	 * 
+	 * Posts all pending compiles at once, for instance on deactivation.
+	 * 
+	 */
+	public void flushAll() {
+		flushDue(Long.MAX_VALUE);
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingCompiles.size();
+	}
+
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	public synchronized int getEventCount() {
+		return eventCount;
+	}
+
+	private void scheduleFlush(long delay) {
+		if (scheduler == null) {
+			synchronized (this) {
+				flushScheduled = false;
+			}
+			return;
+		}
+		try {
+			scheduler.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				flushScheduled = false;
+			}
+		}
+	}
+
+	private void postCompileEvent(List<String> webResourceGroupPaths) {
+		synchronized (this) {
+			eventCount++;
+		}
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("paths", webResourceGroupPaths);
+		eventAdmin.postEvent(new Event(WebResourceInventoryManager.COMPILE_EVENT,
+				properties));
+	}
+}
@@ -0,0 +1,407 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 
+ * In memory cache of the compiled nodes of web resources keyed by source path
+ * and web resource group. The cache is bounded by the estimated bytes of its
+ * entries and drops the least recently used ones first.
+ * 
+ * Entries are not checked against the repository. They have to be
+ * invalidated from repository events. Entries are indexed by source and
+ * compiled path so an event only looks up the entries at, above and below
+ * its path instead of scanning the cache. Entries are also indexed by web
+ * resource group so a change of the compile options of a group drops all of
+ * its entries.
+ * 
+ */
+public class CompiledWebResourceCache {
+
+	/**
+	 * Estimated bytes of an entry besides its strings.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Invalidations remembered to check results loaded concurrently.
+	 */
+	private static final int INVALIDATION_LOG_SIZE = 256;
+
+	static class CacheEntry {
+
+		private final String key;
+
+		private final String sourcePath;
+
+		private final String webResourceGroupName;
+
+		private final String compiledPath;
+
+		private final long weight;
+
+		CacheEntry(String key, String sourcePath, String webResourceGroupName,
+				String compiledPath) {
+			this.key = key;
+			this.sourcePath = sourcePath;
+			this.webResourceGroupName = webResourceGroupName;
+			this.compiledPath = compiledPath;
+			this.weight = ENTRY_OVERHEAD + 2
+					* (key.length() + sourcePath.length() + compiledPath
+							.length());
+		}
+
+		private boolean isAffectedBy(Invalidation invalidation) {
+			if (invalidation.webResourceGroupName != null) {
+				return invalidation.webResourceGroupName
+						.equals(webResourceGroupName);
+			}
+			String path = invalidation.path;
+			boolean removed = invalidation.removed;
+			return isAncestorOrSelf(sourcePath, path)
+					|| isAncestorOrSelf(path, sourcePath)
+					|| (removed && isAncestorOrSelf(path, compiledPath));
+		}
+	}
+
+	static class Invalidation {
+
+		private final long generation;
+
+		private final String path;
+
+		private final boolean removed;
+
+		private final String webResourceGroupName;
+
+		Invalidation(long generation, String path, boolean removed,
+				String webResourceGroupName) {
+			this.generation = generation;
+			this.path = path;
+			this.removed = removed;
+			this.webResourceGroupName = webResourceGroupName;
+		}
+	}
+
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(
+			16, 0.75f, true);
+
+	/**
+	 * Sorted so entries below a changed folder are found as a range.
+	 */
+	private final TreeMap<String, Set<CacheEntry>> entriesBySourcePath = new TreeMap<String, Set<CacheEntry>>();
+
+	private final TreeMap<String, Set<CacheEntry>> entriesByCompiledPath = new TreeMap<String, Set<CacheEntry>>();
+
+	private final Map<String, Set<CacheEntry>> entriesByGroup = new HashMap<String, Set<CacheEntry>>();
+
+	private final ArrayDeque<Invalidation> invalidationLog = new ArrayDeque<Invalidation>();
+
+	private final long maxBytes;
+
+	private long totalBytes;
+
+	private long generation;
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	private long invalidationCount;
+
+	/**
+	 * 
+	 * @param maxBytes
+	 *            estimated bytes all entries may use
+	 */
+	public CompiledWebResourceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * 
+	 * Path of the compiled node of a source.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 *            group the source is compiled for or null
+	 * @return the path or null if it is not cached
+	 */
+	public synchronized String getCompiledPath(String sourcePath,
+			String webResourceGroupName) {
+		CacheEntry entry = entries.get(getKey(sourcePath,
+				webResourceGroupName));
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.compiledPath;
+	}
+
+	/**
+	 * 
+	 * Counter advanced on every invalidation. Read it before loading a result
+	 * from the repository and hand it to
+	 * {@link #put(String, String, String, long)} so results loaded while the
+	 * source changed are not cached.
+	 * 
+	 * @return
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * 
+	 * Caches the compiled node of a source.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 * @param compiledPath
+	 * @param loadedGeneration
+	 *            generation read before the result was loaded
+	 */
+	public synchronized void put(String sourcePath,
+			String webResourceGroupName, String compiledPath,
+			long loadedGeneration) {
+		String key = getKey(sourcePath, webResourceGroupName);
+		CacheEntry entry = new CacheEntry(key, sourcePath,
+				webResourceGroupName, compiledPath);
+		if (entry.weight > maxBytes
+				|| isInvalidatedSince(entry, loadedGeneration)) {
+			return;
+		}
+		remove(entries.get(key));
+		entries.put(key, entry);
+		addToIndex(entriesBySourcePath, entry.sourcePath, entry);
+		addToIndex(entriesByCompiledPath, entry.compiledPath, entry);
+		if (entry.webResourceGroupName != null) {
+			addToIndex(entriesByGroup, entry.webResourceGroupName, entry);
+		}
+		totalBytes += entry.weight;
+
+		Iterator<CacheEntry> entryIt = entries.values().iterator();
+		while (totalBytes > maxBytes && entryIt.hasNext()) {
+			CacheEntry eldest = entryIt.next();
+			entryIt.remove();
+			removeFromIndexes(eldest);
+			totalBytes -= eldest.weight;
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * 
+	 * Drops entries affected by a change at a repository path. These are
+	 * entries whose source is at, above or below the path. Removals also drop
+	 * entries whose compiled node was at or below the path. Changes of
+	 * compiled nodes are ignored as they are written by the compiles
+	 * themselves.
+	 * 
+	 * @param path
+	 * @param removed
+	 *            whether the path was removed
+	 */
+	public synchronized void invalidate(String path, boolean removed) {
+		logInvalidation(new Invalidation(generation + 1, path, removed, null));
+		List<CacheEntry> affectedEntries = new ArrayList<CacheEntry>();
+		// Sources at or above the path
+		String currentPath = path;
+		while (currentPath != null) {
+			addAll(affectedEntries, entriesBySourcePath.get(currentPath));
+			currentPath = getParentPath(currentPath);
+		}
+		addDescendants(affectedEntries, entriesBySourcePath, path);
+		if (removed) {
+			addAll(affectedEntries, entriesByCompiledPath.get(path));
+			addDescendants(affectedEntries, entriesByCompiledPath, path);
+		}
+		removeAffected(affectedEntries);
+	}
+
+	/**
+	 * 
+	 * Drops all entries compiled for a web resource group, for instance once
+	 * its compile options changed.
+	 * 
+	 * @param webResourceGroupName
+	 */
+	public synchronized void invalidateGroup(String webResourceGroupName) {
+		logInvalidation(new Invalidation(generation + 1, null, false,
+				webResourceGroupName));
+		List<CacheEntry> affectedEntries = new ArrayList<CacheEntry>();
+		addAll(affectedEntries, entriesByGroup.get(webResourceGroupName));
+		removeAffected(affectedEntries);
+	}
+
+	/**
+	 * 
+	 * Drops a cached compiled node, for instance once it is found missing.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 */
+	public synchronized void remove(String sourcePath,
+			String webResourceGroupName) {
+		remove(entries.get(getKey(sourcePath, webResourceGroupName)));
+	}
+
+	public synchronized void clear() {
+		generation++;
+		invalidationLog.clear();
+		entries.clear();
+		entriesBySourcePath.clear();
+		entriesByCompiledPath.clear();
+		entriesByGroup.clear();
+		totalBytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	private void remove(CacheEntry entry) {
+		if (entry != null) {
+			entries.remove(entry.key);
+			removeFromIndexes(entry);
+			totalBytes -= entry.weight;
+		}
+	}
+
+	private void removeFromIndexes(CacheEntry entry) {
+		removeFromIndex(entriesBySourcePath, entry.sourcePath, entry);
+		removeFromIndex(entriesByCompiledPath, entry.compiledPath, entry);
+		if (entry.webResourceGroupName != null) {
+			removeFromIndex(entriesByGroup, entry.webResourceGroupName, entry);
+		}
+	}
+
+	private void logInvalidation(Invalidation invalidation) {
+		generation = invalidation.generation;
+		invalidationLog.addLast(invalidation);
+		if (invalidationLog.size() > INVALIDATION_LOG_SIZE) {
+			invalidationLog.removeFirst();
+		}
+	}
+
+	private void removeAffected(List<CacheEntry> affectedEntries) {
+		for (CacheEntry currentEntry : affectedEntries) {
+			if (entries.get(currentEntry.key) == currentEntry) {
+				remove(currentEntry);
+				invalidationCount++;
+			}
+		}
+	}
+
+	private static void addToIndex(Map<String, Set<CacheEntry>> index,
+			String path, CacheEntry entry) {
+		Set<CacheEntry> pathEntries = index.get(path);
+		if (pathEntries == null) {
+			pathEntries = new HashSet<CacheEntry>();
+			index.put(path, pathEntries);
+		}
+		pathEntries.add(entry);
+	}
+
+	private static void removeFromIndex(Map<String, Set<CacheEntry>> index,
+			String path, CacheEntry entry) {
+		Set<CacheEntry> pathEntries = index.get(path);
+		if (pathEntries != null) {
+			pathEntries.remove(entry);
+			if (pathEntries.isEmpty()) {
+				index.remove(path);
+			}
+		}
+	}
+
+	private static void addDescendants(List<CacheEntry> result,
+			TreeMap<String, Set<CacheEntry>> index, String path) {
+		String folderPath = path.endsWith("/") ? path : path + "/";
+		// '0' follows '/' so the range holds all paths below the folder
+		for (Set<CacheEntry> currentEntries : index.subMap(folderPath,
+				folderPath.substring(0, folderPath.length() - 1) + "0")
+				.values()) {
+			result.addAll(currentEntries);
+		}
+	}
+
+	private static void addAll(List<CacheEntry> result,
+			Collection<CacheEntry> pathEntries) {
+		if (pathEntries != null) {
+			result.addAll(pathEntries);
+		}
+	}
+
+	private static String getParentPath(String path) {
+		int parentEnd = path.lastIndexOf('/');
+		if (parentEnd < 0 || path.length() <= 1) {
+			return null;
+		}
+		return parentEnd == 0 ? "/" : path.substring(0, parentEnd);
+	}
+
+	/**
+	 * Whether an invalidation since the generation affects the entry. When
+	 * the invalidations are no longer known it is assumed they did.
+	 */
+	private boolean isInvalidatedSince(CacheEntry entry, long loadedGeneration) {
+		if (loadedGeneration == generation) {
+			return false;
+		}
+		if (invalidationLog.isEmpty()
+				|| invalidationLog.peekFirst().generation > loadedGeneration + 1) {
+			return true;
+		}
+		for (Invalidation currentInvalidation : invalidationLog) {
+			if (currentInvalidation.generation > loadedGeneration
+					&& entry.isAffectedBy(currentInvalidation)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String getKey(String sourcePath, String webResourceGroupName) {
+		return (webResourceGroupName != null ? webResourceGroupName : "")
+				+ ":" + sourcePath;
+	}
+
+	private static boolean isAncestorOrSelf(String ancestorPath, String path) {
+		return path.equals(ancestorPath)
+				|| (path.startsWith(ancestorPath) && path.length() > ancestorPath
+						.length() && path.charAt(ancestorPath.length()) == '/');
+	}
+}
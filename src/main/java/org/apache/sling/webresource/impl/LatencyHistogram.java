@@ -0,0 +1,81 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * Lock free histogram of latencies in fixed millisecond buckets.
+ * 
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bounds in milliseconds of all buckets but the last, which is
+	 * unbounded.
+	 */
+	private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100,
+			200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			BUCKET_BOUNDS.length + 1);
+
+	public void record(long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * 
+	 * Upper bound of the bucket holding the given percentile.
+	 * 
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return milliseconds, -1 for no recorded values or Long.MAX_VALUE when
+	 *         the percentile falls into the unbounded bucket
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return -1;
+		}
+		long threshold = (long) Math.ceil(total * percentile / 100);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= threshold) {
+				return BUCKET_BOUNDS[i];
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * 
+	 * Bucket counts labeled by their bounds, for instance "&lt;5ms: 3".
+	 * 
+	 * @return
+	 */
+	public String[] getBuckets() {
+		String[] result = new String[counts.length()];
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			result[i] = "<" + BUCKET_BOUNDS[i] + "ms: " + counts.get(i);
+		}
+		result[BUCKET_BOUNDS.length] = ">=" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]
+				+ "ms: " + counts.get(BUCKET_BOUNDS.length);
+		return result;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 
+ * Values registered at repository paths, looked up by the nearest registered
+ * ancestor of a path. Lookups walk one trie node per path segment, so their
+ * cost depends on the depth of the path and not on the number of registered
+ * paths. Lookups do not lock, changes are serialized.
+ * 
+ * @param <V>
+ *            type of the registered values
+ */
+public class PathTrie<V> {
+
+	static class TrieNode<V> {
+
+		private final ConcurrentMap<String, TrieNode<V>> children = new ConcurrentHashMap<String, TrieNode<V>>();
+
+		private volatile V value;
+	}
+
+	private final TrieNode<V> root = new TrieNode<V>();
+
+	private int size;
+
+	/**
+	 * 
+	 * Registers a value at a path, replacing the value registered there.
+	 * 
+	 * @param path
+	 * @param value
+	 */
+	public synchronized void put(String path, V value) {
+		TrieNode<V> current = root;
+		int segmentStart = 1;
+		while (segmentStart < path.length()) {
+			int segmentEnd = getSegmentEnd(path, segmentStart);
+			String segment = path.substring(segmentStart, segmentEnd);
+			TrieNode<V> child = current.children.get(segment);
+			if (child == null) {
+				child = new TrieNode<V>();
+				current.children.put(segment, child);
+			}
+			current = child;
+			segmentStart = segmentEnd + 1;
+		}
+		if (current.value == null) {
+			size++;
+		}
+		current.value = value;
+	}
+
+	/**
+	 * 
+	 * Removes the value registered at a path.
+	 * 
+	 * @param path
+	 * @return the removed value or null
+	 */
+	public synchronized V remove(String path) {
+		return remove(root, path, 1);
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return the value registered at the path itself or null
+	 */
+	public V get(String path) {
+		TrieNode<V> current = root;
+		int segmentStart = 1;
+		while (current != null && segmentStart < path.length()) {
+			int segmentEnd = getSegmentEnd(path, segmentStart);
+			current = current.children.get(path.substring(segmentStart,
+					segmentEnd));
+			segmentStart = segmentEnd + 1;
+		}
+		return current != null ? current.value : null;
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return the value registered at the deepest path strictly above the
+	 *         path or null
+	 */
+	public V getNearestAncestor(String path) {
+		V result = null;
+		TrieNode<V> current = root;
+		int segmentStart = 1;
+		while (segmentStart < path.length()) {
+			if (current.value != null) {
+				result = current.value;
+			}
+			int segmentEnd = getSegmentEnd(path, segmentStart);
+			current = current.children.get(path.substring(segmentStart,
+					segmentEnd));
+			if (current == null) {
+				break;
+			}
+			segmentStart = segmentEnd + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return whether a value is registered at the path or below it
+	 */
+	public boolean containsAtOrBelow(String path) {
+		TrieNode<V> current = root;
+		int segmentStart = 1;
+		while (current != null && segmentStart < path.length()) {
+			int segmentEnd = getSegmentEnd(path, segmentStart);
+			current = current.children.get(path.substring(segmentStart,
+					segmentEnd));
+			segmentStart = segmentEnd + 1;
+		}
+		return current != null
+				&& (current.value != null || !current.children.isEmpty());
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private V remove(TrieNode<V> current, String path, int segmentStart) {
+		if (segmentStart >= path.length()) {
+			V result = current.value;
+			if (result != null) {
+				current.value = null;
+				size--;
+			}
+			return result;
+		}
+		int segmentEnd = getSegmentEnd(path, segmentStart);
+		String segment = path.substring(segmentStart, segmentEnd);
+		TrieNode<V> child = current.children.get(segment);
+		if (child == null) {
+			return null;
+		}
+		V result = remove(child, path, segmentEnd + 1);
+		if (child.value == null && child.children.isEmpty()) {
+			current.children.remove(segment);
+		}
+		return result;
+	}
+
+	private int getSegmentEnd(String path, int segmentStart) {
+		int segmentEnd = path.indexOf('/', segmentStart);
+		return segmentEnd < 0 ? path.length() : segmentEnd;
+	}
+}
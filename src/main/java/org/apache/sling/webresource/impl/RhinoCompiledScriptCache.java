@@ -0,0 +1,177 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Cache of parsed Rhino scripts keyed by a hash of their source so the same
+ * source is only parsed once no matter how many runners evaluate it. When
+ * runners compile to bytecode the cached scripts hold the generated classes,
+ * which are shared the same way.
+ * 
+ */
+public class RhinoCompiledScriptCache {
+
+	/**
+	 * Parts of the messages Rhino reports when generated bytecode exceeds a
+	 * limit of the class file format, like the 64KB method size. Lower case.
+	 */
+	private static final String[] CLASS_TOO_LARGE_MESSAGES = { "64k",
+			"too big" };
+
+	private final Map<String, Script> compiledScripts;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong fallbackCount = new AtomicLong();
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * 
+	 * @param maxEntries
+	 *            number of scripts kept before the least recently used one is
+	 *            dropped
+	 */
+	public RhinoCompiledScriptCache(final int maxEntries) {
+		this.compiledScripts = new LinkedHashMap<String, Script>(16, 0.75f,
+				true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * Returns the parsed script for the source, parsing it on a miss with the
+	 * optimization level of the context.
+	 * 
+	 * @param rhinoContext
+	 * @param scriptName
+	 *            name used in error messages
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public Script getScript(Context rhinoContext, String scriptName,
+			String source) throws IOException {
+		String key = rhinoContext.getOptimizationLevel() + ":"
+				+ DigestUtils.sha256Hex(source);
+		Script result;
+		synchronized (compiledScripts) {
+			result = compiledScripts.get(key);
+		}
+		if (result != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+			log.debug("Parsing script " + scriptName);
+			result = compileScript(rhinoContext, scriptName, source);
+			synchronized (compiledScripts) {
+				compiledScripts.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Compiles a script. If the generated bytecode is too large for a class
+	 * file, for instance because a function exceeds the 64KB method size
+	 * limit of the JVM, the script is compiled for the interpreter instead.
+	 * Other errors, like syntax errors, are thrown.
+	 * 
+	 * @param rhinoContext
+	 * @param scriptName
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	protected Script compileScript(Context rhinoContext, String scriptName,
+			String source) throws IOException {
+		int optimizationLevel = rhinoContext.getOptimizationLevel();
+		try {
+			return rhinoContext.compileReader(new StringReader(source),
+					scriptName, 1, null);
+		} catch (EvaluatorException e) {
+			if (optimizationLevel == RhinoRunnerOptions.INTERPRETED
+					|| !isClassTooLarge(e)) {
+				throw e;
+			}
+			fallbackCount.incrementAndGet();
+			log.info("Could not compile " + scriptName
+					+ " to bytecode. Falling back to interpreted mode: "
+					+ e.getMessage());
+			rhinoContext.setOptimizationLevel(RhinoRunnerOptions.INTERPRETED);
+			try {
+				return rhinoContext.compileReader(new StringReader(source),
+						scriptName, 1, null);
+			} finally {
+				rhinoContext.setOptimizationLevel(optimizationLevel);
+			}
+		}
+	}
+
+	private boolean isClassTooLarge(EvaluatorException e) {
+		String details = e.details();
+		if (details == null) {
+			return false;
+		}
+		details = details.toLowerCase();
+		for (String currentMessage : CLASS_TOO_LARGE_MESSAGES) {
+			if (details.contains(currentMessage)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void clear() {
+		synchronized (compiledScripts) {
+			compiledScripts.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (compiledScripts) {
+			return compiledScripts.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 
+	 * Number of scripts that had to be interpreted because they could not be
+	 * compiled to bytecode.
+	 * 
+	 * @return
+	 */
+	public long getFallbackCount() {
+		return fallbackCount.get();
+	}
+}
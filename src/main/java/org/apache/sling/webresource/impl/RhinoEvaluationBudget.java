@@ -0,0 +1,105 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.webresource.exception.WebResourceScriptLimitException;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+
+/**
+ * 
+ * Instructions and time one script evaluation may use. The budget is attached
+ * to the Rhino context while the script runs and charged from the context
+ * factory's instruction observer.
+ * 
+ */
+class RhinoEvaluationBudget {
+
+	/**
+	 * 
+	 * Thrown from the instruction observer to stop a script. It is an Error so
+	 * catch blocks in the script can not swallow it.
+	 * 
+	 */
+	static class LimitExceededError extends Error {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String limit;
+
+		private final String scriptStackTrace;
+
+		LimitExceededError(String limit, EvaluatorException scriptException) {
+			super("Script evaluation exceeded the " + limit + " limit",
+					scriptException);
+			this.limit = limit;
+			this.scriptStackTrace = scriptException.getScriptStackTrace();
+		}
+
+		public String getLimit() {
+			return limit;
+		}
+
+		public String getScriptStackTrace() {
+			return scriptStackTrace;
+		}
+	}
+
+	private final long maxInstructions;
+
+	private final long timeoutNanos;
+
+	private final long startTime = System.nanoTime();
+
+	private long instructionCount;
+
+	RhinoEvaluationBudget(long maxInstructions, long timeout) {
+		this.maxInstructions = maxInstructions;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+
+	/**
+	 * 
+	 * Budget of the evaluation running in the context.
+	 * 
+	 * @param rhinoContext
+	 * @return the budget or null if the evaluation is not limited
+	 */
+	static RhinoEvaluationBudget getBudget(Context rhinoContext) {
+		return (RhinoEvaluationBudget) rhinoContext
+				.getThreadLocal(RhinoEvaluationBudget.class);
+	}
+
+	void attach(Context rhinoContext) {
+		rhinoContext.putThreadLocal(RhinoEvaluationBudget.class, this);
+	}
+
+	static void detach(Context rhinoContext) {
+		rhinoContext.removeThreadLocal(RhinoEvaluationBudget.class);
+	}
+
+	/**
+	 * 
+	 * Charges executed instructions and stops the script once a limit is
+	 * exceeded.
+	 * 
+	 * @param instructions
+	 */
+	void charge(int instructions) {
+		instructionCount += instructions;
+		if (maxInstructions > 0 && instructionCount > maxInstructions) {
+			throw new LimitExceededError(
+					WebResourceScriptLimitException.LIMIT_INSTRUCTIONS,
+					new EvaluatorException("Instruction limit exceeded"));
+		}
+		if (timeoutNanos > 0 && System.nanoTime() - startTime > timeoutNanos) {
+			throw new LimitExceededError(
+					WebResourceScriptLimitException.LIMIT_TIMEOUT,
+					new EvaluatorException("Timeout exceeded"));
+		}
+	}
+
+	long getInstructionCount() {
+		return instructionCount;
+	}
+}
@@ -0,0 +1,165 @@
+package org.apache.sling.webresource.impl;
+
+/**
+ * 
+ * Settings shared by the Rhino script runners created by one factory.
+ * 
+ */
+public class RhinoRunnerOptions {
+
+	/**
+	 * Optimization level that runs scripts in the Rhino interpreter.
+	 */
+	public static final int INTERPRETED = -1;
+
+	private RhinoCompiledScriptCache compiledScriptCache;
+
+	private int optimizationLevel = INTERPRETED;
+
+	private boolean sealedRootScope;
+
+	private RhinoScopeSnapshotStore scopeSnapshotStore;
+
+	private long maxInstructions;
+
+	private long evaluationTimeout;
+
+	private int maxOutputSize;
+
+	private ScriptEvaluationMonitor evaluationMonitor;
+
+	public RhinoRunnerOptions() {
+	}
+
+	public RhinoCompiledScriptCache getCompiledScriptCache() {
+		return compiledScriptCache;
+	}
+
+	public void setCompiledScriptCache(
+			RhinoCompiledScriptCache compiledScriptCache) {
+		this.compiledScriptCache = compiledScriptCache;
+	}
+
+	public int getOptimizationLevel() {
+		return optimizationLevel;
+	}
+
+	/**
+	 * 
+	 * Sets the Rhino optimization level. -1 interprets scripts, 0 to 9
+	 * compile them to JVM bytecode.
+	 * 
+	 * @param optimizationLevel
+	 */
+	public void setOptimizationLevel(int optimizationLevel) {
+		this.optimizationLevel = optimizationLevel;
+	}
+
+	public boolean isSealedRootScope() {
+		return sealedRootScope;
+	}
+
+	/**
+	 * 
+	 * When set the root scope and every object reachable from it are sealed
+	 * once the global scripts are loaded so one runner can evaluate scripts
+	 * on several threads at once. Compiler libraries keeping mutable module
+	 * state can not be used this way. Later root scope additions are made on
+	 * a new sealed scope layered on top of the previous one.
+	 * 
+	 * @param sealedRootScope
+	 */
+	public void setSealedRootScope(boolean sealedRootScope) {
+		this.sealedRootScope = sealedRootScope;
+	}
+
+	public RhinoScopeSnapshotStore getScopeSnapshotStore() {
+		return scopeSnapshotStore;
+	}
+
+	/**
+	 * 
+	 * Sets the store used to persist initialized root scopes between
+	 * restarts. Snapshots are only used by interpreted runners.
+	 * 
+	 * @param scopeSnapshotStore
+	 *            the store or null to always evaluate the global scripts
+	 */
+	public void setScopeSnapshotStore(RhinoScopeSnapshotStore scopeSnapshotStore) {
+		this.scopeSnapshotStore = scopeSnapshotStore;
+	}
+
+	public long getMaxInstructions() {
+		return maxInstructions;
+	}
+
+	/**
+	 * 
+	 * Sets the number of Rhino instructions one evaluation may execute.
+	 * 
+	 * @param maxInstructions
+	 *            the limit or 0 for no limit
+	 */
+	public void setMaxInstructions(long maxInstructions) {
+		this.maxInstructions = maxInstructions;
+	}
+
+	public long getEvaluationTimeout() {
+		return evaluationTimeout;
+	}
+
+	/**
+	 * 
+	 * Sets the milliseconds one evaluation may run. The time is checked while
+	 * the script executes instructions, so calls blocking in Java code are
+	 * only stopped once they return.
+	 * 
+	 * @param evaluationTimeout
+	 *            the limit or 0 for no limit
+	 */
+	public void setEvaluationTimeout(long evaluationTimeout) {
+		this.evaluationTimeout = evaluationTimeout;
+	}
+
+	public int getMaxOutputSize() {
+		return maxOutputSize;
+	}
+
+	/**
+	 * 
+	 * Sets the number of characters one evaluation may return.
+	 * 
+	 * @param maxOutputSize
+	 *            the limit or 0 for no limit
+	 */
+	public void setMaxOutputSize(int maxOutputSize) {
+		this.maxOutputSize = maxOutputSize;
+	}
+
+	public ScriptEvaluationMonitor getEvaluationMonitor() {
+		return evaluationMonitor;
+	}
+
+	/**
+	 * 
+	 * Sets the monitor recording the evaluation statistics of the runners.
+	 * 
+	 * @param evaluationMonitor
+	 *            the monitor or null to not record statistics
+	 */
+	public void setEvaluationMonitor(ScriptEvaluationMonitor evaluationMonitor) {
+		this.evaluationMonitor = evaluationMonitor;
+	}
+
+	/**
+	 * 
+	 * Whether evaluations are observed for instruction or time limits or to
+	 * count instructions.
+	 * 
+	 * @return
+	 */
+	public boolean isEvaluationObserved() {
+		return maxInstructions > 0 || evaluationTimeout > 0
+				|| evaluationMonitor != null;
+	}
+}
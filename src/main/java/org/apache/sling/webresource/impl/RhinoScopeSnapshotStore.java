@@ -0,0 +1,275 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.serialize.ScriptableInputStream;
+import org.mozilla.javascript.serialize.ScriptableOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Persists what a compiler's global script adds to an initialized root scope
+ * so later runners can restore it instead of evaluating the script again.
+ * Snapshots hold the properties the script defined on the root scope and on
+ * the standard prototypes. Standard objects, host objects and the root scope
+ * itself are written as references and resolved against the new root scope on
+ * restore.
+ * 
+ * Snapshots are keyed by the Rhino version and the script sources. Only
+ * interpreted scripts can be restored, since the classes of bytecode compiled
+ * functions do not outlive the JVM.
+ * 
+ */
+public class RhinoScopeSnapshotStore {
+
+	private static final String SNAPSHOT_EXTENSION = ".scope";
+
+	/**
+	 * Standard objects with prototypes that global scripts may extend.
+	 */
+	private static final String[] STANDARD_OBJECTS = { "Object", "Function",
+			"Array", "String", "Number", "Boolean", "Date", "RegExp", "Error" };
+
+	/**
+	 * Objects written by reference on top of Rhino's standard exclusions.
+	 */
+	private static final String[] EXCLUDED_NAMES = { "Boolean",
+			"Boolean.prototype", "JSON" };
+
+	private final File snapshotDirectory;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	public RhinoScopeSnapshotStore(File snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+		if (!snapshotDirectory.isDirectory() && !snapshotDirectory.mkdirs()) {
+			log.warn("Could not create scope snapshot directory "
+					+ snapshotDirectory);
+		}
+	}
+
+	/**
+	 * 
+	 * Names of the properties the root scope and the standard prototypes
+	 * have before a global script runs.
+	 * 
+	 * @param rootScope
+	 * @return
+	 */
+	public Map<String, Set<Object>> captureIds(ScriptableObject rootScope) {
+		Map<String, Set<Object>> result = new HashMap<String, Set<Object>>();
+		result.put("", getIds(rootScope));
+		for (String currentName : STANDARD_OBJECTS) {
+			ScriptableObject prototype = getPrototype(rootScope, currentName);
+			if (prototype != null) {
+				result.put(currentName, getIds(prototype));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Restores a snapshot into the root scope.
+	 * 
+	 * @param scriptCompilerName
+	 * @param snapshotKey
+	 * @param rootScope
+	 * @return false if there is no snapshot for the key
+	 * @throws IOException
+	 *             if the snapshot can not be read. The root scope may have
+	 *             been partially changed in that case.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean restore(String scriptCompilerName, String snapshotKey,
+			ScriptableObject rootScope) throws IOException {
+		File snapshotFile = getSnapshotFile(scriptCompilerName, snapshotKey);
+		if (!snapshotFile.isFile()) {
+			return false;
+		}
+		ScriptableInputStream in = new ScriptableInputStream(
+				new BufferedInputStream(new FileInputStream(snapshotFile)),
+				rootScope);
+		try {
+			Map<String, Map<String, Object>> snapshot = (Map<String, Map<String, Object>>) in
+					.readObject();
+			for (Entry<String, Map<String, Object>> currentEntry : snapshot
+					.entrySet()) {
+				ScriptableObject target = currentEntry.getKey().length() == 0 ? rootScope
+						: getPrototype(rootScope, currentEntry.getKey());
+				if (target == null) {
+					throw new IOException("Missing standard object "
+							+ currentEntry.getKey());
+				}
+				for (Entry<String, Object> currentProperty : currentEntry
+						.getValue().entrySet()) {
+					ScriptableObject.putProperty(target,
+							currentProperty.getKey(), currentProperty.getValue());
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Invalid scope snapshot " + snapshotFile, e);
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid scope snapshot " + snapshotFile, e);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * Writes the properties added since the ids were captured. Existing
+	 * snapshots of the same compiler are replaced. Nothing is written if the
+	 * snapshot already exists.
+	 * 
+	 * @param scriptCompilerName
+	 * @param snapshotKey
+	 * @param rootScope
+	 * @param capturedIds
+	 *            ids captured before the global script ran
+	 * @param hostNames
+	 *            names of host objects bound on the root scope
+	 * @throws IOException
+	 */
+	public synchronized void write(String scriptCompilerName,
+			String snapshotKey, ScriptableObject rootScope,
+			Map<String, Set<Object>> capturedIds, String[] hostNames)
+			throws IOException {
+		File snapshotFile = getSnapshotFile(scriptCompilerName, snapshotKey);
+		if (snapshotFile.isFile()) {
+			return;
+		}
+		Map<String, Map<String, Object>> snapshot = new HashMap<String, Map<String, Object>>();
+		for (Entry<String, Set<Object>> currentEntry : capturedIds.entrySet()) {
+			ScriptableObject source = currentEntry.getKey().length() == 0 ? rootScope
+					: getPrototype(rootScope, currentEntry.getKey());
+			Map<String, Object> addedProperties = new HashMap<String, Object>();
+			for (Object currentId : source.getAllIds()) {
+				if (currentId instanceof String
+						&& !currentEntry.getValue().contains(currentId)) {
+					addedProperties.put((String) currentId, ScriptableObject
+							.getProperty(source, (String) currentId));
+				}
+			}
+			if (!addedProperties.isEmpty()) {
+				snapshot.put(currentEntry.getKey(), addedProperties);
+			}
+		}
+
+		File tempFile = File.createTempFile(getFilePrefix(scriptCompilerName),
+				".tmp", snapshotDirectory);
+		boolean written = false;
+		try {
+			ScriptableOutputStream out = new ScriptableOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)),
+					rootScope);
+			try {
+				for (String currentName : EXCLUDED_NAMES) {
+					out.addOptionalExcludedName(currentName);
+				}
+				for (String currentName : hostNames) {
+					out.addOptionalExcludedName(currentName);
+				}
+				out.writeObject(snapshot);
+			} finally {
+				out.close();
+			}
+			removeSnapshots(scriptCompilerName);
+			written = tempFile.renameTo(snapshotFile);
+		} finally {
+			if (!written) {
+				tempFile.delete();
+			}
+		}
+		if (written) {
+			log.info("Wrote scope snapshot for " + scriptCompilerName + " to "
+					+ snapshotFile);
+		}
+	}
+
+	/**
+	 * 
+	 * Removes all snapshots of a compiler.
+	 * 
+	 * @param scriptCompilerName
+	 */
+	public void removeSnapshots(String scriptCompilerName) {
+		String prefix = getFilePrefix(scriptCompilerName);
+		File[] snapshotFiles = snapshotDirectory.listFiles();
+		if (snapshotFiles != null) {
+			for (File currentFile : snapshotFiles) {
+				if (currentFile.getName().startsWith(prefix)
+						&& currentFile.getName().endsWith(SNAPSHOT_EXTENSION)) {
+					currentFile.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Builds the key identifying a snapshot.
+	 * 
+	 * @param scriptSources
+	 *            sources of all scripts evaluated into the root scope
+	 * @return
+	 */
+	public static String createSnapshotKey(String... scriptSources) {
+		StringBuilder keySource = new StringBuilder(Context
+				.getCurrentContext().getImplementationVersion());
+		for (String currentSource : scriptSources) {
+			keySource.append('\n').append(DigestUtils.sha256Hex(currentSource));
+		}
+		return DigestUtils.sha256Hex(keySource.toString());
+	}
+
+	public File getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	private File getSnapshotFile(String scriptCompilerName, String snapshotKey) {
+		return new File(snapshotDirectory, getFilePrefix(scriptCompilerName)
+				+ snapshotKey + SNAPSHOT_EXTENSION);
+	}
+
+	private String getFilePrefix(String scriptCompilerName) {
+		return scriptCompilerName.replaceAll("[^A-Za-z0-9._]", "_") + "-";
+	}
+
+	private ScriptableObject getPrototype(ScriptableObject rootScope,
+			String standardObjectName) {
+		Object standardObject = ScriptableObject.getProperty(rootScope,
+				standardObjectName);
+		if (standardObject instanceof ScriptableObject) {
+			Object prototype = ScriptableObject.getProperty(
+					(ScriptableObject) standardObject, "prototype");
+			if (prototype instanceof ScriptableObject) {
+				return (ScriptableObject) prototype;
+			}
+		}
+		return null;
+	}
+
+	private Set<Object> getIds(ScriptableObject scriptable) {
+		Set<Object> result = new HashSet<Object>();
+		for (Object currentId : scriptable.getAllIds()) {
+			result.add(currentId);
+		}
+		return result;
+	}
+}
@@ -2,9 +2,14 @@ package org.apache.sling.webresource.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.RepositoryException;
 
@@ -12,9 +17,19 @@ import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.WebResourceScriptCache;
 import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.apache.sling.webresource.exception.WebResourceScriptException;
+import org.apache.sling.webresource.exception.WebResourceScriptLimitException;
+import org.apache.sling.webresource.util.ScriptUtils;
+import org.apache.sling.webresource.util.WebResourceFileReader;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeJavaPackage;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.xml.XMLObject;
 import org.mozilla.javascript.tools.shell.Global;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,13 +45,32 @@ public class RhinoWebResourceScriptRunnerImpl implements
 			}
 			return super.hasFeature(cx, featureIndex);
 		}
+
+		@Override
+		protected void observeInstructionCount(Context cx, int instructionCount) {
+			RhinoEvaluationBudget budget = RhinoEvaluationBudget.getBudget(cx);
+			if (budget != null) {
+				budget.charge(instructionCount);
+			}
+		}
 	}
 
+	/**
+	 * Instructions executed between two checks of the evaluation limits.
+	 */
+	private static final int INSTRUCTION_OBSERVER_THRESHOLD = 10000;
+
 	static {
 		ContextFactory.initGlobal(new SlingRhinoFactory());
 	}
 
-	private Scriptable rootScope;
+	/**
+	 * Java objects bound on the root scope for the scripts.
+	 */
+	private static final String[] HOST_OBJECT_NAMES = { "logger",
+			"webResourceInventoryManager", "webResourceFileReader" };
+
+	private volatile Scriptable rootScope;
 
 	private String scriptCompilerName;
 
@@ -46,84 +80,275 @@ public class RhinoWebResourceScriptRunnerImpl implements
 
 	private WebResourceScriptCache webResourceScriptCache;
 
+	private RhinoRunnerOptions runnerOptions;
+
+	private ScriptEvaluationStatistics evaluationStatistics;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	public RhinoWebResourceScriptRunnerImpl(String scriptCompilerName,
 			InputStream globalScriptStream,
 			WebResourceInventoryManager webResourceInventoryManager,
 			WebResourceScriptCache webResourceScriptCache) {
+		this(scriptCompilerName, globalScriptStream,
+				webResourceInventoryManager, webResourceScriptCache,
+				createDefaultRunnerOptions());
+	}
+
+	public RhinoWebResourceScriptRunnerImpl(String scriptCompilerName,
+			InputStream globalScriptStream,
+			WebResourceInventoryManager webResourceInventoryManager,
+			WebResourceScriptCache webResourceScriptCache,
+			RhinoRunnerOptions runnerOptions) {
 		this.scriptCompilerName = scriptCompilerName;
 		this.globalScriptStream = globalScriptStream;
 		this.webResourceInventoryManager = webResourceInventoryManager;
 		this.webResourceScriptCache = webResourceScriptCache;
+		this.runnerOptions = runnerOptions;
+		if (runnerOptions.getEvaluationMonitor() != null) {
+			this.evaluationStatistics = runnerOptions.getEvaluationMonitor()
+					.getStatistics(scriptCompilerName);
+		}
 		loadGlobalScripts();
 	}
 
 	@Override
 	public String evaluateScript(InputStream script,
 			Map<String, Object> scriptVariables) {
-		Context rhinoContext = getRhinoContext();
-		// We can share the scope.
-		Scriptable threadScope = rhinoContext.newObject(rootScope);
-		threadScope.setPrototype(rootScope);
-
-		// We want "threadScope" to be a new top-level
-		// scope, so set its parent scope to null. This
-		// means that any variables created by assignments
-		// will be properties of "threadScope".
-		threadScope.setParentScope(null);
-		if (scriptVariables != null) {
-			for (Entry<String, Object> currentEntry : scriptVariables
-					.entrySet()) {
-				threadScope.put(currentEntry.getKey(), threadScope,
-						Context.toObject(currentEntry.getValue(), threadScope));
-			}
-		}
-
+		long startTime = System.nanoTime();
+		long startAllocatedBytes = evaluationStatistics != null ? ScriptEvaluationMonitor
+				.getCurrentThreadAllocatedBytes() : -1;
+		long executeStartTime = 0;
+		int sourceSize = 0;
+		boolean failed = true;
+		Context rhinoContext = enterRhinoContext();
+		RhinoEvaluationBudget budget = null;
 		String compiledScript = null;
 		try {
-			compiledScript = (String) rhinoContext.evaluateReader(threadScope,
-					new InputStreamReader(script), "src", 1, null);
+			String source = ScriptUtils.readScriptSource(script);
+			sourceSize = source.length();
+			Script parsedScript = runnerOptions.getCompiledScriptCache()
+					.getScript(rhinoContext, "src", source);
+			executeStartTime = System.nanoTime();
+
+			// We can share the scope.
+			Scriptable threadScope = rhinoContext.newObject(rootScope);
+			threadScope.setPrototype(rootScope);
+
+			// We want "threadScope" to be a new top-level
+			// scope, so set its parent scope to null. This
+			// means that any variables created by assignments
+			// will be properties of "threadScope".
+			threadScope.setParentScope(null);
+			if (scriptVariables != null) {
+				for (Entry<String, Object> currentEntry : scriptVariables
+						.entrySet()) {
+					threadScope.put(currentEntry.getKey(), threadScope,
+							toScriptValue(currentEntry.getValue(), threadScope));
+				}
+			}
+
+			// Scripts calling back into a runner stay on the outer budget.
+			if (runnerOptions.isEvaluationObserved()
+					&& RhinoEvaluationBudget.getBudget(rhinoContext) == null) {
+				budget = new RhinoEvaluationBudget(
+						runnerOptions.getMaxInstructions(),
+						runnerOptions.getEvaluationTimeout());
+				budget.attach(rhinoContext);
+			}
+
+			compiledScript = toResultString(parsedScript.exec(rhinoContext,
+					threadScope));
+			failed = false;
+		} catch (RhinoEvaluationBudget.LimitExceededError e) {
+			if (budget == null) {
+				throw e;
+			}
+			throw new WebResourceScriptException(
+					new WebResourceScriptLimitException(scriptCompilerName, e
+							.getLimit(), budget.getInstructionCount(),
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+									- startTime), -1, e.getScriptStackTrace(),
+							e));
 		} catch (IOException e) {
 			log.error("Error compiling scripts for " + scriptCompilerName, e);
+		} finally {
+			if (budget != null) {
+				RhinoEvaluationBudget.detach(rhinoContext);
+			}
+			exitRhinoContext();
+			if (evaluationStatistics != null) {
+				long endTime = System.nanoTime();
+				if (executeStartTime == 0) {
+					executeStartTime = endTime;
+				}
+				evaluationStatistics.recordEvaluation(executeStartTime
+						- startTime, endTime - executeStartTime,
+						budget != null ? budget.getInstructionCount() : -1,
+						sourceSize, compiledScript != null ? compiledScript
+								.length() : 0, getAllocatedBytes(
+								startAllocatedBytes), failed);
+			}
+		}
+		int maxOutputSize = runnerOptions.getMaxOutputSize();
+		if (maxOutputSize > 0 && compiledScript != null
+				&& compiledScript.length() > maxOutputSize) {
+			throw new WebResourceScriptException(
+					new WebResourceScriptLimitException(scriptCompilerName,
+							WebResourceScriptLimitException.LIMIT_OUTPUT_SIZE,
+							budget != null ? budget.getInstructionCount() : -1,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+									- startTime), compiledScript.length(),
+							null, null));
 		}
 		return compiledScript;
 	}
 
+	/**
+	 * 
+	 * Binds character sequences as primitive script strings so a source
+	 * passed as a variable reaches the compiler without being copied,
+	 * wrapped or embedded in the script. Other values are converted to
+	 * script objects.
+	 * 
+	 * @param value
+	 * @param scope
+	 * @return
+	 */
+	private Object toScriptValue(Object value, Scriptable scope) {
+		if (value instanceof CharSequence) {
+			return value.toString();
+		}
+		return Context.toObject(value, scope);
+	}
+
+	/**
+	 * 
+	 * Converts a script result to a string. Results built by concatenation
+	 * are flattened once here.
+	 * 
+	 * @param result
+	 * @return the string or null if the script returned nothing
+	 */
+	private String toResultString(Object result) {
+		if (result == null || result instanceof Undefined) {
+			return null;
+		}
+		if (result instanceof CharSequence) {
+			return result.toString();
+		}
+		return Context.toString(result);
+	}
+
+	private long getAllocatedBytes(long startAllocatedBytes) {
+		if (startAllocatedBytes < 0) {
+			return -1;
+		}
+		return ScriptEvaluationMonitor.getCurrentThreadAllocatedBytes()
+				- startAllocatedBytes;
+	}
+
 	@Override
 	public void evaluateScriptInRootConext(String scriptName, InputStream script) {
-		Context rhinoContext = getRhinoContext();
+		Context rhinoContext = enterRhinoContext();
 		try {
 
-			rhinoContext.evaluateReader(rootScope,
-					new InputStreamReader(script), scriptName, 1, null);
+			if (runnerOptions.isSealedRootScope()) {
+				addToSealedRootScope(rhinoContext, scriptName, script);
+			} else {
+				getCompiledScript(rhinoContext, scriptName, script).exec(
+						rhinoContext, rootScope);
+			}
 
 		} catch (IOException e) {
 			log.error(
 					"Error loading script " + scriptName + " to Root Context",
 					e);
+		} finally {
+			exitRhinoContext();
 		}
 
 	}
 
+	/**
+	 * 
+	 * Evaluates a script into a new root scope layered on top of the current
+	 * sealed one and publishes it once sealed. Evaluations already running
+	 * keep using the previous root scope.
+	 * 
+	 * @param rhinoContext
+	 * @param scriptName
+	 * @param script
+	 * @throws IOException
+	 */
+	private synchronized void addToSealedRootScope(Context rhinoContext,
+			String scriptName, InputStream script) throws IOException {
+		Scriptable newRootScope = rhinoContext.newObject(rootScope);
+		newRootScope.setPrototype(rootScope);
+		newRootScope.setParentScope(null);
+
+		getCompiledScript(rhinoContext, scriptName, script).exec(rhinoContext,
+				newRootScope);
+
+		sealRootScope((ScriptableObject) newRootScope);
+		rootScope = newRootScope;
+	}
+
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
 	protected void loadGlobalScripts() {
-		Context rhinoContext = getRhinoContext();
+		Context rhinoContext = enterRhinoContext();
 		try {
 
-			rootScope = new Global(rhinoContext);
+			String globalOverrides = ScriptUtils
+					.readScriptSource(webResourceScriptCache
+							.getGlobalWebResourceScripts());
+			String globalScript = ScriptUtils
+					.readScriptSource(globalScriptStream);
+
+			rootScope = createRootScope(rhinoContext, globalOverrides);
+
+			RhinoScopeSnapshotStore snapshotStore = getScopeSnapshotStore();
+			String snapshotKey = null;
+			boolean restored = false;
+			if (snapshotStore != null) {
+				snapshotKey = RhinoScopeSnapshotStore.createSnapshotKey(
+						globalOverrides, globalScript);
+				try {
+					restored = snapshotStore.restore(scriptCompilerName,
+							snapshotKey, (ScriptableObject) rootScope);
+				} catch (IOException e) {
+					log.warn("Discarding unreadable root scope snapshot for "
+							+ scriptCompilerName, e);
+					snapshotStore.removeSnapshots(scriptCompilerName);
+					rootScope = createRootScope(rhinoContext, globalOverrides);
+				}
+			}
 
-			rootScope
-					.put("logger", rootScope, Context.toObject(log, rootScope));
+			if (restored) {
+				log.debug("Restored root scope snapshot for "
+						+ scriptCompilerName);
+			} else {
+				Map<String, Set<Object>> capturedIds = null;
+				if (snapshotStore != null) {
+					capturedIds = snapshotStore
+							.captureIds((ScriptableObject) rootScope);
+				}
 
-			rootScope.put("webResourceInventoryManager", rootScope,
-					Context.toObject(webResourceInventoryManager, rootScope));
+				runnerOptions.getCompiledScriptCache()
+						.getScript(rhinoContext, scriptCompilerName,
+								globalScript).exec(rhinoContext, rootScope);
 
-			rhinoContext.evaluateReader(rootScope, new InputStreamReader(
-					webResourceScriptCache.getGlobalWebResourceScripts()),
-					"webResourceGlobalScript", 1, null);
+				if (snapshotStore != null) {
+					writeRootScope(snapshotStore, snapshotKey, capturedIds);
+				}
+			}
 
-			rhinoContext.evaluateReader(rootScope, new InputStreamReader(
-					globalScriptStream), scriptCompilerName, 1, null);
+			if (runnerOptions.isSealedRootScope()) {
+				sealRootScope((ScriptableObject) rootScope);
+			}
 
 		} catch (IOException e) {
 			log.error("Error loading global scripts for " + scriptCompilerName,
@@ -136,23 +361,178 @@ public class RhinoWebResourceScriptRunnerImpl implements
 			log.error(
 					"Error loading global scripts for webResourceGlobalScript",
 					e);
+		} finally {
+			exitRhinoContext();
 		}
 	}
 
 	/**
 	 * 
-	 * Retrieves Rhino Context and sets language and optimizations.
+	 * Creates a root scope with the host objects bound and the global
+	 * overrides evaluated.
 	 * 
+	 * @param rhinoContext
+	 * @param globalOverrides
 	 * @return
+	 * @throws IOException
+	 */
+	private Scriptable createRootScope(Context rhinoContext,
+			String globalOverrides) throws IOException {
+		Scriptable result = new Global(rhinoContext);
+
+		result.put("logger", result, Context.toObject(log, result));
+
+		result.put("webResourceInventoryManager", result,
+				Context.toObject(webResourceInventoryManager, result));
+
+		result.put("webResourceFileReader", result, Context.toObject(
+				new WebResourceFileReader(webResourceInventoryManager), result));
+
+		runnerOptions.getCompiledScriptCache()
+				.getScript(rhinoContext, "webResourceGlobalScript",
+						globalOverrides).exec(rhinoContext, result);
+		return result;
+	}
+
+	/**
+	 * 
+	 * Only interpreted scripts can be restored from a snapshot.
+	 * 
+	 * @return the snapshot store or null if snapshots are not used
 	 */
-	public Context getRhinoContext() {
-		Context result = null;
-		if (Context.getCurrentContext() == null) {
-			Context.enter();
-		}
-		result = Context.getCurrentContext();
-		result.setOptimizationLevel(-1);
-		result.setLanguageVersion(Context.VERSION_1_7);
+	private RhinoScopeSnapshotStore getScopeSnapshotStore() {
+		if (runnerOptions.getOptimizationLevel() != RhinoRunnerOptions.INTERPRETED) {
+			return null;
+		}
+		return runnerOptions.getScopeSnapshotStore();
+	}
+
+	private void writeRootScope(RhinoScopeSnapshotStore snapshotStore,
+			String snapshotKey, Map<String, Set<Object>> capturedIds) {
+		try {
+			snapshotStore.write(scriptCompilerName, snapshotKey,
+					(ScriptableObject) rootScope, capturedIds, HOST_OBJECT_NAMES);
+		} catch (IOException e) {
+			log.warn("Root scope of " + scriptCompilerName
+					+ " can not be persisted: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * 
+	 * Seals the root scope and every object reachable from it, so scripts
+	 * running concurrently can not change what they share. This covers the
+	 * standard objects and the objects of the compiler libraries, such as
+	 * their prototypes and the closures of their functions. Libraries keeping
+	 * mutable state in these, for instance module level caches or counters,
+	 * fail in this mode. Objects sealed before are not walked again, as
+	 * nothing can be added to them. Java packages are left open as they add
+	 * their classes when first used. E4X objects are sealed without walking
+	 * their contents.
+	 * 
+	 * @param scope
+	 */
+	protected void sealRootScope(ScriptableObject scope) {
+		List<ScriptableObject> reachableObjects = new ArrayList<ScriptableObject>();
+		Map<ScriptableObject, Boolean> visited = new IdentityHashMap<ScriptableObject, Boolean>();
+		ArrayDeque<ScriptableObject> pending = new ArrayDeque<ScriptableObject>();
+		addToSeal(scope, reachableObjects, visited, pending);
+		while (!pending.isEmpty()) {
+			ScriptableObject current = pending.pop();
+			// E4X objects look up names as XML and only hold XML
+			if (!(current instanceof XMLObject)) {
+				for (Object currentId : current.getAllIds()) {
+					Object value = currentId instanceof Integer ? ScriptableObject
+							.getProperty(current,
+									((Integer) currentId).intValue())
+							: ScriptableObject.getProperty(current,
+									currentId.toString());
+					addToSeal(value, reachableObjects, visited, pending);
+				}
+				if (current instanceof Function) {
+					addToSeal(
+							ScriptableObject.getProperty(current, "prototype"),
+							reachableObjects, visited, pending);
+				}
+			}
+			addToSeal(current.getPrototype(), reachableObjects, visited,
+					pending);
+			addToSeal(current.getParentScope(), reachableObjects, visited,
+					pending);
+		}
+		// Sealed once all are found, as reading may still initialize values
+		for (ScriptableObject currentObject : reachableObjects) {
+			currentObject.sealObject();
+		}
+	}
+
+	private static void addToSeal(Object value,
+			List<ScriptableObject> reachableObjects,
+			Map<ScriptableObject, Boolean> visited,
+			ArrayDeque<ScriptableObject> pending) {
+		if (!(value instanceof ScriptableObject)
+				|| value instanceof NativeJavaPackage) {
+			return;
+		}
+		ScriptableObject scriptableObject = (ScriptableObject) value;
+		if (!scriptableObject.isSealed()
+				&& visited.put(scriptableObject, Boolean.TRUE) == null) {
+			reachableObjects.add(scriptableObject);
+			pending.push(scriptableObject);
+		}
+	}
+
+	/**
+	 * 
+	 * Parses a script or reuses the parsed version of the same source.
+	 * 
+	 * @param rhinoContext
+	 * @param scriptName
+	 * @param script
+	 * @return
+	 * @throws IOException
+	 */
+	protected Script getCompiledScript(Context rhinoContext,
+			String scriptName, InputStream script) throws IOException {
+		return runnerOptions.getCompiledScriptCache().getScript(rhinoContext,
+				scriptName, ScriptUtils.readScriptSource(script));
+	}
+
+	/**
+	 * 
+	 * Enters a Rhino Context on the current thread and sets language and
+	 * optimizations. If the thread already has an active context, for instance
+	 * when a script calls back into a runner, that context is reused. Every
+	 * call must be paired with {@link #exitRhinoContext()} in a finally block
+	 * so no context or scope stays attached to pooled threads.
+	 * 
+	 * @return
+	 */
+	protected Context enterRhinoContext() {
+		boolean nested = Context.getCurrentContext() != null;
+		Context result = ContextFactory.getGlobal().enterContext();
+		if (!nested) {
+			result.setOptimizationLevel(runnerOptions.getOptimizationLevel());
+			result.setLanguageVersion(Context.VERSION_1_7);
+			result.setInstructionObserverThreshold(runnerOptions
+					.isEvaluationObserved() ? INSTRUCTION_OBSERVER_THRESHOLD
+					: 0);
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Exits the context entered by {@link #enterRhinoContext()}. The context
+	 * is released from the thread once the outermost entry exits.
+	 */
+	protected void exitRhinoContext() {
+		Context.exit();
+	}
+
+	private static RhinoRunnerOptions createDefaultRunnerOptions() {
+		RhinoRunnerOptions result = new RhinoRunnerOptions();
+		result.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
 		return result;
 	}
 
@@ -0,0 +1,383 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.exception.WebResourceScriptException;
+import org.apache.sling.webresource.exception.WebResourceScriptLimitException;
+import org.apache.sling.webresource.util.ScriptUtils;
+import org.apache.sling.webresource.util.WebResourceFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Script runner backed by a JSR-223 script engine such as Nashorn or GraalJS.
+ * Script engines do not share one scope between threads safely, so a runner
+ * evaluates one script at a time. Each evaluation gets its own scope for its
+ * variables with the engine scope holding the global scripts as its global
+ * scope, so variables do not leak into later evaluations.
+ * 
+ * Script engines can not count instructions, so instruction limits need the
+ * Rhino runner. With a time limit scripts run on a worker thread that is
+ * interrupted at the timeout. Engines may ignore the interrupt, so the runner
+ * is abandoned afterwards and its pool creates a new one.
+ * 
+ */
+public class ScriptEngineWebResourceScriptRunnerImpl implements
+		WebResourceScriptRunner {
+
+	private static final String ENGINE_OVERRIDES_SCRIPT = "META-INF/webresource-engine-overrides.js";
+
+	private static final int COMPILED_SCRIPT_CACHE_SIZE = 16;
+
+	private final String scriptCompilerName;
+
+	private final ScriptEngine scriptEngine;
+
+	private final Map<String, CompiledScript> compiledScripts;
+
+	private final ScriptEvaluationStatistics evaluationStatistics;
+
+	private final int maxOutputSize;
+
+	private final long evaluationTimeout;
+
+	private ThreadPoolExecutor evaluationExecutor;
+
+	private volatile boolean abandoned;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	public ScriptEngineWebResourceScriptRunnerImpl(String scriptCompilerName,
+			InputStream globalScriptStream, ScriptEngine scriptEngine,
+			WebResourceInventoryManager webResourceInventoryManager) {
+		this(scriptCompilerName, globalScriptStream, scriptEngine,
+				webResourceInventoryManager, null, 0, 0);
+	}
+
+	/**
+	 * 
+	 * @param scriptCompilerName
+	 * @param globalScriptStream
+	 * @param scriptEngine
+	 * @param webResourceInventoryManager
+	 * @param evaluationStatistics
+	 *            statistics recording the evaluations or null
+	 * @param maxOutputSize
+	 *            characters one evaluation may produce, 0 for no limit
+	 * @param evaluationTimeout
+	 *            milliseconds one evaluation may run, 0 for no limit
+	 */
+	public ScriptEngineWebResourceScriptRunnerImpl(String scriptCompilerName,
+			InputStream globalScriptStream, ScriptEngine scriptEngine,
+			WebResourceInventoryManager webResourceInventoryManager,
+			ScriptEvaluationStatistics evaluationStatistics, int maxOutputSize,
+			long evaluationTimeout) {
+		this.scriptCompilerName = scriptCompilerName;
+		this.scriptEngine = scriptEngine;
+		this.evaluationStatistics = evaluationStatistics;
+		this.maxOutputSize = maxOutputSize;
+		this.evaluationTimeout = evaluationTimeout;
+		this.compiledScripts = new LinkedHashMap<String, CompiledScript>(16,
+				0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CompiledScript> eldest) {
+				return size() > COMPILED_SCRIPT_CACHE_SIZE;
+			}
+		};
+		loadGlobalScripts(globalScriptStream, webResourceInventoryManager);
+	}
+
+	@Override
+	public synchronized String evaluateScript(InputStream script,
+			Map<String, Object> scriptVariables) {
+		if (abandoned) {
+			throw new WebResourceScriptException(new WebResourceCompileException(
+					"Script runner for " + scriptCompilerName
+							+ " was abandoned after a timeout"));
+		}
+		long startTime = System.nanoTime();
+		// Allocations of a worker thread are not attributed to the caller
+		long startAllocatedBytes = evaluationStatistics != null
+				&& evaluationTimeout <= 0 ? ScriptEvaluationMonitor
+				.getCurrentThreadAllocatedBytes() : -1;
+		long executeStartTime = 0;
+		int sourceSize = 0;
+		boolean failed = true;
+		String compiledScript = null;
+		try {
+			String source = ScriptUtils.readScriptSource(script);
+			sourceSize = source.length();
+			CompiledScript parsedScript = getCompiledScript(source);
+			executeStartTime = System.nanoTime();
+			Object result = evaluateWithTimeout(parsedScript, source,
+					createScriptContext(scriptVariables), startTime);
+			if (result != null) {
+				compiledScript = result.toString();
+			}
+			failed = false;
+		} catch (IOException e) {
+			log.error("Error compiling scripts for " + scriptCompilerName, e);
+		} finally {
+			if (evaluationStatistics != null) {
+				long endTime = System.nanoTime();
+				if (executeStartTime == 0) {
+					executeStartTime = endTime;
+				}
+				evaluationStatistics.recordEvaluation(executeStartTime
+						- startTime, endTime - executeStartTime, -1,
+						sourceSize, compiledScript != null ? compiledScript
+								.length() : 0,
+						startAllocatedBytes < 0 ? -1 : ScriptEvaluationMonitor
+								.getCurrentThreadAllocatedBytes()
+								- startAllocatedBytes, failed);
+			}
+		}
+		if (maxOutputSize > 0 && compiledScript != null
+				&& compiledScript.length() > maxOutputSize) {
+			throw new WebResourceScriptException(
+					new WebResourceScriptLimitException(scriptCompilerName,
+							WebResourceScriptLimitException.LIMIT_OUTPUT_SIZE,
+							-1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+									- startTime), compiledScript.length(),
+							null, null));
+		}
+		return compiledScript;
+	}
+
+	@Override
+	public synchronized void evaluateScriptInRootConext(String scriptName,
+			InputStream script) {
+		try {
+			evaluate(ScriptUtils.readScriptSource(script));
+		} catch (IOException e) {
+			log.error(
+					"Error loading script " + scriptName + " to Root Context",
+					e);
+		}
+	}
+
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
+	/**
+	 * 
+	 * Whether an evaluation timed out. The engine may still be running it, so
+	 * the runner must not be used again.
+	 * 
+	 * @return
+	 */
+	public boolean isAbandoned() {
+		return abandoned;
+	}
+
+	private void loadGlobalScripts(InputStream globalScriptStream,
+			WebResourceInventoryManager webResourceInventoryManager) {
+		scriptEngine.put("logger", log);
+		scriptEngine.put("webResourceInventoryManager",
+				webResourceInventoryManager);
+		scriptEngine.put("webResourceFileReader", new WebResourceFileReader(
+				webResourceInventoryManager));
+		try {
+			evaluate(ScriptUtils.readScriptSource(getClass().getClassLoader()
+					.getResourceAsStream(ENGINE_OVERRIDES_SCRIPT)));
+			evaluate(ScriptUtils.readScriptSource(globalScriptStream));
+		} catch (IOException e) {
+			log.error("Error loading global scripts for " + scriptCompilerName,
+					e);
+		}
+	}
+
+	/**
+	 * 
+	 * Evaluates a script in the engine scope. Compilable engines parse each
+	 * distinct source once.
+	 * 
+	 * @param source
+	 * @return
+	 */
+	private Object evaluate(String source) {
+		return evaluate(getCompiledScript(source), source, null);
+	}
+
+	/**
+	 * 
+	 * Creates the context of one evaluation. Its engine scope only holds the
+	 * script variables, names not found there are looked up in the engine
+	 * scope of the runner.
+	 * 
+	 * @param scriptVariables
+	 * @return
+	 */
+	private ScriptContext createScriptContext(Map<String, Object> scriptVariables) {
+		Bindings variableBindings = new SimpleBindings();
+		if (scriptVariables != null) {
+			variableBindings.putAll(scriptVariables);
+		}
+		ScriptContext result = new SimpleScriptContext();
+		result.setBindings(variableBindings, ScriptContext.ENGINE_SCOPE);
+		result.setBindings(scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE),
+				ScriptContext.GLOBAL_SCOPE);
+		return result;
+	}
+
+	/**
+	 * 
+	 * Evaluates a script on the worker thread if a time limit is set.
+	 * 
+	 * @param compiledScript
+	 * @param source
+	 * @param scriptContext
+	 * @param startTime
+	 *            nano time the evaluation was requested
+	 * @return
+	 */
+	private Object evaluateWithTimeout(final CompiledScript compiledScript,
+			final String source, final ScriptContext scriptContext,
+			long startTime) {
+		if (evaluationTimeout <= 0) {
+			return evaluate(compiledScript, source, scriptContext);
+		}
+		Future<Object> result = getEvaluationExecutor().submit(
+				new Callable<Object>() {
+					public Object call() {
+						return evaluate(compiledScript, source, scriptContext);
+					}
+				});
+		try {
+			return result.get(evaluationTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			abandoned = true;
+			result.cancel(true);
+			evaluationExecutor.shutdown();
+			log.warn("Abandoning script runner for " + scriptCompilerName
+					+ " after a timeout");
+			throw new WebResourceScriptException(
+					new WebResourceScriptLimitException(scriptCompilerName,
+							WebResourceScriptLimitException.LIMIT_TIMEOUT, -1,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+									- startTime), -1, null, e));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new WebResourceScriptException(
+					new WebResourceCompileException(
+							"Error evaluating script for " + scriptCompilerName
+									+ ": " + e.getCause(), e.getCause()));
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new WebResourceScriptException(
+					new WebResourceCompileException(
+							"Interrupted evaluating script for "
+									+ scriptCompilerName, e));
+		}
+	}
+
+	private ThreadPoolExecutor getEvaluationExecutor() {
+		if (evaluationExecutor == null) {
+			// The thread ends when idle so unused runners need no closing
+			evaluationExecutor = new ThreadPoolExecutor(1, 1, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread result = Executors.defaultThreadFactory()
+									.newThread(runnable);
+							result.setName("Web Resource Script "
+									+ scriptCompilerName);
+							result.setDaemon(true);
+							return result;
+						}
+					});
+			evaluationExecutor.allowCoreThreadTimeOut(true);
+		}
+		return evaluationExecutor;
+	}
+
+	/**
+	 * 
+	 * @param compiledScript
+	 * @param source
+	 * @param scriptContext
+	 *            context of the evaluation or null to evaluate in the engine
+	 *            scope
+	 * @return
+	 */
+	private Object evaluate(CompiledScript compiledScript, String source,
+			ScriptContext scriptContext) {
+		try {
+			if (scriptContext != null) {
+				return compiledScript != null ? compiledScript
+						.eval(scriptContext) : scriptEngine.eval(source,
+						scriptContext);
+			}
+			if (compiledScript != null) {
+				return compiledScript.eval();
+			}
+			return scriptEngine.eval(source);
+		} catch (ScriptException e) {
+			throw new WebResourceScriptException(
+					new WebResourceCompileException(
+							"Error evaluating script for " + scriptCompilerName
+									+ ": " + e.getMessage(), e));
+		}
+	}
+
+	/**
+	 * 
+	 * Parses a script or reuses the parsed version of the same source.
+	 * 
+	 * @param source
+	 * @return the parsed script or null if the engine can not compile
+	 */
+	private CompiledScript getCompiledScript(String source) {
+		if (!(scriptEngine instanceof Compilable)) {
+			return null;
+		}
+		try {
+			String key = DigestUtils.sha256Hex(source);
+			CompiledScript result = compiledScripts.get(key);
+			if (result == null) {
+				result = ((Compilable) scriptEngine).compile(source);
+				compiledScripts.put(key, result);
+			}
+			return result;
+		} catch (ScriptException e) {
+			throw new WebResourceScriptException(
+					new WebResourceCompileException(
+							"Error evaluating script for " + scriptCompilerName
+									+ ": " + e.getMessage(), e));
+		}
+	}
+}
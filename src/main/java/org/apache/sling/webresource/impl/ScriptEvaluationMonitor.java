@@ -0,0 +1,147 @@
+package org.apache.sling.webresource.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Hands out the evaluation statistics of each script compiler and publishes
+ * them as MBeans in the platform MBean server.
+ * 
+ */
+public class ScriptEvaluationMonitor {
+
+	public static final String OBJECT_NAME_PREFIX = "org.apache.sling.webresource:type=ScriptEvaluation,name=";
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * HotSpot's com.sun.management.ThreadMXBean#getThreadAllocatedBytes,
+	 * looked up reflectively as it is not part of the Java SE API.
+	 */
+	private static final Method GET_THREAD_ALLOCATED_BYTES = findGetThreadAllocatedBytes();
+
+	private final ConcurrentMap<String, ScriptEvaluationStatistics> statistics = new ConcurrentHashMap<String, ScriptEvaluationStatistics>();
+
+	private final boolean registerMBeans;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * 
+	 * @param registerMBeans
+	 *            whether statistics are published in the platform MBean server
+	 */
+	public ScriptEvaluationMonitor(boolean registerMBeans) {
+		this.registerMBeans = registerMBeans;
+	}
+
+	/**
+	 * 
+	 * Statistics of a script compiler, created and registered on first use.
+	 * 
+	 * @param scriptCompilerName
+	 * @return
+	 */
+	public ScriptEvaluationStatistics getStatistics(String scriptCompilerName) {
+		ScriptEvaluationStatistics result = statistics.get(scriptCompilerName);
+		if (result == null) {
+			ScriptEvaluationStatistics newStatistics = new ScriptEvaluationStatistics(
+					scriptCompilerName);
+			result = statistics.putIfAbsent(scriptCompilerName, newStatistics);
+			if (result == null) {
+				result = newStatistics;
+				if (registerMBeans) {
+					registerMBean(result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Unregisters all MBeans.
+	 */
+	public void close() {
+		if (registerMBeans) {
+			MBeanServer mbeanServer = ManagementFactory
+					.getPlatformMBeanServer();
+			for (String currentName : statistics.keySet()) {
+				try {
+					ObjectName objectName = getObjectName(currentName);
+					if (mbeanServer.isRegistered(objectName)) {
+						mbeanServer.unregisterMBean(objectName);
+					}
+				} catch (Exception e) {
+					log.warn("Could not unregister evaluation statistics for "
+							+ currentName, e);
+				}
+			}
+		}
+		statistics.clear();
+	}
+
+	/**
+	 * 
+	 * Bytes allocated so far by the current thread.
+	 * 
+	 * @return the bytes or -1 if the JVM does not measure thread allocations
+	 */
+	public static long getCurrentThreadAllocatedBytes() {
+		if (GET_THREAD_ALLOCATED_BYTES != null) {
+			try {
+				return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(
+						THREAD_MX_BEAN, Thread.currentThread().getId());
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	public static ObjectName getObjectName(String scriptCompilerName)
+			throws Exception {
+		return new ObjectName(OBJECT_NAME_PREFIX
+				+ ObjectName.quote(scriptCompilerName));
+	}
+
+	private void registerMBean(ScriptEvaluationStatistics mbean) {
+		try {
+			MBeanServer mbeanServer = ManagementFactory
+					.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(mbean.getScriptCompilerName());
+			if (mbeanServer.isRegistered(objectName)) {
+				mbeanServer.unregisterMBean(objectName);
+			}
+			mbeanServer.registerMBean(mbean, objectName);
+		} catch (Exception e) {
+			log.warn("Could not register evaluation statistics for "
+					+ mbean.getScriptCompilerName(), e);
+		}
+	}
+
+	private static Method findGetThreadAllocatedBytes() {
+		try {
+			Class<?> hotSpotThreadMXBean = ClassLoader.getSystemClassLoader()
+					.loadClass("com.sun.management.ThreadMXBean");
+			if (hotSpotThreadMXBean.isInstance(THREAD_MX_BEAN)) {
+				return hotSpotThreadMXBean.getMethod("getThreadAllocatedBytes",
+						long.class);
+			}
+		} catch (Exception e) {
+			// Not a HotSpot JVM
+		}
+		return null;
+	}
+}
@@ -0,0 +1,180 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Collects parse and execute times, instructions, sizes and allocations of
+ * the script evaluations of one script compiler.
+ * 
+ */
+public class ScriptEvaluationStatistics implements
+		ScriptEvaluationStatisticsMBean {
+
+	private final String scriptCompilerName;
+
+	private final AtomicLong evaluationCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private final AtomicLong parseTime = new AtomicLong();
+
+	private final AtomicLong executeTime = new AtomicLong();
+
+	private final AtomicLong instructionCount = new AtomicLong();
+
+	private final AtomicLong sourceCharacters = new AtomicLong();
+
+	private final AtomicLong outputCharacters = new AtomicLong();
+
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final LatencyHistogram parseTimeHistogram = new LatencyHistogram();
+
+	private final LatencyHistogram executeTimeHistogram = new LatencyHistogram();
+
+	private volatile boolean allocationsMeasured = true;
+
+	public ScriptEvaluationStatistics(String scriptCompilerName) {
+		this.scriptCompilerName = scriptCompilerName;
+	}
+
+	/**
+	 * 
+	 * Records one evaluation.
+	 * 
+	 * @param parseNanos
+	 *            time spent reading and parsing the script
+	 * @param executeNanos
+	 *            time spent executing the script
+	 * @param instructions
+	 *            instructions executed or -1 if they were not counted
+	 * @param sourceSize
+	 *            characters of the script source
+	 * @param outputSize
+	 *            characters of the result
+	 * @param allocated
+	 *            bytes allocated by the evaluating thread or -1 if unknown
+	 * @param failed
+	 *            whether the evaluation ended with an error
+	 */
+	public void recordEvaluation(long parseNanos, long executeNanos,
+			long instructions, long sourceSize, long outputSize,
+			long allocated, boolean failed) {
+		evaluationCount.incrementAndGet();
+		if (failed) {
+			failureCount.incrementAndGet();
+		}
+		parseTime.addAndGet(parseNanos);
+		executeTime.addAndGet(executeNanos);
+		parseTimeHistogram.record(parseNanos);
+		executeTimeHistogram.record(executeNanos);
+		if (instructions > 0) {
+			instructionCount.addAndGet(instructions);
+		}
+		sourceCharacters.addAndGet(sourceSize);
+		outputCharacters.addAndGet(outputSize);
+		if (allocated < 0) {
+			allocationsMeasured = false;
+		} else {
+			allocatedBytes.addAndGet(allocated);
+		}
+	}
+
+	@Override
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
+	@Override
+	public long getEvaluationCount() {
+		return evaluationCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	@Override
+	public double getAverageParseTime() {
+		return getAverageMillis(parseTime.get());
+	}
+
+	@Override
+	public double getAverageExecuteTime() {
+		return getAverageMillis(executeTime.get());
+	}
+
+	@Override
+	public long getParseTime95thPercentile() {
+		return parseTimeHistogram.getPercentile(95);
+	}
+
+	@Override
+	public long getExecuteTime50thPercentile() {
+		return executeTimeHistogram.getPercentile(50);
+	}
+
+	@Override
+	public long getExecuteTime95thPercentile() {
+		return executeTimeHistogram.getPercentile(95);
+	}
+
+	@Override
+	public long getExecuteTime99thPercentile() {
+		return executeTimeHistogram.getPercentile(99);
+	}
+
+	@Override
+	public String[] getParseTimeHistogram() {
+		return parseTimeHistogram.getBuckets();
+	}
+
+	@Override
+	public String[] getExecuteTimeHistogram() {
+		return executeTimeHistogram.getBuckets();
+	}
+
+	@Override
+	public long getInstructionCount() {
+		return instructionCount.get();
+	}
+
+	@Override
+	public long getSourceCharacters() {
+		return sourceCharacters.get();
+	}
+
+	@Override
+	public long getOutputCharacters() {
+		return outputCharacters.get();
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocationsMeasured ? allocatedBytes.get() : -1;
+	}
+
+	@Override
+	public void reset() {
+		evaluationCount.set(0);
+		failureCount.set(0);
+		parseTime.set(0);
+		executeTime.set(0);
+		instructionCount.set(0);
+		sourceCharacters.set(0);
+		outputCharacters.set(0);
+		allocatedBytes.set(0);
+		parseTimeHistogram.reset();
+		executeTimeHistogram.reset();
+	}
+
+	private double getAverageMillis(long totalNanos) {
+		long count = evaluationCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return totalNanos / 1000000d / count;
+	}
+}
@@ -0,0 +1,56 @@
+package org.apache.sling.webresource.impl;
+
+/**
+ * 
+ * JMX view of the script evaluations of one script compiler. Times are in
+ * milliseconds, sizes in characters.
+ * 
+ */
+public interface ScriptEvaluationStatisticsMBean {
+
+	public String getScriptCompilerName();
+
+	public long getEvaluationCount();
+
+	public long getFailureCount();
+
+	public double getAverageParseTime();
+
+	public double getAverageExecuteTime();
+
+	public long getParseTime95thPercentile();
+
+	public long getExecuteTime50thPercentile();
+
+	public long getExecuteTime95thPercentile();
+
+	public long getExecuteTime99thPercentile();
+
+	public String[] getParseTimeHistogram();
+
+	public String[] getExecuteTimeHistogram();
+
+	/**
+	 * 
+	 * Rhino instructions executed, counted in steps of the instruction
+	 * observer threshold.
+	 * 
+	 * @return
+	 */
+	public long getInstructionCount();
+
+	public long getSourceCharacters();
+
+	public long getOutputCharacters();
+
+	/**
+	 * 
+	 * Bytes allocated by the evaluating threads, or -1 if the JVM does not
+	 * measure thread allocations.
+	 * 
+	 * @return
+	 */
+	public long getAllocatedBytes();
+
+	public void reset();
+}
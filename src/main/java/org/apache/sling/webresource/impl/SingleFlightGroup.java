@@ -0,0 +1,105 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 
+ * Runs at most one call per key at a time. Callers arriving while a call for
+ * their key is in flight wait for it and share its result instead of running
+ * their own. Calls for different keys never block each other.
+ * 
+ * A thread running a call may start a nested call for the same key; it is
+ * run directly instead of waiting on itself.
+ * 
+ * @param <V>
+ *            result type of the calls
+ */
+public class SingleFlightGroup<V> {
+
+	static class Flight<V> extends FutureTask<V> {
+
+		private final Thread owner = Thread.currentThread();
+
+		Flight(Callable<V> callable) {
+			super(callable);
+		}
+	}
+
+	private final ConcurrentMap<String, Flight<V>> flights = new ConcurrentHashMap<String, Flight<V>>();
+
+	/**
+	 * 
+	 * Runs the call unless a call for the key is in flight, in which case its
+	 * result is returned.
+	 * 
+	 * @param key
+	 * @param callable
+	 * @return
+	 * @throws ExecutionException
+	 *             wrapping the exception thrown by the call
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for another caller
+	 */
+	public V execute(String key, Callable<V> callable)
+			throws ExecutionException, InterruptedException {
+		return execute(key, callable, null);
+	}
+
+	/**
+	 * 
+	 * Runs the call unless a call for the key is in flight, in which case its
+	 * result is returned.
+	 * 
+	 * @param key
+	 * @param callable
+	 * @param beforeWait
+	 *            called before waiting for the call of another thread, for
+	 *            instance to release resources that call may wait for. May be
+	 *            null.
+	 * @return
+	 * @throws ExecutionException
+	 *             wrapping the exception thrown by the call or by beforeWait
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for another caller
+	 */
+	public V execute(String key, Callable<V> callable, Callable<?> beforeWait)
+			throws ExecutionException, InterruptedException {
+		Flight<V> flight = new Flight<V>(callable);
+		Flight<V> currentFlight = flights.putIfAbsent(key, flight);
+		if (currentFlight == null) {
+			try {
+				flight.run();
+			} finally {
+				flights.remove(key, flight);
+			}
+			return flight.get();
+		}
+		if (currentFlight.owner == Thread.currentThread()) {
+			try {
+				return callable.call();
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+		}
+		if (beforeWait != null && !currentFlight.isDone()) {
+			try {
+				beforeWait.call();
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+		}
+		return currentFlight.get();
+	}
+
+	/**
+	 * 
+	 * @return number of calls currently in flight
+	 */
+	public int getFlightCount() {
+		return flights.size();
+	}
+}
@@ -0,0 +1,225 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 
+ * Index of the files each compiled web resource imported. Answers which
+ * compiled web resources are affected by a change to a file, following
+ * imports of imports across web resource groups.
+ * 
+ */
+public class WebResourceDependencyIndex {
+
+	/**
+	 * 
+	 * A source compiled for a web resource group, or for no group.
+	 * 
+	 */
+	public static class Dependent {
+
+		private final String sourcePath;
+
+		private final String webResourceGroupName;
+
+		public Dependent(String sourcePath, String webResourceGroupName) {
+			this.sourcePath = sourcePath;
+			this.webResourceGroupName = webResourceGroupName;
+		}
+
+		public String getSourcePath() {
+			return sourcePath;
+		}
+
+		public String getWebResourceGroupName() {
+			return webResourceGroupName;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Dependent)) {
+				return false;
+			}
+			Dependent otherDependent = (Dependent) other;
+			return sourcePath.equals(otherDependent.sourcePath)
+					&& (webResourceGroupName == null ? otherDependent.webResourceGroupName == null
+							: webResourceGroupName
+									.equals(otherDependent.webResourceGroupName));
+		}
+
+		@Override
+		public int hashCode() {
+			return sourcePath.hashCode() * 31
+					+ (webResourceGroupName != null ? webResourceGroupName
+							.hashCode() : 0);
+		}
+
+		@Override
+		public String toString() {
+			return sourcePath + " (" + webResourceGroupName + ")";
+		}
+	}
+
+	private final Map<Dependent, Set<String>> importsByDependent = new HashMap<Dependent, Set<String>>();
+
+	/**
+	 * Sorted so imports below a removed folder are found as a range.
+	 */
+	private final TreeMap<String, Set<Dependent>> dependentsByImport = new TreeMap<String, Set<Dependent>>();
+
+	/**
+	 * Sorted so sources below a removed folder are found as a range.
+	 */
+	private final TreeMap<String, Set<Dependent>> dependentsBySource = new TreeMap<String, Set<Dependent>>();
+
+	/**
+	 * 
+	 * Replaces the imports recorded for a compiled source.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 * @param imports
+	 *            paths of the files read by the compile
+	 */
+	public synchronized void setImports(String sourcePath,
+			String webResourceGroupName, Collection<String> imports) {
+		Dependent dependent = new Dependent(sourcePath, webResourceGroupName);
+		removeDependent(dependent);
+		if (imports == null || imports.isEmpty()) {
+			return;
+		}
+		Set<String> dependentImports = new HashSet<String>(imports);
+		dependentImports.remove(sourcePath);
+		importsByDependent.put(dependent, dependentImports);
+		addToIndex(dependentsBySource, sourcePath, dependent);
+		for (String currentImport : dependentImports) {
+			addToIndex(dependentsByImport, currentImport, dependent);
+		}
+	}
+
+	/**
+	 * 
+	 * Forgets the imports of a compiled source.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 */
+	public synchronized void remove(String sourcePath,
+			String webResourceGroupName) {
+		removeDependent(new Dependent(sourcePath, webResourceGroupName));
+	}
+
+	/**
+	 * 
+	 * Compiled sources that imported the file at the path or a file below it,
+	 * directly or through the sources importing those.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public synchronized Set<Dependent> getTransitiveDependents(String path) {
+		Set<Dependent> result = new LinkedHashSet<Dependent>();
+		Set<String> visitedPaths = new HashSet<String>();
+		Queue<String> pendingPaths = new ArrayDeque<String>();
+		pendingPaths.add(path);
+		while (!pendingPaths.isEmpty()) {
+			String currentPath = pendingPaths.poll();
+			if (!visitedPaths.add(currentPath)) {
+				continue;
+			}
+			for (Dependent currentDependent : getDirectDependents(currentPath)) {
+				if (result.add(currentDependent)) {
+					pendingPaths.add(currentDependent.getSourcePath());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Forgets the imports of all compiled sources at or below a removed path.
+	 * 
+	 * @param path
+	 */
+	public synchronized void removeSources(String path) {
+		List<Dependent> removedDependents = new ArrayList<Dependent>();
+		Set<Dependent> dependents = dependentsBySource.get(path);
+		if (dependents != null) {
+			removedDependents.addAll(dependents);
+		}
+		for (Set<Dependent> currentDependents : dependentsBySource.subMap(
+				path + "/", path + "0").values()) {
+			removedDependents.addAll(currentDependents);
+		}
+		for (Dependent currentDependent : removedDependents) {
+			removeDependent(currentDependent);
+		}
+	}
+
+	public synchronized int size() {
+		return importsByDependent.size();
+	}
+
+	public synchronized void clear() {
+		importsByDependent.clear();
+		dependentsByImport.clear();
+		dependentsBySource.clear();
+	}
+
+	private Set<Dependent> getDirectDependents(String path) {
+		Set<Dependent> result = new HashSet<Dependent>();
+		Set<Dependent> dependents = dependentsByImport.get(path);
+		if (dependents != null) {
+			result.addAll(dependents);
+		}
+		// '0' follows '/' so the range holds all paths below the folder
+		for (Set<Dependent> currentDependents : dependentsByImport.subMap(
+				path + "/", path + "0").values()) {
+			result.addAll(currentDependents);
+		}
+		return result;
+	}
+
+	private void removeDependent(Dependent dependent) {
+		Set<String> imports = importsByDependent.remove(dependent);
+		if (imports != null) {
+			removeFromIndex(dependentsBySource, dependent.getSourcePath(),
+					dependent);
+			for (String currentImport : imports) {
+				removeFromIndex(dependentsByImport, currentImport, dependent);
+			}
+		}
+	}
+
+	private static void addToIndex(TreeMap<String, Set<Dependent>> index,
+			String path, Dependent dependent) {
+		Set<Dependent> dependents = index.get(path);
+		if (dependents == null) {
+			dependents = new HashSet<Dependent>();
+			index.put(path, dependents);
+		}
+		dependents.add(dependent);
+	}
+
+	private static void removeFromIndex(TreeMap<String, Set<Dependent>> index,
+			String path, Dependent dependent) {
+		Set<Dependent> dependents = index.get(path);
+		if (dependents != null) {
+			dependents.remove(dependent);
+			if (dependents.isEmpty()) {
+				index.remove(path);
+			}
+		}
+	}
+}
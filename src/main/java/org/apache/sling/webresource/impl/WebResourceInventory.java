@@ -0,0 +1,165 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 
+ * Source files of each web resource group by extension. Every group is held
+ * as an immutable snapshot replaced on change, so readers never lock and
+ * never see a partly updated group. A reverse index finds the group of a
+ * path without scanning all groups.
+ * 
+ */
+public class WebResourceInventory {
+
+	private final ConcurrentMap<String, Map<String, List<String>>> inventoryByGroup = new ConcurrentHashMap<String, Map<String, List<String>>>();
+
+	private final ConcurrentMap<String, String> groupByPath = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * 
+	 * @param webResourceGroupName
+	 * @return snapshot of the source paths of the group by extension, empty
+	 *         if the group is unknown
+	 */
+	public Map<String, List<String>> getInventory(String webResourceGroupName) {
+		Map<String, List<String>> result = inventoryByGroup
+				.get(webResourceGroupName);
+		if (result == null) {
+			return Collections.emptyMap();
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param path
+	 * @return name of the group holding the source path or null
+	 */
+	public String getWebResourceGroupName(String path) {
+		return groupByPath.get(path);
+	}
+
+	/**
+	 * 
+	 * Adds a source path to a group unless it is already part of it.
+	 * 
+	 * @param webResourceGroupName
+	 * @param path
+	 */
+	public synchronized void add(String webResourceGroupName, String path) {
+		String currentGroupName = groupByPath.get(path);
+		if (webResourceGroupName.equals(currentGroupName)) {
+			return;
+		}
+		if (currentGroupName != null) {
+			remove(path);
+		}
+		String extension = getExtension(path);
+		Map<String, List<String>> inventory = new LinkedHashMap<String, List<String>>(
+				getInventory(webResourceGroupName));
+		List<String> extensionPaths = inventory.get(extension);
+		List<String> newExtensionPaths = extensionPaths != null ? new ArrayList<String>(
+				extensionPaths) : new ArrayList<String>();
+		newExtensionPaths.add(path);
+		inventory.put(extension,
+				Collections.unmodifiableList(newExtensionPaths));
+		inventoryByGroup.put(webResourceGroupName,
+				Collections.unmodifiableMap(inventory));
+		groupByPath.put(path, webResourceGroupName);
+	}
+
+	/**
+	 * 
+	 * Removes a source path from the group holding it.
+	 * 
+	 * @param path
+	 * @return name of the group that held the path or null
+	 */
+	public synchronized String remove(String path) {
+		String webResourceGroupName = groupByPath.remove(path);
+		if (webResourceGroupName == null) {
+			return null;
+		}
+		String extension = getExtension(path);
+		Map<String, List<String>> inventory = new LinkedHashMap<String, List<String>>(
+				getInventory(webResourceGroupName));
+		List<String> extensionPaths = inventory.get(extension);
+		if (extensionPaths != null) {
+			List<String> newExtensionPaths = new ArrayList<String>(
+					extensionPaths);
+			newExtensionPaths.remove(path);
+			inventory.put(extension,
+					Collections.unmodifiableList(newExtensionPaths));
+			inventoryByGroup.put(webResourceGroupName,
+					Collections.unmodifiableMap(inventory));
+		}
+		return webResourceGroupName;
+	}
+
+	/**
+	 * 
+	 * Replaces all source paths of a group at once.
+	 * 
+	 * @param webResourceGroupName
+	 * @param paths
+	 */
+	public synchronized void replaceGroup(String webResourceGroupName,
+			List<String> paths) {
+		removeGroup(webResourceGroupName);
+		Map<String, List<String>> inventory = new LinkedHashMap<String, List<String>>();
+		for (String currentPath : paths) {
+			String currentGroupName = groupByPath.get(currentPath);
+			if (webResourceGroupName.equals(currentGroupName)) {
+				continue;
+			}
+			if (currentGroupName != null) {
+				remove(currentPath);
+			}
+			groupByPath.put(currentPath, webResourceGroupName);
+			String extension = getExtension(currentPath);
+			List<String> extensionPaths = inventory.get(extension);
+			if (extensionPaths == null) {
+				extensionPaths = new ArrayList<String>();
+				inventory.put(extension, extensionPaths);
+			}
+			extensionPaths.add(currentPath);
+		}
+		for (Map.Entry<String, List<String>> currentEntry : inventory
+				.entrySet()) {
+			currentEntry.setValue(Collections.unmodifiableList(currentEntry
+					.getValue()));
+		}
+		inventoryByGroup.put(webResourceGroupName,
+				Collections.unmodifiableMap(inventory));
+	}
+
+	/**
+	 * 
+	 * Forgets a group and its source paths.
+	 * 
+	 * @param webResourceGroupName
+	 */
+	public synchronized void removeGroup(String webResourceGroupName) {
+		Map<String, List<String>> inventory = inventoryByGroup
+				.remove(webResourceGroupName);
+		if (inventory != null) {
+			for (List<String> currentPaths : inventory.values()) {
+				for (String currentPath : currentPaths) {
+					groupByPath.remove(currentPath, webResourceGroupName);
+				}
+			}
+		}
+	}
+
+	private String getExtension(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+}
@@ -1,22 +1,32 @@
 package org.apache.sling.webresource.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeType;
+import javax.jcr.observation.EventJournal;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 import javax.jcr.query.Row;
@@ -24,9 +34,11 @@ import javax.jcr.query.RowIterator;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.SlingConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.model.WebResourceGroup;
@@ -51,45 +63,133 @@ public class WebResourceInventoryManagerImpl implements
 	@Reference
 	private EventAdmin eventAdmin;
 
+	private static final long DEFAULT_COMPILE_QUIET_PERIOD = 2000;
+
+	@Property(longValue = DEFAULT_COMPILE_QUIET_PERIOD, label = "Compile Quiet Period", description = "Milliseconds without further changes to a web resource group before it is compiled, so the changes of a content package are compiled together. 0 compiles on every change")
+	public static final String COMPILE_QUIET_PERIOD = "webresource.inventory.compileQuietPeriod";
+
+	private static final long DEFAULT_COMPILE_MAX_DELAY = 10000;
+
+	@Property(longValue = DEFAULT_COMPILE_MAX_DELAY, label = "Compile Maximum Delay", description = "Milliseconds a changed web resource group waits at most for its compile while changes keep arriving")
+	public static final String COMPILE_MAX_DELAY = "webresource.inventory.compileMaxDelay";
+
+	private static final String INVENTORY_SNAPSHOT_PATH = "/var/webresource/inventory.snapshot";
+
+	/**
+	 * Journal events read at most before all groups are queried again.
+	 */
+	private static final int MAX_JOURNAL_EVENTS = 10000;
+
+	@Property(boolValue = true, label = "Use Inventory Snapshot", description = "Load the web resource inventory saved on the last run on activation and reconcile it with the repository in the background, instead of querying all web resource groups before activation completes")
+	public static final String USE_INVENTORY_SNAPSHOT = "webresource.inventory.useSnapshot";
+
 	private Session adminSession;
 
+	private boolean useInventorySnapshot;
+
+	/**
+	 * Time the inventory last matched the repository, saved with the
+	 * snapshot.
+	 */
+	private volatile long inventoryChangeMarker;
+
+	private ExecutorService reconcileExecutorService;
+
+	private ScheduledExecutorService compileEventScheduler;
+
+	private CompileEventCoalescer compileEventCoalescer;
+
 	private BundleContext bundleContext;
 
-	private Map<String, ServiceRegistration> webResourceServiceRegistration;
+	/**
+	 * Group names by group path, routing resource events to their group.
+	 */
+	private PathTrie<String> webResourceGroupPathTrie;
+
+	private ServiceRegistration inventoryEventDispatcherRegistration;
+
+	private ServiceRegistration compileRequestHandlerRegistration;
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
-	private Map<String, Map<String, List<String>>> webResourceExtentionInventoryMap;
+	private WebResourceInventory webResourceInventory;
 
 	private Map<String, String> webResourceNamePathMap;
 
 	protected void activate(ComponentContext context) {
 
 		bundleContext = context.getBundleContext();
-		webResourceServiceRegistration = new HashMap<String, ServiceRegistration>();
-		webResourceExtentionInventoryMap = new HashMap<String, Map<String, List<String>>>();
-		webResourceNamePathMap = new HashMap<String, String>();
+		webResourceGroupPathTrie = new PathTrie<String>();
+		webResourceInventory = new WebResourceInventory();
+		webResourceNamePathMap = new ConcurrentHashMap<String, String>();
+		compileEventScheduler = Executors.newSingleThreadScheduledExecutor();
+		compileEventCoalescer = new CompileEventCoalescer(eventAdmin,
+				PropertiesUtil.toLong(
+						context.getProperties().get(COMPILE_QUIET_PERIOD),
+						DEFAULT_COMPILE_QUIET_PERIOD), PropertiesUtil.toLong(
+						context.getProperties().get(COMPILE_MAX_DELAY),
+						DEFAULT_COMPILE_MAX_DELAY), compileEventScheduler);
+		useInventorySnapshot = PropertiesUtil.toBoolean(context
+				.getProperties().get(USE_INVENTORY_SNAPSHOT), true);
 
 		try {
 			adminSession = repository.loginAdministrative(null);
 
 			registerWebResourceGroupFolderHandler();
-
-			webResourceNamePathMap.putAll(getWebResources(adminSession));
-
-			for (Entry<String, String> currentWebResourceEntry : webResourceNamePathMap
-					.entrySet()) {
-				String webResourceGroupName = currentWebResourceEntry.getKey();
-
-				buildInventory(webResourceGroupName);
-				registerWebResourceGroupListener(webResourceGroupName,
-						currentWebResourceEntry.getValue());
+			registerInventoryEventDispatcher();
+
+			WebResourceInventorySnapshot snapshot = useInventorySnapshot ? loadInventorySnapshot()
+					: null;
+			if (snapshot != null) {
+				loadInventory(snapshot);
+				reconcileExecutorService = Executors.newSingleThreadExecutor();
+				final long changeMarker = snapshot.getChangeMarker();
+				reconcileExecutorService.execute(new Runnable() {
+					public void run() {
+						reconcileInventory(changeMarker);
+					}
+				});
+			} else {
+				inventoryChangeMarker = System.currentTimeMillis();
+				webResourceNamePathMap.putAll(getWebResources(adminSession));
+
+				// All groups are known before any file is assigned to its
+				// group
+				for (Entry<String, String> currentWebResourceEntry : webResourceNamePathMap
+						.entrySet()) {
+					registerWebResourceGroupPath(
+							currentWebResourceEntry.getKey(),
+							currentWebResourceEntry.getValue());
+				}
+				for (String webResourceGroupName : webResourceNamePathMap
+						.keySet()) {
+					buildInventory(webResourceGroupName);
+				}
+				if (useInventorySnapshot) {
+					saveInventorySnapshot();
+				}
 			}
 		} catch (RepositoryException e) {
 			log.error("Could not Login to admin session", e);
 		}
 
 		registerWebResourceGroupEventHandler();
+		registerCompileRequestHandler();
+	}
+
+	/**
+	 * 
+	 * Passes compile requests of other components, like the recompile of
+	 * files importing a changed file, through the same coalescer as changes
+	 * seen by the inventory.
+	 * 
+	 */
+	private void registerCompileRequestHandler() {
+		Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put(EventConstants.EVENT_TOPIC, COMPILE_REQUEST_EVENT);
+		compileRequestHandlerRegistration = bundleContext.registerService(
+				EventHandler.class.getName(), new CompileRequestHandler(),
+				props);
 	}
 
 	private void registerWebResourceGroupEventHandler() {
@@ -137,35 +237,40 @@ public class WebResourceInventoryManagerImpl implements
 
 	}
 
-	private void unregisterWebResourceGroupListener(final String webResourceName)
-			throws RepositoryException {
-		ServiceRegistration serviceRegistration = webResourceServiceRegistration
-				.get(webResourceName);
-		serviceRegistration.unregister();
+	/**
+	 * 
+	 * Registers one handler for resource events below all web resource
+	 * groups. EventAdmin would otherwise evaluate a path filter per group for
+	 * every resource event.
+	 * 
+	 */
+	private void registerInventoryEventDispatcher() {
+		String[] topics = new String[] { SlingConstants.TOPIC_RESOURCE_ADDED,
+				SlingConstants.TOPIC_RESOURCE_CHANGED,
+				SlingConstants.TOPIC_RESOURCE_REMOVED };
+
+		Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put(EventConstants.EVENT_TOPIC, topics);
+		inventoryEventDispatcherRegistration = bundleContext.registerService(
+				EventHandler.class.getName(), new InventoryEventDispatcher(
+						new InventoryEventHandler()), props);
 	}
 
-	private void registerWebResourceGroupListener(final String webResourceName,
-			final String webResourcePath) throws RepositoryException {
-		if (!webResourceServiceRegistration.containsKey(webResourceName)) {
-			String[] topics = new String[] {
-					SlingConstants.TOPIC_RESOURCE_ADDED,
-					SlingConstants.TOPIC_RESOURCE_CHANGED,
-					SlingConstants.TOPIC_RESOURCE_REMOVED };
-
-			Dictionary<String, Object> props = new Hashtable<String, Object>();
-			props.put(EventConstants.EVENT_TOPIC, topics);
-			props.put(EventConstants.EVENT_FILTER, "(path=" + webResourcePath
-					+ "/*)");
-
-			this.webResourceServiceRegistration.put(webResourceName,
-					bundleContext.registerService(EventHandler.class.getName(),
-							new InventoryEventHandler(), props));
-
-			log.info("Registered Inventory Event Handler for "
-					+ webResourceName);
+	private void unregisterWebResourceGroupPath(final String webResourceName,
+			final String webResourcePath) {
+		if (webResourcePath != null) {
+			webResourceGroupPathTrie.remove(webResourcePath);
+			log.info("Removed Inventory Event Route for " + webResourceName);
 		}
 	}
 
+	private void registerWebResourceGroupPath(final String webResourceName,
+			final String webResourcePath) {
+		webResourceGroupPathTrie.put(webResourcePath, webResourceName);
+
+		log.info("Registered Inventory Event Route for " + webResourceName);
+	}
+
 	/**
 	 * 
 	 * Runs Query for Web Resource Nodes in a given group
@@ -191,36 +296,54 @@ public class WebResourceInventoryManagerImpl implements
 		return queryResult;
 	}
 
-	private void buildInventory(String webResourceGroupName)
-			throws RepositoryException {
-		log.info("Creating Inventory for Web Resource Group: "
-				+ webResourceGroupName);
-		QueryResult result = getWebResourceGroupQueryResults(adminSession,
+	/**
+	 * 
+	 * Queries the source files of a web resource group. Files of nested
+	 * groups belong to the nearest group and are left out.
+	 * 
+	 * @param session
+	 * @param webResourceGroupName
+	 * @return
+	 * @throws RepositoryException
+	 */
+	private List<String> queryInventory(Session session,
+			String webResourceGroupName) throws RepositoryException {
+		QueryResult result = getWebResourceGroupQueryResults(session,
 				webResourceGroupName);
 		RowIterator rowIterator = result.getRows();
+		List<String> webResourceGroupPaths = new ArrayList<String>();
 		while (rowIterator.hasNext()) {
 			Row currentRow = rowIterator.nextRow();
 
 			Node currentFileNode = currentRow.getNode("nt:file");
-			String currentPath = currentFileNode.getPath();
 			String currentExtention = JCRUtils
 					.getNodeExtension(currentFileNode);
 			if (!(currentExtention.equals("js") || currentExtention
-					.equals("css"))) {
-				updateWebResourceExtensionInventory(currentPath,
-						currentFileNode);
+					.equals("css"))
+					&& webResourceGroupName
+							.equals(getWebResourceGroupForNode(currentFileNode))) {
+				webResourceGroupPaths.add(currentFileNode.getPath());
 			}
 
 		}
+		return webResourceGroupPaths;
+	}
+
+	private void buildInventory(String webResourceGroupName)
+			throws RepositoryException {
+		log.info("Creating Inventory for Web Resource Group: "
+				+ webResourceGroupName);
+		webResourceInventory.replaceGroup(webResourceGroupName,
+				queryInventory(adminSession, webResourceGroupName));
 
 		log.info("Created Inventory for Web Resource Group: "
 				+ webResourceGroupName);
 
 		if (log.isDebugEnabled()
-				&& MapUtils.isNotEmpty(webResourceExtentionInventoryMap
-						.get(webResourceGroupName))) {
-			for (Entry<String, List<String>> extentionListEntry : webResourceExtentionInventoryMap
-					.get(webResourceGroupName).entrySet()) {
+				&& MapUtils.isNotEmpty(webResourceInventory
+						.getInventory(webResourceGroupName))) {
+			for (Entry<String, List<String>> extentionListEntry : webResourceInventory
+					.getInventory(webResourceGroupName).entrySet()) {
 				log.debug("Extension: " + extentionListEntry.getKey()
 						+ " Items: " + extentionListEntry.getValue());
 
@@ -228,67 +351,291 @@ public class WebResourceInventoryManagerImpl implements
 
 		}
 
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("paths",
-				Collections.singletonList(webResourceNamePathMap
-						.get(webResourceGroupName)));
-		org.osgi.service.event.Event compileEvent = new org.osgi.service.event.Event(
-				WebResourceInventoryManager.COMPILE_EVENT, properties);
-		eventAdmin.postEvent(compileEvent);
+		compileEventCoalescer.request(webResourceNamePathMap
+				.get(webResourceGroupName));
 
 	}
 
-	private String removePathFromWebResourceExtensionInventory(String path)
-			throws RepositoryException {
-		String webResourceGroupName = null;
-		for (Entry<String, Map<String, List<String>>> currentWebResourceExtensionEntry : webResourceExtentionInventoryMap
+	/**
+	 * 
+	 * Fills the inventory from a snapshot, without querying the repository.
+	 * 
+	 * @param snapshot
+	 */
+	private void loadInventory(WebResourceInventorySnapshot snapshot) {
+		inventoryChangeMarker = snapshot.getChangeMarker();
+		webResourceNamePathMap.putAll(snapshot.getWebResourceGroupPaths());
+		for (Entry<String, String> currentWebResourceEntry : webResourceNamePathMap
 				.entrySet()) {
-			for (Entry<String, List<String>> currentExtensionEntry : currentWebResourceExtensionEntry
-					.getValue().entrySet()) {
+			registerWebResourceGroupPath(currentWebResourceEntry.getKey(),
+					currentWebResourceEntry.getValue());
+		}
+		for (String webResourceGroupName : webResourceNamePathMap.keySet()) {
+			webResourceInventory.replaceGroup(webResourceGroupName,
+					snapshot.getSources(webResourceGroupName));
+		}
+		log.info("Loaded Inventory of " + webResourceNamePathMap.size()
+				+ " Web Resource Groups from " + INVENTORY_SNAPSHOT_PATH);
+	}
 
-				if (currentExtensionEntry.getValue().remove(path)) {
-					webResourceGroupName = currentWebResourceExtensionEntry
-							.getKey();
+	/**
+	 * 
+	 * Brings an inventory loaded from a snapshot up to date. Groups are added
+	 * and removed as found in the repository. Only groups with files changed
+	 * since the change marker are queried again if the repository keeps an
+	 * event journal, all groups otherwise. Only groups whose files differ
+	 * from the snapshot are compiled.
+	 * 
+	 * @param changeMarker
+	 */
+	private void reconcileInventory(long changeMarker) {
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			long reconcileMarker = System.currentTimeMillis();
+			Set<String> changedGroupNames = getChangedWebResourceGroups(
+					session, changeMarker);
 
+			Map<String, String> webResources = getWebResources(session);
+			for (Entry<String, String> currentWebResourceEntry : webResources
+					.entrySet()) {
+				String webResourceGroupName = currentWebResourceEntry.getKey();
+				String webResourceGroupPath = currentWebResourceEntry
+						.getValue();
+				String previousPath = webResourceNamePathMap.put(
+						webResourceGroupName, webResourceGroupPath);
+				if (!webResourceGroupPath.equals(previousPath)) {
+					unregisterWebResourceGroupPath(webResourceGroupName,
+							previousPath);
+					registerWebResourceGroupPath(webResourceGroupName,
+							webResourceGroupPath);
+					if (changedGroupNames != null) {
+						changedGroupNames.add(webResourceGroupName);
+					}
 				}
 			}
+			for (String webResourceGroupName : new ArrayList<String>(
+					webResourceNamePathMap.keySet())) {
+				if (!webResources.containsKey(webResourceGroupName)) {
+					String webResourceGroupPath = webResourceNamePathMap
+							.remove(webResourceGroupName);
+					webResourceInventory.removeGroup(webResourceGroupName);
+					unregisterWebResourceGroupPath(webResourceGroupName,
+							webResourceGroupPath);
+				}
+			}
+
+			int changedCount = 0;
+			for (String webResourceGroupName : webResources.keySet()) {
+				if (changedGroupNames != null
+						&& !changedGroupNames.contains(webResourceGroupName)) {
+					continue;
+				}
+				List<String> webResourceGroupPaths = queryInventory(session,
+						webResourceGroupName);
+				if (!new HashSet<String>(webResourceGroupPaths)
+						.equals(new HashSet<String>(
+								getSourceWebResources(webResourceGroupName)))) {
+					webResourceInventory.replaceGroup(webResourceGroupName,
+							webResourceGroupPaths);
+					compileEventCoalescer.request(webResourceNamePathMap
+							.get(webResourceGroupName));
+					changedCount++;
+				}
+			}
+			inventoryChangeMarker = reconcileMarker;
+			log.info("Reconciled Inventory of " + webResources.size()
+					+ " Web Resource Groups, " + changedCount + " changed");
+			saveInventorySnapshot();
+		} catch (RepositoryException e) {
+			log.error("Could not reconcile Web Resource Inventory", e);
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
 		}
+	}
 
-		return webResourceGroupName;
+	/**
+	 * 
+	 * Reads the event journal of the repository from the change marker on.
+	 * 
+	 * @param session
+	 * @param changeMarker
+	 * @return names of the groups holding changed items, or null if every
+	 *         group has to be queried again
+	 */
+	private Set<String> getChangedWebResourceGroups(Session session,
+			long changeMarker) {
+		if (!Boolean.parseBoolean(session.getRepository().getDescriptor(
+				Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED))) {
+			return null;
+		}
+		Set<String> result = new HashSet<String>();
+		try {
+			EventJournal eventJournal = session.getWorkspace()
+					.getObservationManager().getEventJournal();
+			eventJournal.skipTo(changeMarker);
+			int eventCount = 0;
+			while (eventJournal.hasNext()) {
+				if (++eventCount > MAX_JOURNAL_EVENTS) {
+					return null;
+				}
+				String path = eventJournal.nextEvent().getPath();
+				if (path == null) {
+					continue;
+				}
+				String webResourceGroupName = webResourceGroupPathTrie
+						.get(path);
+				if (webResourceGroupName == null) {
+					webResourceGroupName = webResourceGroupPathTrie
+							.getNearestAncestor(path);
+				}
+				if (webResourceGroupName != null) {
+					result.add(webResourceGroupName);
+				}
+			}
+		} catch (RepositoryException e) {
+			log.warn("Could not read the event journal, reconciling all Web Resource Groups",
+					e);
+			return null;
+		}
+		return result;
 	}
 
+	private WebResourceInventorySnapshot loadInventorySnapshot() {
+		try {
+			if (!adminSession.nodeExists(INVENTORY_SNAPSHOT_PATH)) {
+				return null;
+			}
+			InputStream snapshotStream = JCRUtils
+					.getFileNodeAsStream(adminSession
+							.getNode(INVENTORY_SNAPSHOT_PATH));
+			try {
+				return WebResourceInventorySnapshot.read(snapshotStream);
+			} finally {
+				snapshotStream.close();
+			}
+		} catch (Exception e) {
+			log.warn("Unable to load Web Resource Inventory snapshot", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 
+	 * Saves the inventory with the time it last matched the repository.
+	 * 
+	 */
+	protected void saveInventorySnapshot() {
+		Session session = null;
+		try {
+			ByteArrayOutputStream snapshotStream = new ByteArrayOutputStream();
+			WebResourceInventorySnapshot.create(inventoryChangeMarker,
+					webResourceNamePathMap, webResourceInventory).write(
+					snapshotStream);
+			session = repository.loginAdministrative(null);
+			JCRUtils.createFileContentNode(INVENTORY_SNAPSHOT_PATH,
+					new ByteArrayInputStream(snapshotStream.toByteArray()),
+					session);
+			session.save();
+		} catch (IOException e) {
+			log.warn("Unable to save Web Resource Inventory snapshot", e);
+		} catch (RepositoryException e) {
+			log.warn("Unable to save Web Resource Inventory snapshot", e);
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	private String removePathFromWebResourceExtensionInventory(String path)
+			throws RepositoryException {
+		return webResourceInventory.remove(path);
+	}
+
+	/**
+	 * 
+	 * Returns the name of the nearest web resource group at or above a node.
+	 * Known group paths are looked up in memory, the repository is only
+	 * walked for nodes outside of them.
+	 * 
+	 * @param childNode
+	 * @return
+	 * @throws RepositoryException
+	 */
 	public String getWebResourceGroupForNode(Node childNode)
 			throws RepositoryException {
+		if (webResourceGroupPathTrie != null) {
+			String path = childNode.getPath();
+			String result = webResourceGroupPathTrie.get(path);
+			if (result == null) {
+				result = webResourceGroupPathTrie.getNearestAncestor(path);
+			}
+			if (result != null) {
+				return result;
+			}
+		}
+		return getWebResourceGroupForNodeFromRepository(childNode);
+	}
+
+	private String getWebResourceGroupForNodeFromRepository(Node childNode)
+			throws RepositoryException {
 
 		if (childNode.isNodeType(WebResourceGroup.NODE_TYPE)) {
 			return childNode.getProperty(WebResourceGroup.NAME).getString();
 		}
 		int depth = childNode.getDepth();
 		if (depth > 0) {
-			return getWebResourceGroupForNode(childNode.getParent());
+			return getWebResourceGroupForNodeFromRepository(childNode
+					.getParent());
 		} else {
 			throw new ItemNotFoundException();
 		}
 	}
 
-	private void updateWebResourceExtensionInventory(String path,
+	private String updateWebResourceExtensionInventory(String path,
 			Node resourceNode) throws RepositoryException {
 		String webResourceGroupName = getWebResourceGroupForNode(resourceNode);
-		Map<String, List<String>> extentionInventoryMap = webResourceExtentionInventoryMap
-				.get(webResourceGroupName);
-		if (extentionInventoryMap == null) {
-			extentionInventoryMap = new HashMap<String, List<String>>();
-			webResourceExtentionInventoryMap.put(webResourceGroupName,
-					extentionInventoryMap);
+		webResourceInventory.add(webResourceGroupName, path);
+		return webResourceGroupName;
+	}
+
+	/**
+	 * 
+	 * Passes resource events below a web resource group on to the inventory.
+	 * 
+	 */
+	class InventoryEventDispatcher implements EventHandler {
+
+		private final EventHandler inventoryEventHandler;
+
+		InventoryEventDispatcher(EventHandler inventoryEventHandler) {
+			this.inventoryEventHandler = inventoryEventHandler;
 		}
-		String extension = JCRUtils.getNodeExtension(resourceNode);
-		List<String> extensionInventoryList = extentionInventoryMap
-				.get(extension);
-		if (extensionInventoryList == null) {
-			extensionInventoryList = new ArrayList<String>();
-			extentionInventoryMap.put(extension, extensionInventoryList);
+
+		@Override
+		public void handleEvent(org.osgi.service.event.Event event) {
+			String path = (String) event.getProperty("path");
+			if (path != null
+					&& webResourceGroupPathTrie.getNearestAncestor(path) != null) {
+				inventoryEventHandler.handleEvent(event);
+			}
+		}
+	}
+
+	class CompileRequestHandler implements EventHandler {
+
+		@Override
+		public void handleEvent(org.osgi.service.event.Event event) {
+			Object paths = event.getProperty("paths");
+			if (paths instanceof Collection) {
+				for (Object currentPath : (Collection<?>) paths) {
+					compileEventCoalescer.request((String) currentPath);
+				}
+			}
 		}
-		extensionInventoryList.add(path);
 	}
 
 	class InventoryEventHandler implements EventHandler {
@@ -307,8 +654,8 @@ public class WebResourceInventoryManagerImpl implements
 					if (!ignoreInventoryEvent(event, resourceNode)) {
 						log.info("Update Inventory for Web Resource Path: "
 								+ path);
-						updateWebResourceExtensionInventory(path, resourceNode);
-						String webResourceGroupName = getWebResourceGroupForNode(resourceNode);
+						String webResourceGroupName = updateWebResourceExtensionInventory(
+								path, resourceNode);
 						webResourceGroupPath = webResourceNamePathMap
 								.get(webResourceGroupName);
 					}
@@ -325,13 +672,7 @@ public class WebResourceInventoryManagerImpl implements
 				}
 
 				if (webResourceGroupPath != null) {
-					Dictionary<String, Object> properties = new Hashtable<String, Object>();
-					properties.put("paths",
-							Collections.singletonList(webResourceGroupPath));
-					org.osgi.service.event.Event compileEvent = new org.osgi.service.event.Event(
-							WebResourceInventoryManager.COMPILE_EVENT,
-							properties);
-					eventAdmin.postEvent(compileEvent);
+					compileEventCoalescer.request(webResourceGroupPath);
 				}
 			} catch (RepositoryException e) {
 				log.error("Error Detecting Web Resource Event", e);
@@ -417,13 +758,16 @@ public class WebResourceInventoryManagerImpl implements
 					String webResourceNodeName = webResourceNode.getProperty(
 							WebResourceGroup.NAME).getString();
 					webResourceNamePathMap.put(webResourceNodeName, path);
-					registerWebResourceGroupListener(webResourceNodeName, path);
+					registerWebResourceGroupPath(webResourceNodeName, path);
 					buildInventory(webResourceNodeName);
 				} else if (eventTopic.equals(TOPIC_WEB_RESOURCE_DELETED)) {
 					String webResourceNodeName = (String) event
 							.getProperty(WebResourceGroup.NAME);
-					webResourceNamePathMap.remove(webResourceNodeName);
-					unregisterWebResourceGroupListener(webResourceNodeName);
+					String webResourceGroupPath = webResourceNamePathMap
+							.remove(webResourceNodeName);
+					webResourceInventory.removeGroup(webResourceNodeName);
+					unregisterWebResourceGroupPath(webResourceNodeName,
+							webResourceGroupPath);
 				}
 			} catch (RepositoryException e) {
 				log.error("Could not process Web Resource Update: "
@@ -436,8 +780,8 @@ public class WebResourceInventoryManagerImpl implements
 	@Override
 	public List<String> getSourceWebResources(String webResourceName) {
 		List<String> result = new ArrayList<String>();
-		Map<String, List<String>> extentionMap = webResourceExtentionInventoryMap
-				.get(webResourceName);
+		Map<String, List<String>> extentionMap = webResourceInventory
+				.getInventory(webResourceName);
 		for (List<String> currentResourceList : extentionMap.values()) {
 			result.addAll(currentResourceList);
 		}
@@ -460,6 +804,31 @@ public class WebResourceInventoryManagerImpl implements
 	}
 
 	protected void deactivate(ComponentContext context) {
+		if (reconcileExecutorService != null) {
+			reconcileExecutorService.shutdownNow();
+			reconcileExecutorService = null;
+		}
+		if (useInventorySnapshot && webResourceInventory != null) {
+			saveInventorySnapshot();
+		}
+		if (compileEventScheduler != null) {
+			compileEventScheduler.shutdownNow();
+			compileEventScheduler = null;
+		}
+		if (compileEventCoalescer != null) {
+			log.info("Coalesced " + compileEventCoalescer.getRequestCount()
+					+ " compile requests into "
+					+ compileEventCoalescer.getEventCount() + " events");
+			compileEventCoalescer.flushAll();
+		}
+		if (compileRequestHandlerRegistration != null) {
+			compileRequestHandlerRegistration.unregister();
+			compileRequestHandlerRegistration = null;
+		}
+		if (inventoryEventDispatcherRegistration != null) {
+			inventoryEventDispatcherRegistration.unregister();
+			inventoryEventDispatcherRegistration = null;
+		}
 		if (adminSession != null) {
 			adminSession.logout();
 		}
@@ -0,0 +1,142 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * Web resource groups with their paths and source files, stored so the
+ * inventory is available right after activation. The change marker is the
+ * time the inventory matched the repository; changes after it are
+ * reconciled once the snapshot is loaded.
+ * 
+ */
+public class WebResourceInventorySnapshot {
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final long changeMarker;
+
+	private final Map<String, String> webResourceGroupPaths = new LinkedHashMap<String, String>();
+
+	private final Map<String, List<String>> webResourceGroupSources = new LinkedHashMap<String, List<String>>();
+
+	public WebResourceInventorySnapshot(long changeMarker) {
+		this.changeMarker = changeMarker;
+	}
+
+	/**
+	 * 
+	 * Takes a snapshot of the current inventory.
+	 * 
+	 * @param changeMarker
+	 * @param webResourceNamePathMap
+	 *            group paths by group name
+	 * @param webResourceInventory
+	 * @return
+	 */
+	public static WebResourceInventorySnapshot create(long changeMarker,
+			Map<String, String> webResourceNamePathMap,
+			WebResourceInventory webResourceInventory) {
+		WebResourceInventorySnapshot result = new WebResourceInventorySnapshot(
+				changeMarker);
+		for (Map.Entry<String, String> currentEntry : webResourceNamePathMap
+				.entrySet()) {
+			List<String> sources = new ArrayList<String>();
+			for (List<String> currentSources : webResourceInventory
+					.getInventory(currentEntry.getKey()).values()) {
+				sources.addAll(currentSources);
+			}
+			result.addWebResourceGroup(currentEntry.getKey(),
+					currentEntry.getValue(), sources);
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Reads a snapshot written by {@link #write(OutputStream)}.
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 *             if the snapshot is unreadable or of another format
+	 */
+	public static WebResourceInventorySnapshot read(InputStream input)
+			throws IOException {
+		DataInputStream dataInput = new DataInputStream(input);
+		int formatVersion = dataInput.readInt();
+		if (formatVersion != FORMAT_VERSION) {
+			throw new IOException("Unknown inventory snapshot format: "
+					+ formatVersion);
+		}
+		WebResourceInventorySnapshot result = new WebResourceInventorySnapshot(
+				dataInput.readLong());
+		int groupCount = dataInput.readInt();
+		for (int i = 0; i < groupCount; i++) {
+			String webResourceGroupName = dataInput.readUTF();
+			String webResourceGroupPath = dataInput.readUTF();
+			int sourceCount = dataInput.readInt();
+			List<String> sources = new ArrayList<String>(sourceCount);
+			for (int j = 0; j < sourceCount; j++) {
+				sources.add(dataInput.readUTF());
+			}
+			result.addWebResourceGroup(webResourceGroupName,
+					webResourceGroupPath, sources);
+		}
+		return result;
+	}
+
+	public void write(OutputStream output) throws IOException {
+		DataOutputStream dataOutput = new DataOutputStream(output);
+		dataOutput.writeInt(FORMAT_VERSION);
+		dataOutput.writeLong(changeMarker);
+		dataOutput.writeInt(webResourceGroupPaths.size());
+		for (Map.Entry<String, String> currentEntry : webResourceGroupPaths
+				.entrySet()) {
+			dataOutput.writeUTF(currentEntry.getKey());
+			dataOutput.writeUTF(currentEntry.getValue());
+			List<String> sources = webResourceGroupSources.get(currentEntry
+					.getKey());
+			dataOutput.writeInt(sources.size());
+			for (String currentSource : sources) {
+				dataOutput.writeUTF(currentSource);
+			}
+		}
+		dataOutput.flush();
+	}
+
+	public void addWebResourceGroup(String webResourceGroupName,
+			String webResourceGroupPath, List<String> sources) {
+		webResourceGroupPaths.put(webResourceGroupName, webResourceGroupPath);
+		webResourceGroupSources.put(webResourceGroupName, sources);
+	}
+
+	public long getChangeMarker() {
+		return changeMarker;
+	}
+
+	/**
+	 * 
+	 * @return group paths by group name
+	 */
+	public Map<String, String> getWebResourceGroupPaths() {
+		return webResourceGroupPaths;
+	}
+
+	/**
+	 * 
+	 * @param webResourceGroupName
+	 * @return source paths of the group
+	 */
+	public List<String> getSources(String webResourceGroupName) {
+		return webResourceGroupSources.get(webResourceGroupName);
+	}
+}
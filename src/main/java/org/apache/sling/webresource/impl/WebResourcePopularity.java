@@ -0,0 +1,216 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Counts requests of web resource groups and single web resources so the
+ * most requested ones can be compiled first after a restart. Counts are
+ * stored as properties, keyed by a group or resource prefix.
+ * 
+ * Only the most requested groups and resources are kept, trimming the least
+ * requested ones once twice as many are counted. Stored counts are halved
+ * when loaded so requests from before earlier restarts fade out.
+ * 
+ */
+public class WebResourcePopularity {
+
+	private static final String GROUP_PREFIX = "group.";
+
+	private static final String RESOURCE_PREFIX = "resource.";
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private final int maxEntries;
+
+	private final ConcurrentMap<String, AtomicLong> groupCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final ConcurrentMap<String, AtomicLong> resourceCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicBoolean modified = new AtomicBoolean();
+
+	public WebResourcePopularity() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * 
+	 * @param maxEntries
+	 *            groups and resources each kept when counts are trimmed or
+	 *            stored
+	 */
+	public WebResourcePopularity(int maxEntries) {
+		this.maxEntries = Math.max(1, maxEntries);
+	}
+
+	public void recordGroupRequest(String webResourceGroupName) {
+		increment(groupCounts, webResourceGroupName, 1);
+	}
+
+	public void recordResourceRequest(String path) {
+		increment(resourceCounts, path, 1);
+	}
+
+	public long getGroupCount(String webResourceGroupName) {
+		return getCount(groupCounts, webResourceGroupName);
+	}
+
+	public long getResourceCount(String path) {
+		return getCount(resourceCounts, path);
+	}
+
+	/**
+	 * 
+	 * @return group names, most requested first
+	 */
+	public List<String> getGroupsByPopularity() {
+		return sortByCount(groupCounts);
+	}
+
+	/**
+	 * 
+	 * @return resource paths, most requested first
+	 */
+	public List<String> getResourcesByPopularity() {
+		return sortByCount(resourceCounts);
+	}
+
+	/**
+	 * 
+	 * @return true if counts changed since they were last stored
+	 */
+	public boolean isModified() {
+		return modified.get();
+	}
+
+	/**
+	 * 
+	 * Adds half of the previously stored counts to the current ones.
+	 * 
+	 * @param input
+	 * @throws IOException
+	 */
+	public void load(InputStream input) throws IOException {
+		Properties properties = new Properties();
+		properties.load(input);
+		for (String currentKey : properties.stringPropertyNames()) {
+			long count;
+			try {
+				count = Long.parseLong(properties.getProperty(currentKey));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			count /= 2;
+			if (count <= 0) {
+				continue;
+			}
+			if (currentKey.startsWith(GROUP_PREFIX)) {
+				increment(groupCounts,
+						currentKey.substring(GROUP_PREFIX.length()), count);
+			} else if (currentKey.startsWith(RESOURCE_PREFIX)) {
+				increment(resourceCounts,
+						currentKey.substring(RESOURCE_PREFIX.length()), count);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Writes the counts of the most requested groups and resources.
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public void store(OutputStream output) throws IOException {
+		modified.set(false);
+		Properties properties = new Properties();
+		trim(groupCounts, maxEntries);
+		for (Map.Entry<String, AtomicLong> currentEntry : groupCounts
+				.entrySet()) {
+			properties.setProperty(GROUP_PREFIX + currentEntry.getKey(),
+					String.valueOf(currentEntry.getValue().get()));
+		}
+		trim(resourceCounts, maxEntries);
+		for (Map.Entry<String, AtomicLong> currentEntry : resourceCounts
+				.entrySet()) {
+			properties.setProperty(RESOURCE_PREFIX + currentEntry.getKey(),
+					String.valueOf(currentEntry.getValue().get()));
+		}
+		properties.store(output, "Web Resource request counts");
+	}
+
+	private void increment(ConcurrentMap<String, AtomicLong> counts,
+			String key, long delta) {
+		if (key == null) {
+			return;
+		}
+		AtomicLong count = counts.get(key);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = counts.putIfAbsent(key, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.addAndGet(delta);
+		modified.set(true);
+		if (counts.size() > 2 * maxEntries) {
+			trim(counts, maxEntries);
+		}
+	}
+
+	/**
+	 * 
+	 * Drops all but the most requested entries.
+	 * 
+	 * @param counts
+	 * @param keptEntries
+	 */
+	private void trim(ConcurrentMap<String, AtomicLong> counts,
+			int keptEntries) {
+		if (counts.size() <= keptEntries) {
+			return;
+		}
+		List<String> keys = sortByCount(counts);
+		for (String currentKey : keys.subList(keptEntries, keys.size())) {
+			counts.remove(currentKey);
+		}
+	}
+
+	private long getCount(ConcurrentMap<String, AtomicLong> counts, String key) {
+		AtomicLong count = counts.get(key);
+		return count != null ? count.get() : 0;
+	}
+
+	private List<String> sortByCount(ConcurrentMap<String, AtomicLong> counts) {
+		final Map<String, Long> snapshot = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> currentEntry : counts.entrySet()) {
+			snapshot.put(currentEntry.getKey(), currentEntry.getValue().get());
+		}
+		List<String> result = new ArrayList<String>(snapshot.keySet());
+		Collections.sort(result, new Comparator<String>() {
+			public int compare(String first, String second) {
+				long firstCount = snapshot.get(first);
+				long secondCount = snapshot.get(second);
+				if (firstCount != secondCount) {
+					return firstCount > secondCount ? -1 : 1;
+				}
+				return first.compareTo(second);
+			}
+		});
+		return result;
+	}
+}
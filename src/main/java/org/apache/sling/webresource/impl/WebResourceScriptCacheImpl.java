@@ -1,40 +1,83 @@
 package org.apache.sling.webresource.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.WebResourceScriptCache;
 import org.apache.sling.webresource.WebResourceScriptCompiler;
 import org.apache.sling.webresource.WebResourceScriptCompilerProvider;
 import org.apache.sling.webresource.exception.WebResourceCompileException;
 import org.apache.sling.webresource.exception.WebResourceCompilerNotFoundException;
+import org.apache.sling.webresource.exception.WebResourceScriptException;
+import org.apache.sling.webresource.model.CompiledWebResourceFingerprint;
+import org.apache.sling.webresource.model.ConsolidatedWebResourceFingerprint;
 import org.apache.sling.webresource.model.GlobalCompileOptions;
+import org.apache.sling.webresource.model.WebResourceFingerprint;
 import org.apache.sling.webresource.model.WebResourceGroup;
 import org.apache.sling.webresource.postprocessors.PostCompileProcessProvider;
 import org.apache.sling.webresource.postprocessors.PostConsolidationProcessProvider;
 import org.apache.sling.webresource.util.JCRUtils;
+import org.apache.sling.webresource.util.WebResourceImportRecorder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,8 +89,9 @@ import org.slf4j.LoggerFactory;
  * @author bpaulin
  * 
  */
-@Component(label = "Web Resource Cache Service", immediate = true)
+@Component(label = "Web Resource Cache Service", immediate = true, metatype = true)
 @Service
+@Reference(name = "WebResourceScriptCompiler", referenceInterface = WebResourceScriptCompiler.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC)
 public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 
 	@Reference
@@ -65,14 +109,400 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 	@Reference
 	private PostConsolidationProcessProvider postConsolidationProcessProvider;
 
+	@Reference
+	private EventAdmin eventAdmin;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	private static final String WEB_RESOURCE_GROUP_CACHE_PATH = "/var/webresource/groups";
 
-	private Map<String, ReentrantLock> compileLockMap;
+	private static final long DEFAULT_COMPILED_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
+	@org.apache.felix.scr.annotations.Property(longValue = DEFAULT_COMPILED_CACHE_MAX_BYTES, label = "Compiled Path Cache Size", description = "Estimated bytes of memory used to remember the compiled node of each source. Entries are invalidated by repository events so cache hits do not read the repository")
+	public static final String COMPILED_CACHE_MAX_BYTES = "webresource.cache.compiled.maxBytes";
+
+	private static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
+	@org.apache.felix.scr.annotations.Property(intValue = DEFAULT_WRITE_BATCH_SIZE, label = "Write Batch Size", description = "Number of compiled files of a web resource group saved together. 0 saves a whole group at once, 1 saves every file on its own")
+	public static final String WRITE_BATCH_SIZE = "webresource.cache.writeBatchSize";
+
+	private static final int DEFAULT_COMPILE_THREADS = 1;
+
+	@org.apache.felix.scr.annotations.Property(intValue = DEFAULT_COMPILE_THREADS, label = "Compile Threads", description = "Number of threads compiling the files of one web resource group, including the requesting thread. 1 compiles them one after another")
+	public static final String COMPILE_THREADS = "webresource.cache.compileThreads";
+
+	private static final boolean DEFAULT_STALE_WHILE_REVALIDATE = false;
+
+	@org.apache.felix.scr.annotations.Property(boolValue = DEFAULT_STALE_WHILE_REVALIDATE, label = "Stale While Revalidate", description = "Serve the last compiled version of an out of date web resource and recompile it in the background instead of compiling while the request waits")
+	public static final String STALE_WHILE_REVALIDATE = "webresource.cache.staleWhileRevalidate";
+
+	private static final long DEFAULT_MAX_STALENESS = 5 * 60 * 1000;
+
+	@org.apache.felix.scr.annotations.Property(longValue = DEFAULT_MAX_STALENESS, label = "Maximum Staleness", description = "Milliseconds an out of date web resource may be served while it is recompiled in the background. Once exceeded, for instance because recompiling keeps failing, requests compile it again themselves")
+	public static final String MAX_STALENESS = "webresource.cache.maxStaleness";
+
+	private static final String POPULARITY_PATH = "/var/webresource/popularity.properties";
+
+	private static final long DEFAULT_POPULARITY_SAVE_INTERVAL = 300;
+
+	@org.apache.felix.scr.annotations.Property(longValue = DEFAULT_POPULARITY_SAVE_INTERVAL, label = "Request Count Save Interval", description = "Seconds between saves of the web resource request counts used to order the warm up after a restart. 0 only saves them on deactivation")
+	public static final String POPULARITY_SAVE_INTERVAL = "webresource.popularity.saveInterval";
+
+	private static final long DEFAULT_WARMUP_TIME_BUDGET = 30 * 1000;
+
+	@org.apache.felix.scr.annotations.Property(longValue = DEFAULT_WARMUP_TIME_BUDGET, label = "Warm Up Time Budget", description = "Milliseconds spent compiling the most requested web resources after activation before the full background compile starts")
+	public static final String WARMUP_TIME_BUDGET = "webresource.warmup.timeBudget";
+
+	private static final long DEFAULT_WARMUP_CPU_BUDGET = 10 * 1000;
+
+	@org.apache.felix.scr.annotations.Property(longValue = DEFAULT_WARMUP_CPU_BUDGET, label = "Warm Up CPU Budget", description = "Milliseconds of CPU time the warm up thread and the compile helper threads may use. 0 only limits the warm up by time")
+	public static final String WARMUP_CPU_BUDGET = "webresource.warmup.cpuBudget";
+
+	/**
+	 * Prefix of the flight keys of background recompiles.
+	 */
+	private static final String REVALIDATE_FLIGHT_PREFIX = "revalidate:";
+
+	/**
+	 * Compiles and consolidations in flight keyed by the path they write.
+	 * Background recompiles use their own keys, so they never join a request
+	 * that is serving the stale path.
+	 */
+	final SingleFlightGroup<String> compileFlights = new SingleFlightGroup<String>();
+
+	private final WebResourceDependencyIndex dependencyIndex = new WebResourceDependencyIndex();
+
+	/**
+	 * Paths whose changes can affect cached compiled paths or dependents:
+	 * cached source and compiled paths, imports and the groups compiled.
+	 * Resource events elsewhere are ignored without taking the cache and
+	 * dependency index locks. Paths are not unwatched, a stale one only lets
+	 * its events through.
+	 */
+	private final PathTrie<Boolean> watchedPaths = new PathTrie<Boolean>();
+
+	private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+	private int compileThreads = DEFAULT_COMPILE_THREADS;
+
+	/**
+	 * Helper threads compiling group files next to the requesting thread.
+	 */
+	private ExecutorService compileExecutorService;
+
+	/**
+	 * Threads of the compile executor, whose CPU time counts towards the warm
+	 * up budget.
+	 */
+	private final Set<Thread> compileHelperThreads = Collections
+			.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+	private boolean staleWhileRevalidate = DEFAULT_STALE_WHILE_REVALIDATE;
+
+	private long maxStaleness = DEFAULT_MAX_STALENESS;
+
+	/**
+	 * Background thread recompiling out of date web resources served stale.
+	 */
+	private ExecutorService revalidateExecutorService;
+
+	/**
+	 * Time each compiled path served stale was first found out of date.
+	 */
+	private final ConcurrentMap<String, Long> staleCompiledPaths = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Compiled paths with a background recompile scheduled or running.
+	 */
+	private final Set<String> revalidatingPaths = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final WebResourcePopularity popularity = new WebResourcePopularity();
+
+	private long warmUpTimeBudget = DEFAULT_WARMUP_TIME_BUDGET;
+
+	private long warmUpCpuBudget = DEFAULT_WARMUP_CPU_BUDGET;
+
+	private ScheduledExecutorService popularityExecutorService;
+
+	/**
+	 * Batch the current thread writes compiled web resources to.
+	 */
+	private final ThreadLocal<WebResourceWriteBatch> currentWriteBatch = new ThreadLocal<WebResourceWriteBatch>();
+
+	/**
+	 * Unsaved compiled paths of all write batches.
+	 */
+	private final ConcurrentMap<String, WebResourceWriteBatch> pendingWrites = new ConcurrentHashMap<String, WebResourceWriteBatch>();
+
+	/**
+	 * Saves the batch of the current thread before it waits on a compile of
+	 * another thread, which may be waiting for these writes.
+	 */
+	private final Callable<Void> saveCurrentWriteBatch = new Callable<Void>() {
+		public Void call() throws Exception {
+			WebResourceWriteBatch writeBatch = currentWriteBatch.get();
+			if (writeBatch != null) {
+				writeBatch.save();
+			}
+			return null;
+		}
+	};
+
+	private CompiledWebResourceCache compiledWebResourceCache;
+
+	private ServiceRegistration compiledCacheInvalidatorRegistration;
 
 	public void activate(final ComponentContext context) {
-		compileLockMap = new HashMap<String, ReentrantLock>();
+		compiledWebResourceCache = new CompiledWebResourceCache(
+				PropertiesUtil.toLong(
+						context.getProperties().get(COMPILED_CACHE_MAX_BYTES),
+						DEFAULT_COMPILED_CACHE_MAX_BYTES));
+		writeBatchSize = PropertiesUtil.toInteger(
+				context.getProperties().get(WRITE_BATCH_SIZE),
+				DEFAULT_WRITE_BATCH_SIZE);
+		compileThreads = PropertiesUtil.toInteger(
+				context.getProperties().get(COMPILE_THREADS),
+				DEFAULT_COMPILE_THREADS);
+		if (compileThreads > 1) {
+			compileExecutorService = Executors.newFixedThreadPool(
+					compileThreads - 1, new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread result = Executors.defaultThreadFactory()
+									.newThread(runnable);
+							compileHelperThreads.add(result);
+							return result;
+						}
+					});
+		}
+		staleWhileRevalidate = PropertiesUtil.toBoolean(context
+				.getProperties().get(STALE_WHILE_REVALIDATE),
+				DEFAULT_STALE_WHILE_REVALIDATE);
+		maxStaleness = PropertiesUtil.toLong(
+				context.getProperties().get(MAX_STALENESS),
+				DEFAULT_MAX_STALENESS);
+		if (staleWhileRevalidate) {
+			revalidateExecutorService = Executors.newSingleThreadExecutor();
+		}
+		warmUpTimeBudget = PropertiesUtil.toLong(
+				context.getProperties().get(WARMUP_TIME_BUDGET),
+				DEFAULT_WARMUP_TIME_BUDGET);
+		warmUpCpuBudget = PropertiesUtil.toLong(
+				context.getProperties().get(WARMUP_CPU_BUDGET),
+				DEFAULT_WARMUP_CPU_BUDGET);
+		loadPopularity();
+		long popularitySaveInterval = PropertiesUtil.toLong(context
+				.getProperties().get(POPULARITY_SAVE_INTERVAL),
+				DEFAULT_POPULARITY_SAVE_INTERVAL);
+		if (popularitySaveInterval > 0) {
+			popularityExecutorService = Executors
+					.newSingleThreadScheduledExecutor();
+			popularityExecutorService.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					savePopularity();
+				}
+			}, popularitySaveInterval, popularitySaveInterval,
+					TimeUnit.SECONDS);
+		}
+
+		String[] topics = new String[] { SlingConstants.TOPIC_RESOURCE_ADDED,
+				SlingConstants.TOPIC_RESOURCE_CHANGED,
+				SlingConstants.TOPIC_RESOURCE_REMOVED };
+		Dictionary<String, Object> props = new Hashtable<String, Object>();
+		props.put(EventConstants.EVENT_TOPIC, topics);
+		compiledCacheInvalidatorRegistration = context.getBundleContext()
+				.registerService(EventHandler.class.getName(),
+						new CompiledCacheInvalidator(), props);
+	}
+
+	public void deactivate(final ComponentContext context) {
+		if (compileExecutorService != null) {
+			compileExecutorService.shutdownNow();
+			compileExecutorService = null;
+		}
+		compileHelperThreads.clear();
+		if (revalidateExecutorService != null) {
+			revalidateExecutorService.shutdownNow();
+			revalidateExecutorService = null;
+		}
+		revalidatingPaths.clear();
+		staleCompiledPaths.clear();
+		if (popularityExecutorService != null) {
+			popularityExecutorService.shutdownNow();
+			popularityExecutorService = null;
+		}
+		savePopularity();
+		if (compiledCacheInvalidatorRegistration != null) {
+			compiledCacheInvalidatorRegistration.unregister();
+			compiledCacheInvalidatorRegistration = null;
+		}
+		if (compiledWebResourceCache != null) {
+			log.info("Compiled path cache hits: "
+					+ compiledWebResourceCache.getHitCount() + " misses: "
+					+ compiledWebResourceCache.getMissCount()
+					+ " invalidations: "
+					+ compiledWebResourceCache.getInvalidationCount());
+			compiledWebResourceCache.clear();
+		}
+	}
+
+	/**
+	 * 
+	 * Drops cached compiled paths affected by repository changes.
+	 * 
+	 */
+	class CompiledCacheInvalidator implements EventHandler {
+		@Override
+		public void handleEvent(org.osgi.service.event.Event event) {
+			String path = (String) event.getProperty("path");
+			if (path != null && isWatchedPath(path)) {
+				boolean removed = SlingConstants.TOPIC_RESOURCE_REMOVED
+						.equals(event.getTopic());
+				compiledWebResourceCache.invalidate(path, removed);
+				String webResourceGroupPath = getCompileOptionsGroupPath(path);
+				if (webResourceGroupPath != null) {
+					recompileWebResourceGroup(webResourceGroupPath);
+				}
+				recompileDependents(path);
+				if (removed) {
+					dependencyIndex.removeSources(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Whether a change at a path can affect a watched path. Like the cache
+	 * invalidation this covers paths at, above and below the watched ones.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	protected boolean isWatchedPath(String path) {
+		return watchedPaths.getNearestAncestor(path) != null
+				|| watchedPaths.containsAtOrBelow(path);
+	}
+
+	private void watchPath(String path) {
+		if (path != null && watchedPaths.get(path) == null) {
+			watchedPaths.put(path, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * 
+	 * Records the imports of a compiled source and watches them and the group
+	 * the source is compiled for.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroup
+	 * @param imports
+	 */
+	private void setDependencyImports(String sourcePath,
+			WebResourceGroup webResourceGroup, Collection<String> imports) {
+		if (webResourceGroup != null) {
+			watchPath(webResourceGroup.getGroupPath());
+		}
+		if (imports != null) {
+			for (String currentImport : imports) {
+				watchPath(currentImport);
+			}
+		}
+		dependencyIndex.setImports(sourcePath,
+				webResourceGroup != null ? webResourceGroup.getName() : null,
+				imports);
+	}
+
+	/**
+	 * 
+	 * Requests the compile of the web resource groups holding sources that
+	 * imported a changed file, directly or through other imports. Within the
+	 * groups only those sources are recompiled as their imports are no longer
+	 * fresh.
+	 * 
+	 * @param path
+	 *            changed path
+	 */
+	protected void recompileDependents(String path) {
+		Set<WebResourceDependencyIndex.Dependent> dependents = dependencyIndex
+				.getTransitiveDependents(path);
+		if (dependents.isEmpty()) {
+			return;
+		}
+		log.info("Recompiling dependents of " + path + ": " + dependents);
+		Set<String> webResourceGroupPaths = new LinkedHashSet<String>();
+		for (WebResourceDependencyIndex.Dependent currentDependent : dependents) {
+			if (compiledWebResourceCache != null) {
+				compiledWebResourceCache.invalidate(
+						currentDependent.getSourcePath(), false);
+			}
+			if (currentDependent.getWebResourceGroupName() != null) {
+				String webResourceGroupPath = webResourceInventoryManager
+						.getWebResourcePathLookup(currentDependent
+								.getWebResourceGroupName());
+				if (webResourceGroupPath != null) {
+					webResourceGroupPaths.add(webResourceGroupPath);
+				}
+			}
+		}
+		requestCompile(webResourceGroupPaths);
+	}
+
+	/**
+	 * 
+	 * Requests the compile of a web resource group once its compile options
+	 * changed. Cached compiled paths of the group are dropped so all of its
+	 * sources are checked against the new options hash.
+	 * 
+	 * @param webResourceGroupPath
+	 */
+	protected void recompileWebResourceGroup(String webResourceGroupPath) {
+		for (String currentName : webResourceInventoryManager
+				.getAllWebResourceNames()) {
+			if (webResourceGroupPath.equals(webResourceInventoryManager
+					.getWebResourcePathLookup(currentName))) {
+				log.info("Compile options of " + currentName + " changed");
+				if (compiledWebResourceCache != null) {
+					compiledWebResourceCache.invalidateGroup(currentName);
+				}
+			}
+		}
+		requestCompile(Collections.singleton(webResourceGroupPath));
+	}
+
+	/**
+	 * 
+	 * Path of the web resource group owning the compile options at or above a
+	 * path.
+	 * 
+	 * @param path
+	 * @return the group path or null if the path is not part of compile
+	 *         options
+	 */
+	protected String getCompileOptionsGroupPath(String path) {
+		String compileOptionsSegment = "/" + WebResourceGroup.COMPILE_OPTIONS;
+		int segmentStart = path.indexOf(compileOptionsSegment);
+		while (segmentStart > 0) {
+			int segmentEnd = segmentStart + compileOptionsSegment.length();
+			if (segmentEnd == path.length() || path.charAt(segmentEnd) == '/') {
+				return path.substring(0, segmentStart);
+			}
+			segmentStart = path.indexOf(compileOptionsSegment, segmentEnd);
+		}
+		return null;
+	}
+
+	private void requestCompile(Collection<String> webResourceGroupPaths) {
+		if (!webResourceGroupPaths.isEmpty() && eventAdmin != null) {
+			// Merged with other changes of the groups before compiling
+			Dictionary<String, Object> properties = new Hashtable<String, Object>();
+			properties.put("paths", new ArrayList<String>(
+					webResourceGroupPaths));
+			eventAdmin.postEvent(new org.osgi.service.event.Event(
+					WebResourceInventoryManager.COMPILE_REQUEST_EVENT,
+					properties));
+		}
 	}
 
 	/**
@@ -95,16 +525,31 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		Node result = null;
 		try {
 
-			Map<String, Object> compileOptions = new HashMap<String, Object>();
-			GlobalCompileOptions globalCompileOptions = new GlobalCompileOptions();
-			globalCompileOptions.setSourcePath(sourceNode.getPath());
-			compileOptions.put("global", globalCompileOptions);
-			if (webResourceGroup != null) {
-				compileOptions.putAll(webResourceGroup.getCompileOptions());
-			}
+			Map<String, Object> compileOptions = createCompileOptions(
+					sourceNode, webResourceGroup);
 
-			InputStream compiledStream = compiler.compile(
-					JCRUtils.getFileNodeAsStream(sourceNode), compileOptions);
+			CompiledWebResourceFingerprint fingerprint = new CompiledWebResourceFingerprint();
+			fingerprint.setSourceHash(createSourceHash(sourceNode));
+			fingerprint.setSourceLastModified(JCRUtils
+					.getJcrModifiedDate(sourceNode));
+			fingerprint.setOptionsHash(createOptionsHash(compileOptions));
+			fingerprint.setCompilerVersion(getCompilerVersion(compiler));
+
+			Map<String, WebResourceImportRecorder.RecordedImport> enclosingImports = WebResourceImportRecorder
+					.beginRecording();
+			Map<String, WebResourceImportRecorder.RecordedImport> imports = null;
+			InputStream compiledStream = null;
+			try {
+				compiledStream = compiler.compile(
+						JCRUtils.getFileNodeAsStream(sourceNode),
+						compileOptions);
+			} finally {
+				imports = WebResourceImportRecorder
+						.endRecording(enclosingImports);
+			}
+			setImports(fingerprint, imports);
+			setDependencyImports(sourceNode.getPath(), webResourceGroup,
+					fingerprint.getImports());
 
 			compiledStream = postCompileProcessProvider
 					.applyPostCompileProcesses(sourceNode, compiledStream);
@@ -112,10 +557,13 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 			String destinationPath = getCachedCompiledScriptPath(sourceNode,
 					webResourceGroup, compiler);
 
-			createWebResourceNode(destinationPath, compiledStream);
+			createWebResourceNode(destinationPath, compiledStream, fingerprint);
 
-			Session currentSession = sourceNode.getSession();
+			Session currentSession = getReadSession(sourceNode.getSession(),
+					destinationPath);
 			result = currentSession.getNode(destinationPath);
+		} catch (WebResourceScriptException e) {
+			throw e.getCompileException();
 		} catch (Exception e) {
 			throw new WebResourceCompileException(
 					"Error Compiling Web Resource", e);
@@ -124,6 +572,50 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		return result;
 	}
 
+	/**
+	 * 
+	 * Stores the files read by a compile in its fingerprint.
+	 * 
+	 * @param fingerprint
+	 * @param imports
+	 *            paths with what was read from them
+	 */
+	private void setImports(CompiledWebResourceFingerprint fingerprint,
+			Map<String, WebResourceImportRecorder.RecordedImport> imports) {
+		if (imports == null) {
+			return;
+		}
+		for (Map.Entry<String, WebResourceImportRecorder.RecordedImport> currentImport : imports
+				.entrySet()) {
+			fingerprint.getImports().add(currentImport.getKey());
+			fingerprint.getImportHashes().add(
+					currentImport.getValue().getHash());
+			fingerprint.getImportLastModified().add(
+					currentImport.getValue().getLastModified());
+		}
+	}
+
+	/**
+	 * 
+	 * Builds the options handed to the compiler of a source.
+	 * 
+	 * @param sourceNode
+	 * @param webResourceGroup
+	 * @return
+	 * @throws RepositoryException
+	 */
+	protected Map<String, Object> createCompileOptions(Node sourceNode,
+			WebResourceGroup webResourceGroup) throws RepositoryException {
+		Map<String, Object> compileOptions = new HashMap<String, Object>();
+		GlobalCompileOptions globalCompileOptions = new GlobalCompileOptions();
+		globalCompileOptions.setSourcePath(sourceNode.getPath());
+		compileOptions.put("global", globalCompileOptions);
+		if (webResourceGroup != null) {
+			compileOptions.putAll(webResourceGroup.getCompileOptions());
+		}
+		return compileOptions;
+	}
+
 	/**
 	 * 
 	 * Helper for creating compiled web resource content node
@@ -136,24 +628,119 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 	protected void createWebResourceNode(String destinationPath,
 			InputStream result) throws RepositoryException,
 			WebResourceCompileException {
-		ResourceResolver resolver = null;
+		createWebResourceNode(destinationPath, result, null);
+	}
+
+	/**
+	 * 
+	 * Helper for creating compiled web resource content node
+	 * 
+	 * @param destinationPath
+	 * @param result
+	 * @param fingerprint
+	 *            inputs the content was created from or null
+	 * @throws RepositoryException
+	 * @throws WebResourceCompileException
+	 */
+	protected void createWebResourceNode(String destinationPath,
+			InputStream result, WebResourceFingerprint fingerprint)
+			throws RepositoryException, WebResourceCompileException {
 		log.info("Creating Web Resource Node at path: " + destinationPath);
+		WebResourceWriteBatch writeBatch = currentWriteBatch.get();
+		boolean ownWriteBatch = writeBatch == null;
 		try {
-			resolver = resourceResolverFactory
-					.getAdministrativeResourceResolver(null);
-			Session session = resolver.adaptTo(Session.class);
-			JCRUtils.createFileContentNode(destinationPath, result, session);
-			session.save();
+			if (ownWriteBatch) {
+				writeBatch = openWriteBatch(0);
+			}
+			writeBatch.write(destinationPath, result, fingerprint);
+			if (ownWriteBatch) {
+				writeBatch.save();
+			}
 		} catch (Exception e) {
 			throw new WebResourceCompileException(
 					"Error Creating Compiled Web Resource", e);
 		} finally {
-			if (resolver != null) {
-				resolver.close();
+			if (ownWriteBatch && writeBatch != null) {
+				writeBatch.close();
 			}
 		}
 	}
 
+	/**
+	 * 
+	 * Opens a write batch in a new administrative session.
+	 * 
+	 * @param chunkSize
+	 * @return
+	 * @throws LoginException
+	 */
+	protected WebResourceWriteBatch openWriteBatch(int chunkSize)
+			throws LoginException {
+		return new WebResourceWriteBatch(
+				resourceResolverFactory.getAdministrativeResourceResolver(null),
+				chunkSize, pendingWrites);
+	}
+
+	/**
+	 * 
+	 * Session to read a compiled path from. Threads writing a batch read from
+	 * the batch session to see their unsaved writes. Paths staged by the
+	 * batch of another thread are read as last saved. Only paths never saved
+	 * before are waited for, after saving the own batch so two batches never
+	 * wait for each other.
+	 * 
+	 * @param session
+	 *            session of the caller
+	 * @param compiledPath
+	 * @return
+	 * @throws RepositoryException
+	 */
+	protected Session getReadSession(Session session, String compiledPath)
+			throws RepositoryException {
+		WebResourceWriteBatch writeBatch = currentWriteBatch.get();
+		Session result = writeBatch != null ? writeBatch.getSession()
+				: session;
+		WebResourceWriteBatch pendingWriteBatch = pendingWrites
+				.get(compiledPath);
+		if (pendingWriteBatch != null && pendingWriteBatch != writeBatch
+				&& !result.nodeExists(compiledPath)) {
+			if (writeBatch != null) {
+				writeBatch.save();
+			}
+			pendingWriteBatch.awaitWrite(compiledPath);
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Caches the compiled path of a source once it is persisted. Paths still
+	 * staged in a write batch are cached when the batch is saved, so a
+	 * discarded write is never cached.
+	 * 
+	 */
+	private void cacheCompiledPath(final String sourcePath,
+			final String webResourceGroupName, final String compiledPath,
+			final long loadedCacheGeneration) {
+		watchPath(compiledPath);
+		Runnable cacheAction = new Runnable() {
+			public void run() {
+				CompiledWebResourceCache cache = compiledWebResourceCache;
+				if (cache != null) {
+					cache.put(sourcePath, webResourceGroupName, compiledPath,
+							loadedCacheGeneration);
+				}
+			}
+		};
+		WebResourceWriteBatch pendingWriteBatch = pendingWrites
+				.get(compiledPath);
+		if (pendingWriteBatch != null) {
+			pendingWriteBatch.afterSave(compiledPath, cacheAction);
+		} else {
+			cacheAction.run();
+		}
+	}
+
 	public Map<String, List<String>> getCompiledWebResourceGroupPaths(
 			Session session, String webResourceGroupName, boolean consolidate)
 			throws WebResourceCompileException {
@@ -164,8 +751,14 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 
 		WebResourceGroup webResourceGroup = null;
 
+		WebResourceWriteBatch writeBatch = null;
 		try {
 
+			if (currentWriteBatch.get() == null) {
+				writeBatch = openWriteBatch(writeBatchSize);
+				currentWriteBatch.set(writeBatch);
+			}
+
 			List<String> webResourcePathList = webResourceInventoryManager
 					.getSourceWebResources(webResourceGroupName);
 
@@ -175,40 +768,44 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 					session.getNode(webResourceInventoryManager
 							.getWebResourcePathLookup(webResourceGroupName)));
 
-			for (String currentWebResourcePath : webResourcePathList) {
-				Node currentResult = session.getNode(currentWebResourcePath);
-
-				try {
-
-					Node currentCompiledScript = getCompiledScriptNode(session,
-							currentResult, webResourceGroup);
-
-					String compiledScriptPath = currentCompiledScript.getPath();
-
-					String currentExtension = JCRUtils
-							.getNodeExtension(currentCompiledScript);
-
-					List<String> extentionPathList = result
-							.get(currentExtension);
-					if (extentionPathList == null) {
-						extentionPathList = new ArrayList<String>();
-						result.put(currentExtension, extentionPathList);
-					}
-					extentionPathList.add(compiledScriptPath);
+			// Assembled in inventory order whichever thread compiled them
+			for (String[] currentCompiledScript : compileGroupMembers(session,
+					webResourcePathList, webResourceGroup)) {
+				if (currentCompiledScript == null) {
+					continue;
+				}
+				String compiledScriptPath = currentCompiledScript[0];
 
-				} catch (WebResourceCompilerNotFoundException e) {
+				String currentExtension = currentCompiledScript[1];
 
-					log.info("Compiler Not Found for Node at Path: "
-							+ currentResult.getPath());
+				List<String> extentionPathList = result.get(currentExtension);
+				if (extentionPathList == null) {
+					extentionPathList = new ArrayList<String>();
+					result.put(currentExtension, extentionPathList);
 				}
+				extentionPathList.add(compiledScriptPath);
 			}
 			if (consolidate) {
 				result = consolidateWebResources(session, webResourceGroup,
 						result);
 			}
+			if (writeBatch != null) {
+				writeBatch.save();
+				log.debug("Saved " + writeBatch.getWriteCount()
+						+ " Web Resources of Group " + webResourceGroupName
+						+ " in " + writeBatch.getSaveCount() + " saves");
+			}
 		} catch (RepositoryException e) {
 			throw new WebResourceCompileException(
 					"Error consolidating Web Resource Group", e);
+		} catch (LoginException e) {
+			throw new WebResourceCompileException(
+					"Error opening Web Resource write session", e);
+		} finally {
+			if (writeBatch != null) {
+				currentWriteBatch.remove();
+				writeBatch.close();
+			}
 		}
 		stopWatch.stop();
 		log.info("Compilation of Web Resource Group " + webResourceGroupName
@@ -216,6 +813,177 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		return result;
 	}
 
+	/**
+	 * 
+	 * Compiles the files of a group. With more than one compile thread helper
+	 * threads take files from the same list as the requesting thread, each
+	 * compiling in its own session and write batch.
+	 * 
+	 * @param session
+	 * @param webResourcePathList
+	 * @param webResourceGroup
+	 * @return compiled path and extension of each file in list order, null
+	 *         for files without compiler
+	 * @throws RepositoryException
+	 * @throws WebResourceCompileException
+	 */
+	protected String[][] compileGroupMembers(Session session,
+			final List<String> webResourcePathList,
+			final WebResourceGroup webResourceGroup)
+			throws RepositoryException, WebResourceCompileException {
+		final String[][] result = new String[webResourcePathList.size()][];
+		final AtomicInteger nextMember = new AtomicInteger();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		ExecutorService executorService = compileExecutorService;
+		List<Future<?>> helpers = new ArrayList<Future<?>>();
+		if (executorService != null) {
+			int helperCount = Math.min(compileThreads,
+					webResourcePathList.size()) - 1;
+			for (int i = 0; i < helperCount; i++) {
+				helpers.add(executorService.submit(new Runnable() {
+					public void run() {
+						compileGroupMembersInOwnSession(webResourcePathList,
+								webResourceGroup, result, nextMember, failure);
+					}
+				}));
+			}
+		}
+
+		compileGroupMembers(session, webResourcePathList, webResourceGroup,
+				result, nextMember, failure);
+
+		if (!helpers.isEmpty()) {
+			WebResourceWriteBatch writeBatch = currentWriteBatch.get();
+			if (writeBatch != null) {
+				writeBatch.save();
+			}
+			for (Future<?> currentHelper : helpers) {
+				try {
+					currentHelper.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new WebResourceCompileException(
+							"Interrupted compiling Web Resource Group", e);
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		}
+
+		Exception groupFailure = failure.get();
+		if (groupFailure instanceof RepositoryException) {
+			throw (RepositoryException) groupFailure;
+		} else if (groupFailure instanceof WebResourceCompileException) {
+			throw (WebResourceCompileException) groupFailure;
+		} else if (groupFailure != null) {
+			throw new WebResourceCompileException(groupFailure);
+		}
+		return result;
+	}
+
+	private void compileGroupMembersInOwnSession(
+			List<String> webResourcePathList,
+			WebResourceGroup webResourceGroup, String[][] result,
+			AtomicInteger nextMember, AtomicReference<Exception> failure) {
+		WebResourceWriteBatch writeBatch = null;
+		try {
+			writeBatch = openWriteBatch(writeBatchSize);
+			currentWriteBatch.set(writeBatch);
+			compileGroupMembers(writeBatch.getSession(), webResourcePathList,
+					webResourceGroup, result, nextMember, failure);
+			writeBatch.save();
+		} catch (Exception e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			currentWriteBatch.remove();
+			if (writeBatch != null) {
+				writeBatch.close();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Compiles files taken from the list until none are left or a compile
+	 * failed. The files compiled before a failed compile are saved instead of
+	 * being discarded with it.
+	 * 
+	 */
+	private void compileGroupMembers(Session session,
+			List<String> webResourcePathList,
+			WebResourceGroup webResourceGroup, String[][] result,
+			AtomicInteger nextMember, AtomicReference<Exception> failure) {
+		int memberIndex;
+		while (failure.get() == null
+				&& (memberIndex = nextMember.getAndIncrement()) < webResourcePathList
+						.size()) {
+			WebResourceWriteBatch writeBatch = currentWriteBatch.get();
+			try {
+				result[memberIndex] = compileGroupMember(session,
+						webResourcePathList.get(memberIndex), webResourceGroup);
+				if (writeBatch != null) {
+					writeBatch.saveIfRequested();
+				}
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+				saveCompletedWrites(writeBatch);
+			}
+		}
+	}
+
+	private void saveCompletedWrites(WebResourceWriteBatch writeBatch) {
+		if (writeBatch == null) {
+			return;
+		}
+		try {
+			if (!writeBatch.saveCompletedWrites()) {
+				log.warn("Discarding unsaved Web Resources after a failed write");
+			}
+		} catch (RepositoryException e) {
+			log.error("Error saving compiled Web Resources", e);
+		}
+	}
+
+	/**
+	 * 
+	 * Compiles one file of a group.
+	 * 
+	 * @param session
+	 * @param webResourcePath
+	 * @param webResourceGroup
+	 * @return compiled path and extension, null if there is no compiler
+	 * @throws RepositoryException
+	 * @throws WebResourceCompileException
+	 */
+	protected String[] compileGroupMember(Session session,
+			String webResourcePath, WebResourceGroup webResourceGroup)
+			throws RepositoryException, WebResourceCompileException {
+		Node currentResult = session.getNode(webResourcePath);
+
+		if (webResourceScriptCompilerProvider
+				.findWebResourceCompilerForNode(currentResult) == null) {
+			log.debug("Compiler Not Found for Node at Path: "
+					+ webResourcePath);
+			return null;
+		}
+
+		try {
+
+			Node currentCompiledScript = getCompiledScriptNode(session,
+					currentResult, webResourceGroup);
+
+			return new String[] { currentCompiledScript.getPath(),
+					JCRUtils.getNodeExtension(currentCompiledScript) };
+
+		} catch (WebResourceCompilerNotFoundException e) {
+
+			log.info("Compiler Not Found for Node at Path: "
+					+ currentResult.getPath());
+		}
+		return null;
+	}
+
 	/**
 	 * 
 	 * Consolidates several web resource files into one.
@@ -227,9 +995,9 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 	 * @throws RepositoryException
 	 * @throws WebResourceCompileException
 	 */
-	public Map<String, List<String>> consolidateWebResources(Session session,
-			WebResourceGroup webResourceGroup,
-			Map<String, List<String>> compiledWebResourcePaths)
+	public Map<String, List<String>> consolidateWebResources(
+			final Session session, WebResourceGroup webResourceGroup,
+			final Map<String, List<String>> compiledWebResourcePaths)
 			throws RepositoryException, WebResourceCompileException {
 		Map<String, List<String>> resultPaths = new HashMap<String, List<String>>();
 		// Find out if there is a cached copy
@@ -245,15 +1013,25 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		webResourceGroupPathBuffer.append(webResourceGroup.getName());
 		webResourceGroupPathBuffer.append(".");
 
-		for (String currentExtention : compiledWebResourcePaths.keySet()) {
-			String cachedWebResourcePath = webResourceGroupPathBuffer
+		for (final String currentExtention : compiledWebResourcePaths.keySet()) {
+			final String cachedWebResourcePath = webResourceGroupPathBuffer
 					.toString() + currentExtention;
-			aquireLock(cachedWebResourcePath);
 			try {
-				createConsolidatedSource(session, compiledWebResourcePaths,
-						currentExtention, cachedWebResourcePath);
-			} finally {
-				releaseLock(cachedWebResourcePath);
+				compileFlights.execute(cachedWebResourcePath,
+						new Callable<String>() {
+							public String call() throws Exception {
+								createConsolidatedSource(session,
+										compiledWebResourcePaths,
+										currentExtention, cachedWebResourcePath);
+								return cachedWebResourcePath;
+							}
+						}, saveCurrentWriteBatch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new WebResourceCompileException(
+						"Interrupted consolidating Web Resource Group", e);
+			} catch (ExecutionException e) {
+				throw toCompileException(e);
 			}
 
 			List<String> consolidatedPathListForExtention = new ArrayList<String>();
@@ -263,16 +1041,46 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		return resultPaths;
 	}
 
+	/**
+	 * 
+	 * Concatenates the compiled members of a group with one extension. The
+	 * consolidated web resource is only written again when the fingerprints
+	 * of its members or their order changed.
+	 * 
+	 * @param session
+	 * @param compiledWebResourcePaths
+	 * @param currentExtention
+	 * @param cachedWebResourcePath
+	 * @throws RepositoryException
+	 * @throws WebResourceCompileException
+	 */
 	protected void createConsolidatedSource(Session session,
 			Map<String, List<String>> compiledWebResourcePaths,
 			String currentExtention, String cachedWebResourcePath)
 			throws RepositoryException, WebResourceCompileException {
+		List<Node> compiledNodes = new ArrayList<Node>();
+		ConsolidatedWebResourceFingerprint fingerprint = new ConsolidatedWebResourceFingerprint();
+		for (String currentResourcePath : compiledWebResourcePaths
+				.get(currentExtention)) {
+			Node currentCompiledNode = getReadSession(session,
+					currentResourcePath).getNode(currentResourcePath);
+			compiledNodes.add(currentCompiledNode);
+			fingerprint.getMembers().add(
+					getMemberFingerprint(currentCompiledNode));
+		}
+
+		if (isConsolidationFresh(
+				getReadSession(session, cachedWebResourcePath),
+				cachedWebResourcePath, fingerprint)) {
+			log.debug("Consolidated Web Resource is up to date: "
+					+ cachedWebResourcePath);
+			return;
+		}
+
 		// Cached copy is out of date
 		InputStream consolidatedInputStream = null;
 
-		for (String currentResourcePath : compiledWebResourcePaths
-				.get(currentExtention)) {
-			Node currentCompiledNode = session.getNode(currentResourcePath);
+		for (Node currentCompiledNode : compiledNodes) {
 			InputStream currentInputStream = JCRUtils
 					.getFileNodeAsStream(currentCompiledNode);
 
@@ -283,10 +1091,61 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 						consolidatedInputStream, currentInputStream);
 			}
 		}
-		postConsolidationProcessProvider.applyPostConsolidationProcesses(
-				cachedWebResourcePath, consolidatedInputStream);
+		consolidatedInputStream = postConsolidationProcessProvider
+				.applyPostConsolidationProcesses(cachedWebResourcePath,
+						consolidatedInputStream);
 		// Write
-		createWebResourceNode(cachedWebResourcePath, consolidatedInputStream);
+		createWebResourceNode(cachedWebResourcePath, consolidatedInputStream,
+				fingerprint);
+	}
+
+	/**
+	 * 
+	 * Fingerprint of a compiled member of a consolidated web resource: its
+	 * path with the hash of its content, or with its modification date when
+	 * it was stored without hash.
+	 * 
+	 * @param compiledNode
+	 * @return
+	 * @throws RepositoryException
+	 */
+	protected String getMemberFingerprint(Node compiledNode)
+			throws RepositoryException {
+		Node compiledContent = compiledNode.getNode(Property.JCR_CONTENT);
+		if (compiledContent.hasProperty(WebResourceFingerprint.CONTENT_HASH)) {
+			return compiledNode.getPath()
+					+ "#"
+					+ compiledContent.getProperty(
+							WebResourceFingerprint.CONTENT_HASH).getString();
+		}
+		return compiledNode.getPath() + "@"
+				+ JCRUtils.getJcrModifiedDate(compiledNode).getTimeInMillis();
+	}
+
+	/**
+	 * 
+	 * Determines if a consolidated web resource was created from the same
+	 * members in the same order.
+	 * 
+	 * @param session
+	 * @param cachedWebResourcePath
+	 * @param fingerprint
+	 * @return
+	 * @throws RepositoryException
+	 */
+	protected boolean isConsolidationFresh(Session session,
+			String cachedWebResourcePath,
+			ConsolidatedWebResourceFingerprint fingerprint)
+			throws RepositoryException {
+		if (!session.nodeExists(cachedWebResourcePath)) {
+			return false;
+		}
+		Node consolidatedContent = session.getNode(cachedWebResourcePath)
+				.getNode(Property.JCR_CONTENT);
+		return consolidatedContent
+				.hasProperty(ConsolidatedWebResourceFingerprint.MEMBERS)
+				&& new ConsolidatedWebResourceFingerprint(consolidatedContent)
+						.getMembers().equals(fingerprint.getMembers());
 	}
 
 	public Map<String, List<String>> getWebResourceCachedInventoryPaths(
@@ -318,10 +1177,33 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 
 	}
 
-	public String getCompiledScriptPath(Session session, String path)
+	public String getCompiledScriptPath(Session session, String path)
+			throws WebResourceCompileException,
+			WebResourceCompilerNotFoundException {
+		popularity.recordResourceRequest(path);
+		return resolveCompiledScriptPath(session, path);
+	}
+
+	/**
+	 * 
+	 * Returns the compiled path of a web resource without counting a request.
+	 * 
+	 * @param session
+	 * @param path
+	 * @return
+	 * @throws WebResourceCompileException
+	 * @throws WebResourceCompilerNotFoundException
+	 */
+	protected String resolveCompiledScriptPath(Session session, String path)
 			throws WebResourceCompileException,
 			WebResourceCompilerNotFoundException {
 		String result = null;
+		if (compiledWebResourceCache != null) {
+			result = compiledWebResourceCache.getCompiledPath(path, null);
+			if (result != null) {
+				return result;
+			}
+		}
 		try {
 			Node sourceNode = session.getNode(path);
 			Node compiledNode = getCompiledScriptNode(session, sourceNode, null);
@@ -344,39 +1226,80 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 	 * @throws WebResourceCompileException
 	 * @throws WebResourceCompilerNotFoundException
 	 */
-	public Node getCompiledScriptNode(Session session, Node sourceNode,
-			WebResourceGroup webResourceGroup)
+	public Node getCompiledScriptNode(final Session session,
+			final Node sourceNode, final WebResourceGroup webResourceGroup)
 			throws WebResourceCompileException,
 			WebResourceCompilerNotFoundException {
 		Node result = null;
-		WebResourceScriptCompiler compiler = webResourceScriptCompilerProvider
+		String sourcePath = null;
+		final String webResourceGroupName = webResourceGroup != null ? webResourceGroup
+				.getName() : null;
+		long cacheGeneration = 0;
+		if (compiledWebResourceCache != null) {
+			try {
+				sourcePath = sourceNode.getPath();
+				result = getCachedCompiledScriptNode(session, sourcePath,
+						webResourceGroupName);
+			} catch (RepositoryException e) {
+				throw new WebResourceCompileException(e);
+			}
+			if (result != null) {
+				return result;
+			}
+			// Watched before loading so its invalidations are not missed
+			watchPath(sourcePath);
+			if (webResourceGroup != null) {
+				watchPath(webResourceGroup.getGroupPath());
+			}
+			cacheGeneration = compiledWebResourceCache.getGeneration();
+		}
+		final WebResourceScriptCompiler compiler = webResourceScriptCompilerProvider
 				.getWebResourceCompilerForNode(sourceNode);
-		String cachedCompiledScriptPath = null;
+		final String cachedSourcePath = sourcePath;
+		final long loadedCacheGeneration = cacheGeneration;
 		try {
-			cachedCompiledScriptPath = getCachedCompiledScriptPath(sourceNode,
-					webResourceGroup, compiler);
-
-			aquireLock(cachedCompiledScriptPath);
-
-			if (session.nodeExists(cachedCompiledScriptPath)) {
-				Node compiledScriptNode = session
-						.getNode(cachedCompiledScriptPath);
-
-				if (isCacheFresh(compiledScriptNode, sourceNode)) {
-					result = compiledScriptNode;
+			final String cachedCompiledScriptPath = getCachedCompiledScriptPath(
+					sourceNode, webResourceGroup, compiler);
+			watchPath(cachedCompiledScriptPath);
+
+			// Do not wait for the flight of a background recompile
+			if (revalidatingPaths.contains(cachedCompiledScriptPath)
+					&& !isStalenessExceeded(cachedCompiledScriptPath)) {
+				Session readSession = getReadSession(session,
+						cachedCompiledScriptPath);
+				if (readSession.nodeExists(cachedCompiledScriptPath)) {
+					return readSession.getNode(cachedCompiledScriptPath);
 				}
 			}
 
-			// Script is either not compiled or out of date.
-			if (result == null) {
-				result = compileWebResourceToNode(sourceNode, webResourceGroup,
-						compiler);
-			}
-
-		} catch (Exception e) {
+			// Callers for the same path share one freshness check and compile
+			String compiledScriptPath = compileFlights.execute(
+					cachedCompiledScriptPath, new Callable<String>() {
+						public String call() throws Exception {
+							String compiledPath = loadCompiledScriptPath(
+									session, sourceNode, webResourceGroup,
+									compiler, cachedCompiledScriptPath);
+							// Stale paths are checked again on the next request
+							if (compiledWebResourceCache != null
+									&& !staleCompiledPaths
+											.containsKey(compiledPath)) {
+								cacheCompiledPath(cachedSourcePath,
+										webResourceGroupName, compiledPath,
+										loadedCacheGeneration);
+							}
+							return compiledPath;
+						}
+					}, saveCurrentWriteBatch);
+			result = getReadSession(session, compiledScriptPath).getNode(
+					compiledScriptPath);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WebResourceCompileException(
+					"Interrupted compiling Web Resource", e);
+		} catch (ExecutionException e) {
+			throw toCompileException(e);
+		} catch (RepositoryException e) {
 			throw new WebResourceCompileException(e);
-		} finally {
-			releaseLock(cachedCompiledScriptPath);
 		}
 
 		return result;
@@ -384,53 +1307,220 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 
 	/**
 	 * 
-	 * Create locks on cached scripts to prevent overcompiling.
+	 * Returns the path of the compiled node of a source, compiling it when it
+	 * does not exist or is out of date.
 	 * 
+	 * @param session
+	 * @param sourceNode
+	 * @param webResourceGroup
+	 * @param compiler
 	 * @param cachedCompiledScriptPath
 	 * @return
+	 * @throws Exception
 	 */
-	protected ReentrantLock aquireLock(String cachedCompiledScriptPath) {
-		ReentrantLock pathLock;
-		synchronized (this) {
-			pathLock = compileLockMap.get(cachedCompiledScriptPath);
-			if (pathLock == null) {
-				log.debug("Created lock for Path: " + cachedCompiledScriptPath);
-				pathLock = new ReentrantLock();
-				compileLockMap.put(cachedCompiledScriptPath, pathLock);
-				pathLock.lock();
+	protected String loadCompiledScriptPath(Session session, Node sourceNode,
+			WebResourceGroup webResourceGroup,
+			WebResourceScriptCompiler compiler, String cachedCompiledScriptPath)
+			throws Exception {
+		Session readSession = getReadSession(session, cachedCompiledScriptPath);
+		if (readSession.nodeExists(cachedCompiledScriptPath)) {
+			Node compiledScriptNode = readSession
+					.getNode(cachedCompiledScriptPath);
+
+			if (isCacheFresh(compiledScriptNode, sourceNode, webResourceGroup,
+					compiler)) {
+				staleCompiledPaths.remove(cachedCompiledScriptPath);
+				return cachedCompiledScriptPath;
+			}
+
+			if (staleWhileRevalidate) {
+				if (markStale(cachedCompiledScriptPath)) {
+					scheduleRevalidation(sourceNode.getPath(),
+							webResourceGroup, compiler,
+							cachedCompiledScriptPath);
+					return cachedCompiledScriptPath;
+				}
+				// Compile in the flight of a pending background recompile
+				revalidate(session, sourceNode, webResourceGroup, compiler,
+						cachedCompiledScriptPath);
+				return cachedCompiledScriptPath;
 			}
 		}
-		if (!pathLock.isHeldByCurrentThread()) {
-			pathLock.lock();
-			pathLock = aquireLock(cachedCompiledScriptPath);
+
+		// Script is either not compiled or out of date.
+		String result = compileWebResourceToNode(sourceNode, webResourceGroup,
+				compiler).getPath();
+		staleCompiledPaths.remove(cachedCompiledScriptPath);
+		return result;
+	}
+
+	/**
+	 * 
+	 * Remembers when a compiled path was first found out of date.
+	 * 
+	 * @param compiledPath
+	 * @return true if it may still be served stale
+	 */
+	protected boolean markStale(String compiledPath) {
+		staleCompiledPaths.putIfAbsent(compiledPath,
+				System.currentTimeMillis());
+		if (isStalenessExceeded(compiledPath)) {
+			log.warn("Web Resource out of date for more than " + maxStaleness
+					+ " ms, compiling while waiting: " + compiledPath);
+			return false;
 		}
-		return pathLock;
+		return true;
+	}
+
+	private boolean isStalenessExceeded(String compiledPath) {
+		Long staleSince = staleCompiledPaths.get(compiledPath);
+		return staleSince != null
+				&& System.currentTimeMillis() - staleSince > maxStaleness;
 	}
 
 	/**
 	 * 
-	 * Release lock on compiled scripts.
+	 * Recompiles an out of date web resource in the background unless its
+	 * recompile is already scheduled.
 	 * 
-	 * @param cachedCompiledScriptPath
+	 * @param sourcePath
+	 * @param webResourceGroup
+	 * @param compiler
+	 * @param compiledPath
 	 */
-	protected void releaseLock(String cachedCompiledScriptPath) {
-		synchronized (this) {
-
-			ReentrantLock pathLock = compileLockMap
-					.get(cachedCompiledScriptPath);
-			if (pathLock != null) {
-				log.debug("Releasing lock for Path: "
-						+ cachedCompiledScriptPath);
-				pathLock.unlock();
-				// Cleans out the compile lock map to prevent memory leak
-				// Queued threads method is an estimate. However it should be an
-				// overestimate
-				// since it may return true with cancelled threads
-				if (!pathLock.hasQueuedThreads()) {
-					compileLockMap.remove(cachedCompiledScriptPath);
+	protected void scheduleRevalidation(final String sourcePath,
+			final WebResourceGroup webResourceGroup,
+			final WebResourceScriptCompiler compiler, final String compiledPath) {
+		ExecutorService executorService = revalidateExecutorService;
+		if (executorService == null || !revalidatingPaths.add(compiledPath)) {
+			return;
+		}
+		try {
+			executorService.submit(new Runnable() {
+				public void run() {
+					try {
+						revalidate(sourcePath, webResourceGroup, compiler,
+								compiledPath);
+					} catch (Exception e) {
+						log.error("Error recompiling Web Resource: "
+								+ sourcePath, e);
+					} finally {
+						revalidatingPaths.remove(compiledPath);
+					}
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			revalidatingPaths.remove(compiledPath);
+		}
+	}
+
+	/**
+	 * 
+	 * Recompiles a web resource served stale in an administrative session.
+	 * 
+	 * @param sourcePath
+	 * @param webResourceGroup
+	 * @param compiler
+	 * @param compiledPath
+	 * @throws Exception
+	 */
+	protected void revalidate(String sourcePath,
+			WebResourceGroup webResourceGroup,
+			WebResourceScriptCompiler compiler, String compiledPath)
+			throws Exception {
+		ResourceResolver resolver = null;
+		try {
+			resolver = resourceResolverFactory
+					.getAdministrativeResourceResolver(null);
+			Session session = resolver.adaptTo(Session.class);
+			if (!session.nodeExists(sourcePath)) {
+				staleCompiledPaths.remove(compiledPath);
+				return;
+			}
+			revalidate(session, session.getNode(sourcePath), webResourceGroup,
+					compiler, compiledPath);
+		} finally {
+			if (resolver != null) {
+				resolver.close();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Recompiles a web resource served stale unless it was compiled since.
+	 * The flight is keyed apart from request compiles, as the request that
+	 * scheduled the recompile may still be in its flight returning the stale
+	 * path. Requests finding the staleness exceeded compile in this flight as
+	 * well, so they wait for a running background recompile instead of
+	 * compiling the same path next to it.
+	 * 
+	 * @param session
+	 * @param sourceNode
+	 * @param webResourceGroup
+	 * @param compiler
+	 * @param compiledPath
+	 * @throws Exception
+	 */
+	protected void revalidate(final Session session, final Node sourceNode,
+			final WebResourceGroup webResourceGroup,
+			final WebResourceScriptCompiler compiler, final String compiledPath)
+			throws Exception {
+		compileFlights.execute(REVALIDATE_FLIGHT_PREFIX + compiledPath,
+				new Callable<String>() {
+					public String call() throws Exception {
+						if (!session.nodeExists(compiledPath)
+								|| !isCacheFresh(session.getNode(compiledPath),
+										sourceNode, webResourceGroup, compiler)) {
+							compileWebResourceToNode(sourceNode,
+									webResourceGroup, compiler);
+						}
+						staleCompiledPaths.remove(compiledPath);
+						return compiledPath;
+					}
+				}, saveCurrentWriteBatch);
+	}
+
+	/**
+	 * 
+	 * Unwraps the failure of a shared compile.
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private WebResourceCompileException toCompileException(
+			ExecutionException e) {
+		if (e.getCause() instanceof WebResourceCompileException) {
+			return (WebResourceCompileException) e.getCause();
+		}
+		return new WebResourceCompileException(e.getCause());
+	}
+
+	/**
+	 * 
+	 * Looks up the compiled node remembered for a source.
+	 * 
+	 * @param session
+	 * @param sourcePath
+	 * @param webResourceGroupName
+	 * @return the node or null if it is not cached or no longer exists
+	 * @throws RepositoryException
+	 */
+	private Node getCachedCompiledScriptNode(Session session,
+			String sourcePath, String webResourceGroupName)
+			throws RepositoryException {
+		String compiledPath = compiledWebResourceCache.getCompiledPath(
+				sourcePath, webResourceGroupName);
+		if (compiledPath != null) {
+			try {
+				return getReadSession(session, compiledPath).getNode(
+						compiledPath);
+			} catch (PathNotFoundException e) {
+				compiledWebResourceCache.remove(sourcePath,
+						webResourceGroupName);
 			}
 		}
+		return null;
 	}
 
 	/**
@@ -461,6 +1551,217 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		return cacheFresh;
 	}
 
+	/**
+	 * 
+	 * Determines if the cache was compiled from the current source content
+	 * and imports with the current compile options and compiler. The source
+	 * and imports are only hashed when their modification date differs from
+	 * the one they were read at. Caches compiled before fingerprints were
+	 * stored fall back to comparing modification dates.
+	 * 
+	 * @param cacheScriptNode
+	 * @param sourceNode
+	 * @param webResourceGroup
+	 * @param compiler
+	 * @return
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	protected boolean isCacheFresh(Node cacheScriptNode, Node sourceNode,
+			WebResourceGroup webResourceGroup,
+			WebResourceScriptCompiler compiler) throws RepositoryException,
+			IOException {
+		Node cacheScriptContent = cacheScriptNode.getNode(Property.JCR_CONTENT);
+		if (!cacheScriptContent
+				.hasProperty(CompiledWebResourceFingerprint.SOURCE_HASH)) {
+			return isCacheFresh(cacheScriptNode, sourceNode);
+		}
+		CompiledWebResourceFingerprint fingerprint = new CompiledWebResourceFingerprint(
+				cacheScriptContent);
+
+		if (!getCompilerVersion(compiler).equals(
+				fingerprint.getCompilerVersion())) {
+			log.debug("Compiler changed for: " + cacheScriptNode.getPath());
+			return false;
+		}
+		if (!createOptionsHash(
+				createCompileOptions(sourceNode, webResourceGroup)).equals(
+				fingerprint.getOptionsHash())) {
+			log.debug("Compile options changed for: "
+					+ cacheScriptNode.getPath());
+			return false;
+		}
+
+		setDependencyImports(sourceNode.getPath(), webResourceGroup,
+				fingerprint.getImports());
+
+		if (!isSameDate(fingerprint.getSourceLastModified(),
+				JCRUtils.getJcrModifiedDate(sourceNode))
+				&& !createSourceHash(sourceNode).equals(
+						fingerprint.getSourceHash())) {
+			log.debug("Source changed for: " + cacheScriptNode.getPath());
+			return false;
+		}
+		if (!isImportsFresh(fingerprint, sourceNode.getSession())) {
+			log.debug("Imports changed for: " + cacheScriptNode.getPath());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * Determines if no import of a compiled web resource was removed or
+	 * changed since it was read. Imports still carrying the modification date
+	 * they were read at are not read again. Others are compared by content
+	 * hash, as content packages and restores may replace them with any
+	 * modification date. Imports recorded without hashes are not fresh.
+	 * 
+	 * @param fingerprint
+	 * @param session
+	 * @return
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	protected boolean isImportsFresh(
+			CompiledWebResourceFingerprint fingerprint, Session session)
+			throws RepositoryException, IOException {
+		List<String> imports = fingerprint.getImports();
+		List<String> importHashes = fingerprint.getImportHashes();
+		if (importHashes.size() != imports.size()) {
+			return false;
+		}
+		List<Calendar> importLastModified = fingerprint
+				.getImportLastModified();
+		boolean datesRecorded = importLastModified.size() == imports.size();
+		for (int i = 0; i < imports.size(); i++) {
+			String currentImport = imports.get(i);
+			if (!session.nodeExists(currentImport)) {
+				return false;
+			}
+			Node importNode = session.getNode(currentImport);
+			if (datesRecorded
+					&& isSameDate(importLastModified.get(i),
+							JCRUtils.getJcrModifiedDate(importNode))) {
+				continue;
+			}
+			if (!createSourceHash(importNode).equals(importHashes.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSameDate(Calendar recordedDate,
+			Calendar currentDate) {
+		return recordedDate != null && currentDate != null
+				&& recordedDate.getTimeInMillis() == currentDate
+						.getTimeInMillis();
+	}
+
+	/**
+	 * 
+	 * SHA-256 of the content of a source file node.
+	 * 
+	 * @param sourceNode
+	 * @return
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	protected String createSourceHash(Node sourceNode)
+			throws RepositoryException, IOException {
+		InputStream sourceStream = JCRUtils.getFileNodeAsStream(sourceNode);
+		try {
+			return DigestUtils.sha256Hex(sourceStream);
+		} finally {
+			sourceStream.close();
+		}
+	}
+
+	/**
+	 * 
+	 * SHA-256 of the compile options. Maps are hashed in key order so equal
+	 * options give equal hashes.
+	 * 
+	 * @param compileOptions
+	 * @return
+	 */
+	protected String createOptionsHash(Map<String, Object> compileOptions) {
+		StringBuilder canonicalOptions = new StringBuilder();
+		appendCanonicalOption(canonicalOptions, compileOptions);
+		return DigestUtils.sha256Hex(canonicalOptions.toString());
+	}
+
+	private void appendCanonicalOption(StringBuilder result, Object option) {
+		if (option instanceof Map) {
+			Map<String, Object> sortedOptions = new TreeMap<String, Object>();
+			for (Map.Entry<?, ?> currentEntry : ((Map<?, ?>) option)
+					.entrySet()) {
+				sortedOptions.put(String.valueOf(currentEntry.getKey()),
+						currentEntry.getValue());
+			}
+			result.append('{');
+			for (Map.Entry<String, Object> currentEntry : sortedOptions
+					.entrySet()) {
+				appendCanonicalOption(result, currentEntry.getKey());
+				result.append('=');
+				appendCanonicalOption(result, currentEntry.getValue());
+				result.append(',');
+			}
+			result.append('}');
+		} else if (option instanceof Collection) {
+			result.append('[');
+			for (Object currentOption : (Collection<?>) option) {
+				appendCanonicalOption(result, currentOption);
+				result.append(',');
+			}
+			result.append(']');
+		} else if (option != null && option.getClass().isArray()) {
+			result.append('[');
+			for (int i = 0; i < Array.getLength(option); i++) {
+				appendCanonicalOption(result, Array.get(option, i));
+				result.append(',');
+			}
+			result.append(']');
+		} else if (option instanceof GlobalCompileOptions) {
+			result.append("global:");
+			appendCanonicalOption(result,
+					((GlobalCompileOptions) option).getSourcePath());
+		} else {
+			String optionString = String.valueOf(option);
+			result.append(optionString.length()).append(':')
+					.append(optionString);
+		}
+	}
+
+	/**
+	 * 
+	 * Version of a compiler, taken from the bundle providing it. Snapshot
+	 * bundles also include their modification time as their version is not
+	 * changed by updates.
+	 * 
+	 * @param compiler
+	 * @return
+	 */
+	protected String getCompilerVersion(WebResourceScriptCompiler compiler) {
+		Class<?> compilerClass = compiler.getClass();
+		StringBuilder result = new StringBuilder(compilerClass.getName());
+		Bundle compilerBundle = FrameworkUtil.getBundle(compilerClass);
+		if (compilerBundle != null) {
+			result.append('@').append(compilerBundle.getSymbolicName())
+					.append(':').append(compilerBundle.getVersion());
+			if (compilerBundle.getVersion().getQualifier()
+					.endsWith("SNAPSHOT")) {
+				result.append(':').append(compilerBundle.getLastModified());
+			}
+		} else if (compilerClass.getPackage() != null
+				&& compilerClass.getPackage().getImplementationVersion() != null) {
+			result.append(':').append(
+					compilerClass.getPackage().getImplementationVersion());
+		}
+		return result.toString();
+	}
+
 	protected String getCachedCompiledScriptPath(Node sourceNode,
 			WebResourceGroup webResourceGroup,
 			WebResourceScriptCompiler compiler) throws RepositoryException {
@@ -507,6 +1808,168 @@ public class WebResourceScriptCacheImpl implements WebResourceScriptCache {
 		return compiler;
 	}
 	
+	public void recordWebResourceGroupRequest(String webResourceGroupName) {
+		popularity.recordGroupRequest(webResourceGroupName);
+	}
+
+	public void warmUp(Session session) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		boolean cpuBudgeted = warmUpCpuBudget > 0
+				&& threadBean.isThreadCpuTimeSupported();
+		long cpuStart = cpuBudgeted ? getWarmUpCpuTime(threadBean) : 0;
+		int warmedUp = 0;
+
+		List<String> pendingGroups = popularity.getGroupsByPopularity();
+		List<String> pendingResources = popularity.getResourcesByPopularity();
+		List<String> pending = new ArrayList<String>(pendingGroups);
+		pending.addAll(pendingResources);
+		for (int i = 0; i < pending.size(); i++) {
+			long cpuMillis = cpuBudgeted ? (getWarmUpCpuTime(threadBean) - cpuStart) / 1000000
+					: 0;
+			if (stopWatch.getTime() >= warmUpTimeBudget
+					|| (cpuBudgeted && cpuMillis >= warmUpCpuBudget)) {
+				log.info("Warm up budget spent, skipping "
+						+ (pending.size() - i) + " web resources");
+				break;
+			}
+			String current = pending.get(i);
+			try {
+				if (i < pendingGroups.size()) {
+					getCompiledWebResourceGroupPaths(session, current, true);
+				} else if (session.nodeExists(current)) {
+					resolveCompiledScriptPath(session, current);
+				}
+				warmedUp++;
+			} catch (Exception e) {
+				log.warn("Unable to warm up Web Resource: " + current, e);
+			}
+		}
+		stopWatch.stop();
+		log.info("Warmed up " + warmedUp + " web resources in "
+				+ stopWatch.getTime() + " ms");
+	}
+
+	/**
+	 * 
+	 * CPU time of the current thread and of the helper threads it hands group
+	 * files to.
+	 * 
+	 * @param threadBean
+	 * @return nanoseconds
+	 */
+	private long getWarmUpCpuTime(ThreadMXBean threadBean) {
+		long result = threadBean.getCurrentThreadCpuTime();
+		for (Thread currentThread : compileHelperThreads) {
+			long helperCpuTime = threadBean.getThreadCpuTime(currentThread
+					.getId());
+			if (helperCpuTime > 0) {
+				result += helperCpuTime;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Adds the request counts saved before the last deactivation.
+	 * 
+	 */
+	private void loadPopularity() {
+		if (resourceResolverFactory == null) {
+			return;
+		}
+		ResourceResolver resolver = null;
+		try {
+			resolver = resourceResolverFactory
+					.getAdministrativeResourceResolver(null);
+			Session session = resolver.adaptTo(Session.class);
+			if (session.nodeExists(POPULARITY_PATH)) {
+				InputStream popularityStream = JCRUtils
+						.getFileNodeAsStream(session.getNode(POPULARITY_PATH));
+				try {
+					popularity.load(popularityStream);
+				} finally {
+					popularityStream.close();
+				}
+			}
+		} catch (Exception e) {
+			log.warn("Unable to load Web Resource request counts", e);
+		} finally {
+			if (resolver != null) {
+				resolver.close();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Saves the request counts if they changed.
+	 * 
+	 */
+	protected void savePopularity() {
+		if (!popularity.isModified() || resourceResolverFactory == null) {
+			return;
+		}
+		ResourceResolver resolver = null;
+		try {
+			ByteArrayOutputStream popularityStream = new ByteArrayOutputStream();
+			popularity.store(popularityStream);
+			resolver = resourceResolverFactory
+					.getAdministrativeResourceResolver(null);
+			Session session = resolver.adaptTo(Session.class);
+			JCRUtils.createFileContentNode(POPULARITY_PATH,
+					new ByteArrayInputStream(popularityStream.toByteArray()),
+					session);
+			session.save();
+		} catch (Exception e) {
+			log.warn("Unable to save Web Resource request counts", e);
+		} finally {
+			if (resolver != null) {
+				resolver.close();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Cached compiled paths skip the compiler version check, so they are
+	 * dropped whenever compilers change.
+	 * 
+	 * @param webResourceScriptCompiler
+	 */
+	protected void bindWebResourceScriptCompiler(
+			WebResourceScriptCompiler webResourceScriptCompiler) {
+		clearCompiledCache();
+	}
+
+	protected void unbindWebResourceScriptCompiler(
+			WebResourceScriptCompiler webResourceScriptCompiler) {
+		clearCompiledCache();
+	}
+
+	private void clearCompiledCache() {
+		CompiledWebResourceCache cache = compiledWebResourceCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	public void setWebResourceScriptCompilerProvider(
+			WebResourceScriptCompilerProvider webResourceScriptCompilerProvider) {
+		this.webResourceScriptCompilerProvider = webResourceScriptCompilerProvider;
+	}
+
+	public void setWebResourceInventoryManager(
+			WebResourceInventoryManager webResourceInventoryManager) {
+		this.webResourceInventoryManager = webResourceInventoryManager;
+	}
+
+	public void setEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = eventAdmin;
+	}
+
 	@Override
 	public InputStream getGlobalWebResourceScripts() throws RepositoryException, LoginException {
 		InputStream result = getClass().getClassLoader().getResourceAsStream("META-INF/webresource-overrides.js");
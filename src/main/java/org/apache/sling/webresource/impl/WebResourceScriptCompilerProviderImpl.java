@@ -1,17 +1,26 @@
 package org.apache.sling.webresource.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jcr.Node;
+import javax.jcr.RepositoryException;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.ServiceUtil;
 import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.WebResourceScriptCompiler;
 import org.apache.sling.webresource.WebResourceScriptCompilerProvider;
@@ -19,37 +28,111 @@ import org.apache.sling.webresource.compiler.impl.AbstractNoOpCompiler;
 import org.apache.sling.webresource.exception.WebResourceCompilerNotFoundException;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-@Component(label = "Web Resource Compiler Provider Service", immediate = true)
+@Component(label = "Web Resource Compiler Provider Service", immediate = true, specVersion = "1.1")
 @Service
 @Reference(name = "WebResourceCompilerProvider", referenceInterface = WebResourceScriptCompiler.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC)
 public class WebResourceScriptCompilerProviderImpl implements
 		WebResourceScriptCompilerProvider {
 
-	private List<WebResourceScriptCompiler> webResourceScriptCompilerList = new ArrayList<WebResourceScriptCompiler>();
+	/**
+	 * 
+	 * Compilers ordered by service ranking with the compiler resolved for each
+	 * extension. Replaced whenever a compiler is bound or unbound so resolved
+	 * extensions never outlive the compilers they were resolved against.
+	 * 
+	 */
+	static class CompilerRegistry {
 
-	private WebResourceScriptCompiler[] webResourceScriptCompilers;
+		private final WebResourceScriptCompiler[] compilers;
 
-	@Reference
-	private EventAdmin eventAdmin;
+		private final ConcurrentMap<String, WebResourceScriptCompiler> compilersByExtension = new ConcurrentHashMap<String, WebResourceScriptCompiler>();
 
-	public WebResourceScriptCompiler getWebResourceCompilerForNode(
-			Node sourceNode) throws WebResourceCompilerNotFoundException {
-		WebResourceScriptCompiler result = null;
+		/**
+		 * Extensions no compiler can compile.
+		 */
+		private final Set<String> extensionsWithoutCompiler = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-		WebResourceScriptCompiler[] serviceProviders = getWebResourceCompilerProviders();
+		CompilerRegistry(WebResourceScriptCompiler[] compilers) {
+			this.compilers = compilers;
+		}
 
-		if (serviceProviders != null) {
-			for (WebResourceScriptCompiler currentService : serviceProviders) {
-				// Select the first service that can compile a web resource with
-				// this
-				// extension
+		/**
+		 * 
+		 * @param sourceNode
+		 * @return highest ranked compiler for the extension of the node or
+		 *         null
+		 */
+		WebResourceScriptCompiler getCompiler(Node sourceNode) {
+			String extension = getExtension(sourceNode);
+			if (extension == null) {
+				return findCompiler(sourceNode);
+			}
+			WebResourceScriptCompiler result = compilersByExtension
+					.get(extension);
+			if (result != null || extensionsWithoutCompiler.contains(extension)) {
+				return result;
+			}
+			result = findCompiler(sourceNode);
+			if (result != null) {
+				compilersByExtension.put(extension, result);
+			} else {
+				extensionsWithoutCompiler.add(extension);
+			}
+			return result;
+		}
+
+		int getResolvedExtensionCount() {
+			return compilersByExtension.size()
+					+ extensionsWithoutCompiler.size();
+		}
+
+		private WebResourceScriptCompiler findCompiler(Node sourceNode) {
+			for (WebResourceScriptCompiler currentService : compilers) {
+				// Select the highest ranked service that can compile a web
+				// resource with this extension
 				if (currentService.canCompileNode(sourceNode)) {
-					result = currentService;
-					break;
+					return currentService;
 				}
 			}
+			return null;
+		}
+
+		/**
+		 * 
+		 * @param sourceNode
+		 * @return extension of the node, null if it has none or its name can
+		 *         not be read
+		 */
+		private String getExtension(Node sourceNode) {
+			try {
+				String nodeName = sourceNode.getName();
+				int extensionPosition = nodeName.lastIndexOf(".");
+				return extensionPosition >= 0 ? nodeName
+						.substring(extensionPosition + 1) : null;
+			} catch (RepositoryException e) {
+				return null;
+			}
 		}
+	}
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private List<WebResourceScriptCompiler> webResourceScriptCompilerList = new ArrayList<WebResourceScriptCompiler>();
+
+	private Map<WebResourceScriptCompiler, Comparable<Object>> webResourceScriptCompilerRankings = new HashMap<WebResourceScriptCompiler, Comparable<Object>>();
+
+	private volatile CompilerRegistry compilerRegistry;
+
+	@Reference
+	private EventAdmin eventAdmin;
+
+	public WebResourceScriptCompiler getWebResourceCompilerForNode(
+			Node sourceNode) throws WebResourceCompilerNotFoundException {
+		WebResourceScriptCompiler result = findWebResourceCompilerForNode(sourceNode);
 
 		if (result == null) {
 			throw new WebResourceCompilerNotFoundException(
@@ -59,23 +142,36 @@ public class WebResourceScriptCompilerProviderImpl implements
 		return result;
 	}
 
+	public WebResourceScriptCompiler findWebResourceCompilerForNode(
+			Node sourceNode) {
+		return getCompilerRegistry().getCompiler(sourceNode);
+	}
+
 	/**
 	 * 
 	 * Bind Compiler Providers
 	 * 
 	 * @param webResourceCompilerService
+	 * @param properties
+	 *            service properties holding the service ranking
 	 */
 	protected void bindWebResourceCompilerProvider(
-			WebResourceScriptCompiler webResourceCompilerService) {
+			WebResourceScriptCompiler webResourceCompilerService,
+			Map<String, Object> properties) {
 		synchronized (this.webResourceScriptCompilerList) {
 			this.webResourceScriptCompilerList.add(webResourceCompilerService);
-			this.webResourceScriptCompilers = null;
+			this.webResourceScriptCompilerRankings.put(
+					webResourceCompilerService,
+					ServiceUtil.getComparableForServiceRanking(properties));
+			this.compilerRegistry = null;
 		}
 
-		if (!(webResourceCompilerService instanceof AbstractNoOpCompiler)) {
-			Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		if (!(webResourceCompilerService instanceof AbstractNoOpCompiler)
+				&& this.eventAdmin != null) {
+			Dictionary<String, Object> eventProperties = new Hashtable<String, Object>();
 			Event event = new Event(
-					WebResourceInventoryManager.COMPILE_ALL_EVENT, properties);
+					WebResourceInventoryManager.COMPILE_ALL_EVENT,
+					eventProperties);
 			this.eventAdmin.postEvent(event);
 		}
 	}
@@ -85,35 +181,60 @@ public class WebResourceScriptCompilerProviderImpl implements
 	 * Unbind Compiler Providers
 	 * 
 	 * @param webResourceCompilerService
+	 * @param properties
 	 */
 	protected void unbindWebResourceCompilerProvider(
-			WebResourceScriptCompiler webResourceCompilerService) {
+			WebResourceScriptCompiler webResourceCompilerService,
+			Map<String, Object> properties) {
 		synchronized (this.webResourceScriptCompilerList) {
 			this.webResourceScriptCompilerList
 					.remove(webResourceCompilerService);
-			this.webResourceScriptCompilers = null;
+			this.webResourceScriptCompilerRankings
+					.remove(webResourceCompilerService);
+			this.compilerRegistry = null;
 		}
 	}
 
 	/**
 	 * 
-	 * Return list of available compilers
+	 * Return registry of available compilers, building it after compilers
+	 * changed.
 	 * 
 	 * @return
 	 */
-	private WebResourceScriptCompiler[] getWebResourceCompilerProviders() {
-		WebResourceScriptCompiler[] list = this.webResourceScriptCompilers;
+	CompilerRegistry getCompilerRegistry() {
+		CompilerRegistry registry = this.compilerRegistry;
 
-		if (list == null) {
+		if (registry == null) {
 			synchronized (this.webResourceScriptCompilerList) {
-				this.webResourceScriptCompilers = this.webResourceScriptCompilerList
-						.toArray(new WebResourceScriptCompiler[this.webResourceScriptCompilerList
-								.size()]);
-				list = this.webResourceScriptCompilers;
+				registry = this.compilerRegistry;
+				if (registry == null) {
+					List<WebResourceScriptCompiler> compilers = new ArrayList<WebResourceScriptCompiler>(
+							this.webResourceScriptCompilerList);
+					// Highest ranking first, equal rankings by service id
+					Collections.sort(compilers,
+							new Comparator<WebResourceScriptCompiler>() {
+								public int compare(
+										WebResourceScriptCompiler first,
+										WebResourceScriptCompiler second) {
+									return webResourceScriptCompilerRankings
+											.get(second)
+											.compareTo(
+													webResourceScriptCompilerRankings
+															.get(first));
+								}
+							});
+					log.debug("Web Resource Compilers by ranking: " + compilers);
+					registry = new CompilerRegistry(
+							compilers
+									.toArray(new WebResourceScriptCompiler[compilers
+											.size()]));
+					this.compilerRegistry = registry;
+				}
 			}
 		}
 
-		return list;
+		return registry;
 	}
 
 }
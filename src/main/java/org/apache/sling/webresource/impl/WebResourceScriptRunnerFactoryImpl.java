@@ -1,44 +1,528 @@
 package org.apache.sling.webresource.impl;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.WebResourceScriptCache;
+import org.apache.sling.webresource.WebResourceScriptCompiler;
 import org.apache.sling.webresource.WebResourceScriptRunner;
 import org.apache.sling.webresource.WebResourceScriptRunnerFactory;
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.model.WebResourceScriptRunnerPoolStatistics;
+import org.apache.sling.webresource.util.ScriptUtils;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Component(immediate = true, metatype = true)
 @Service
+@Reference(name = "WebResourceScriptCompiler", referenceInterface = WebResourceScriptCompiler.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE, policy = ReferencePolicy.DYNAMIC)
 public class WebResourceScriptRunnerFactoryImpl implements
 		WebResourceScriptRunnerFactory {
-	
+
+	public static final String ENGINE_RHINO = "rhino";
+
+	public static final String ENGINE_JSR223 = "jsr223";
+
+	public static final String ENGINE_GRAALJS = "graaljs";
+
+	private static final String GRAALJS_ENGINE_NAME = "graal.js";
+
+	private static final String DEFAULT_ENGINE = ENGINE_RHINO;
+
+	private static final String DEFAULT_SCRIPT_ENGINE_NAME = "javascript";
+
+	private static final int DEFAULT_POOL_MIN_IDLE = 1;
+
+	private static final int DEFAULT_POOL_MAX_SIZE = 4;
+
+	private static final long DEFAULT_POOL_IDLE_TIMEOUT = 300;
+
+	private static final long DEFAULT_POOL_BORROW_TIMEOUT = 120;
+
+	private static final int DEFAULT_SCRIPT_CACHE_MAX_ENTRIES = 256;
+
+	private static final int DEFAULT_OPTIMIZATION_LEVEL = RhinoRunnerOptions.INTERPRETED;
+
+	private static final boolean DEFAULT_SEALED_ROOT_SCOPE = false;
+
+	private static final boolean DEFAULT_SCOPE_SNAPSHOTS = true;
+
+	private static final String SCOPE_SNAPSHOT_DIRECTORY = "runner-snapshots";
+
+	private static final long DEFAULT_MAX_INSTRUCTIONS = 0;
+
+	private static final long DEFAULT_EVALUATION_TIMEOUT = 60;
+
+	private static final int DEFAULT_MAX_OUTPUT_SIZE = 16 * 1024 * 1024;
+
+	private static final boolean DEFAULT_EVALUATION_STATISTICS = true;
+
+	@Property(value = DEFAULT_ENGINE, label = "JavaScript Engine", description = "Engine running the compiler scripts. Falls back to the embedded Rhino engine when the selected engine is not available or an instruction limit is set, as only Rhino can count instructions. Other engines enforce the script timeout by abandoning the evaluation on a worker thread", options = {
+			@PropertyOption(name = ENGINE_RHINO, value = "Embedded Rhino"),
+			@PropertyOption(name = ENGINE_JSR223, value = "JSR-223 Script Engine"),
+			@PropertyOption(name = ENGINE_GRAALJS, value = "GraalJS") })
+	public static final String ENGINE = "webresource.runner.engine";
+
+	@Property(value = DEFAULT_SCRIPT_ENGINE_NAME, label = "JSR-223 Engine Name", description = "Name of the script engine used by the JSR-223 engine option")
+	public static final String SCRIPT_ENGINE_NAME = "webresource.runner.scriptEngineName";
+
+	@Property(intValue = DEFAULT_POOL_MIN_IDLE, label = "Runner Pool Min Idle", description = "Initialized script runners kept per compiler even when unused")
+	public static final String POOL_MIN_IDLE = "webresource.runner.pool.minIdle";
+
+	@Property(intValue = DEFAULT_POOL_MAX_SIZE, label = "Runner Pool Max Size", description = "Maximum script runners checked out per compiler at the same time")
+	public static final String POOL_MAX_SIZE = "webresource.runner.pool.maxSize";
+
+	@Property(longValue = DEFAULT_POOL_IDLE_TIMEOUT, label = "Runner Pool Idle Timeout", description = "Seconds an unused script runner above the minimum is kept")
+	public static final String POOL_IDLE_TIMEOUT = "webresource.runner.pool.idleTimeout";
+
+	@Property(longValue = DEFAULT_POOL_BORROW_TIMEOUT, label = "Runner Pool Borrow Timeout", description = "Seconds to wait for a script runner when all are checked out")
+	public static final String POOL_BORROW_TIMEOUT = "webresource.runner.pool.borrowTimeout";
+
+	@Property(intValue = DEFAULT_SCRIPT_CACHE_MAX_ENTRIES, label = "Parsed Script Cache Size", description = "Maximum parsed scripts shared between runners")
+	public static final String SCRIPT_CACHE_MAX_ENTRIES = "webresource.runner.scriptCache.maxEntries";
+
+	@Property(intValue = DEFAULT_OPTIMIZATION_LEVEL, label = "Rhino Optimization Level", description = "-1 interprets scripts. 0 to 9 compile scripts to JVM bytecode, falling back to the interpreter for scripts too large to compile")
+	public static final String OPTIMIZATION_LEVEL = "webresource.runner.optimizationLevel";
+
+	@Property(boolValue = DEFAULT_SEALED_ROOT_SCOPE, label = "Sealed Root Scope", description = "Seal the root scope and every object reachable from it after the global scripts are loaded and share one runner per compiler between concurrent compiles. Scripts that modify globals, standard objects or library objects while compiling will fail in this mode, so compilers whose libraries keep mutable module state can not use it")
+	public static final String SEALED_ROOT_SCOPE = "webresource.runner.sealedRootScope";
+
+	@Property(boolValue = DEFAULT_SCOPE_SNAPSHOTS, label = "Root Scope Snapshots", description = "Persist the initialized root scope of interpreted Rhino runners in the bundle data area so new runners skip evaluating the compiler scripts")
+	public static final String SCOPE_SNAPSHOTS = "webresource.runner.scopeSnapshots";
+
+	@Property(longValue = DEFAULT_MAX_INSTRUCTIONS, label = "Max Script Instructions", description = "Rhino instructions one compile may execute. 0 for no limit. Other engines are only used without a limit")
+	public static final String MAX_INSTRUCTIONS = "webresource.runner.maxInstructions";
+
+	@Property(longValue = DEFAULT_EVALUATION_TIMEOUT, label = "Script Timeout", description = "Seconds one compile may run. 0 for no limit")
+	public static final String EVALUATION_TIMEOUT = "webresource.runner.evaluationTimeout";
+
+	@Property(intValue = DEFAULT_MAX_OUTPUT_SIZE, label = "Max Script Output Size", description = "Characters one compile may produce. 0 for no limit")
+	public static final String MAX_OUTPUT_SIZE = "webresource.runner.maxOutputSize";
+
+	@Property(boolValue = DEFAULT_EVALUATION_STATISTICS, label = "Evaluation Statistics", description = "Record parse and execute times, instructions, sizes and allocations of every compile and publish them as MBeans per compiler")
+	public static final String EVALUATION_STATISTICS = "webresource.runner.statistics";
+
 	@Reference
 	private WebResourceInventoryManager webResourceInventoryManager;
-	
+
 	@Reference
 	private WebResourceScriptCache webResourceScriptCache;
 
+	/**
+	 * Registered by Sling scripting with the engine factories of all bundles.
+	 */
+	@Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC)
+	private volatile ScriptEngineManager scriptEngineManager;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
+	private final ConcurrentMap<String, WebResourceScriptRunnerPool> runnerPools = new ConcurrentHashMap<String, WebResourceScriptRunnerPool>();
+
+	/**
+	 * Compilers bound or unbound so far. A global script can only change with
+	 * its compiler.
+	 */
+	private final AtomicLong compilerChangeCount = new AtomicLong();
+
+	/**
+	 * Compiler change count at which the global script of each pool was last
+	 * compared.
+	 */
+	private final ConcurrentMap<String, Long> globalScriptChecks = new ConcurrentHashMap<String, Long>();
+
+	private String engine = DEFAULT_ENGINE;
+
+	private String scriptEngineName = DEFAULT_SCRIPT_ENGINE_NAME;
+
+	private int poolMinIdle = DEFAULT_POOL_MIN_IDLE;
+
+	private int poolMaxSize = DEFAULT_POOL_MAX_SIZE;
+
+	private long poolIdleTimeout = DEFAULT_POOL_IDLE_TIMEOUT;
+
+	private long poolBorrowTimeout = DEFAULT_POOL_BORROW_TIMEOUT;
+
+	private ScheduledExecutorService poolMaintenanceService;
+
+	private RhinoRunnerOptions runnerOptions = createRunnerOptions(
+			DEFAULT_SCRIPT_CACHE_MAX_ENTRIES, DEFAULT_OPTIMIZATION_LEVEL,
+			DEFAULT_SEALED_ROOT_SCOPE);
+
+	protected void activate(ComponentContext context) {
+		Dictionary<?, ?> properties = context.getProperties();
+		engine = PropertiesUtil.toString(properties.get(ENGINE),
+				DEFAULT_ENGINE);
+		scriptEngineName = PropertiesUtil.toString(
+				properties.get(SCRIPT_ENGINE_NAME), DEFAULT_SCRIPT_ENGINE_NAME);
+		poolMinIdle = PropertiesUtil.toInteger(properties.get(POOL_MIN_IDLE),
+				DEFAULT_POOL_MIN_IDLE);
+		poolMaxSize = PropertiesUtil.toInteger(properties.get(POOL_MAX_SIZE),
+				DEFAULT_POOL_MAX_SIZE);
+		poolIdleTimeout = PropertiesUtil.toLong(
+				properties.get(POOL_IDLE_TIMEOUT), DEFAULT_POOL_IDLE_TIMEOUT);
+		poolBorrowTimeout = PropertiesUtil.toLong(
+				properties.get(POOL_BORROW_TIMEOUT),
+				DEFAULT_POOL_BORROW_TIMEOUT);
+		runnerOptions = createRunnerOptions(PropertiesUtil.toInteger(
+				properties.get(SCRIPT_CACHE_MAX_ENTRIES),
+				DEFAULT_SCRIPT_CACHE_MAX_ENTRIES), PropertiesUtil.toInteger(
+				properties.get(OPTIMIZATION_LEVEL), DEFAULT_OPTIMIZATION_LEVEL),
+				PropertiesUtil.toBoolean(properties.get(SEALED_ROOT_SCOPE),
+						DEFAULT_SEALED_ROOT_SCOPE));
+		runnerOptions.setMaxInstructions(Math.max(0, PropertiesUtil.toLong(
+				properties.get(MAX_INSTRUCTIONS), DEFAULT_MAX_INSTRUCTIONS)));
+		runnerOptions.setEvaluationTimeout(TimeUnit.SECONDS.toMillis(Math.max(
+				0, PropertiesUtil.toLong(properties.get(EVALUATION_TIMEOUT),
+						DEFAULT_EVALUATION_TIMEOUT))));
+		runnerOptions.setMaxOutputSize(Math.max(0, PropertiesUtil.toInteger(
+				properties.get(MAX_OUTPUT_SIZE), DEFAULT_MAX_OUTPUT_SIZE)));
+		if (!ENGINE_RHINO.equals(engine) && !isScriptEngineAllowed()) {
+			log.warn("Script engine " + engine
+					+ " can not enforce instruction limits. Using Rhino");
+		}
+		if (PropertiesUtil.toBoolean(properties.get(EVALUATION_STATISTICS),
+				DEFAULT_EVALUATION_STATISTICS)) {
+			runnerOptions.setEvaluationMonitor(new ScriptEvaluationMonitor(true));
+		}
+		if (PropertiesUtil.toBoolean(properties.get(SCOPE_SNAPSHOTS),
+				DEFAULT_SCOPE_SNAPSHOTS)) {
+			File snapshotDirectory = context.getBundleContext().getDataFile(
+					SCOPE_SNAPSHOT_DIRECTORY);
+			if (snapshotDirectory != null) {
+				runnerOptions.setScopeSnapshotStore(new RhinoScopeSnapshotStore(
+						snapshotDirectory));
+			} else {
+				log.info("No bundle data area. Root scope snapshots disabled");
+			}
+		}
+
+		poolMaintenanceService = Executors.newSingleThreadScheduledExecutor();
+		long evictionPeriod = Math.max(1, poolIdleTimeout / 2);
+		poolMaintenanceService.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (WebResourceScriptRunnerPool currentPool : runnerPools
+						.values()) {
+					currentPool.evictIdleRunners();
+					currentPool.prefill();
+				}
+			}
+		}, evictionPeriod, evictionPeriod, TimeUnit.SECONDS);
+	}
+
+	protected void deactivate(ComponentContext context) {
+		if (poolMaintenanceService != null) {
+			poolMaintenanceService.shutdownNow();
+			poolMaintenanceService = null;
+		}
+		for (WebResourceScriptRunnerPool currentPool : runnerPools.values()) {
+			currentPool.close();
+		}
+		runnerPools.clear();
+		globalScriptChecks.clear();
+		if (runnerOptions.getEvaluationMonitor() != null) {
+			runnerOptions.getEvaluationMonitor().close();
+		}
+		RhinoCompiledScriptCache compiledScriptCache = runnerOptions
+				.getCompiledScriptCache();
+		log.info("Parsed script cache hits: "
+				+ compiledScriptCache.getHitCount() + " misses: "
+				+ compiledScriptCache.getMissCount() + " interpreter fallbacks: "
+				+ compiledScriptCache.getFallbackCount());
+		compiledScriptCache.clear();
+	}
+
 	@Override
 	public WebResourceScriptRunner createRunner(String scriptCompilerName,
 			InputStream globalScriptStream) {
-		WebResourceScriptRunner result = new RhinoWebResourceScriptRunnerImpl(
-				scriptCompilerName, globalScriptStream, webResourceInventoryManager, webResourceScriptCache);
-		log.debug("Created Rhino Script Runner");
+		WebResourceScriptRunner result = null;
+		if (!ENGINE_RHINO.equals(engine) && isScriptEngineAllowed()) {
+			ScriptEngine scriptEngine = getScriptEngine();
+			if (scriptEngine != null) {
+				ScriptEvaluationMonitor evaluationMonitor = runnerOptions
+						.getEvaluationMonitor();
+				result = new ScriptEngineWebResourceScriptRunnerImpl(
+						scriptCompilerName, globalScriptStream, scriptEngine,
+						webResourceInventoryManager,
+						evaluationMonitor != null ? evaluationMonitor
+								.getStatistics(scriptCompilerName) : null,
+						runnerOptions.getMaxOutputSize(),
+						runnerOptions.getEvaluationTimeout());
+				log.debug("Created " + engine + " Script Runner");
+			} else {
+				log.warn("Script engine " + engine
+						+ " not available. Falling back to Rhino");
+			}
+		}
+		if (result == null) {
+			result = new RhinoWebResourceScriptRunnerImpl(scriptCompilerName,
+					globalScriptStream, webResourceInventoryManager,
+					webResourceScriptCache, runnerOptions);
+			log.debug("Created Rhino Script Runner");
+		}
 		return result;
 	}
-	
+
+	/**
+	 * 
+	 * Looks up a new engine for the configured engine option from the script
+	 * engine manager service.
+	 * 
+	 * @return the engine or null if it is not installed
+	 */
+	protected ScriptEngine getScriptEngine() {
+		ScriptEngineManager currentScriptEngineManager = scriptEngineManager;
+		if (currentScriptEngineManager == null) {
+			return null;
+		}
+		if (ENGINE_GRAALJS.equals(engine)) {
+			return currentScriptEngineManager
+					.getEngineByName(GRAALJS_ENGINE_NAME);
+		}
+		return currentScriptEngineManager.getEngineByName(scriptEngineName);
+	}
+
+	/**
+	 * 
+	 * Script engines can not count instructions, so they are only used when
+	 * instruction limits are disabled.
+	 * 
+	 * @return
+	 */
+	private boolean isScriptEngineAllowed() {
+		return runnerOptions.getMaxInstructions() == 0;
+	}
+
+	/**
+	 * 
+	 * Only sealed Rhino runners can evaluate scripts concurrently.
+	 * 
+	 * @return
+	 */
+	private boolean isConcurrentRunner() {
+		return runnerOptions.isSealedRootScope()
+				&& (ENGINE_RHINO.equals(engine)
+						|| !isScriptEngineAllowed() || getScriptEngine() == null);
+	}
+
+	/**
+	 * 
+	 * Borrows from the pool of the compiler. The global script is only read
+	 * and hashed for a new pool or the first borrow after a compiler was
+	 * bound or unbound.
+	 */
+	@Override
+	public WebResourceScriptRunner borrowRunner(String scriptCompilerName,
+			InputStream globalScriptStream) throws WebResourceCompileException {
+		WebResourceScriptRunnerPool pool = runnerPools.get(scriptCompilerName);
+		long compilerChange = compilerChangeCount.get();
+		if (pool != null && globalScriptStream != null
+				&& isGlobalScriptChecked(scriptCompilerName, compilerChange)) {
+			IOUtils.closeQuietly(globalScriptStream);
+		} else if (globalScriptStream != null) {
+			byte[] globalScript = null;
+			try {
+				globalScript = ScriptUtils.readScript(globalScriptStream);
+			} catch (IOException e) {
+				throw new WebResourceCompileException(
+						"Error reading global script for " + scriptCompilerName,
+						e);
+			}
+			String globalScriptHash = DigestUtils.sha256Hex(globalScript);
+			if (pool == null
+					|| !pool.getGlobalScriptHash().equals(globalScriptHash)) {
+				pool = replaceRunnerPool(scriptCompilerName, globalScript,
+						globalScriptHash);
+			}
+			globalScriptChecks.put(scriptCompilerName,
+					Long.valueOf(compilerChange));
+		} else if (pool == null) {
+			throw new WebResourceCompileException(
+					"No global script registered for " + scriptCompilerName);
+		}
+		return pool.borrow();
+	}
+
+	private boolean isGlobalScriptChecked(String scriptCompilerName,
+			long compilerChange) {
+		Long checkedChange = globalScriptChecks.get(scriptCompilerName);
+		return checkedChange != null
+				&& checkedChange.longValue() == compilerChange;
+	}
+
+	/**
+	 * 
+	 * Hands a runner back to the pool it was borrowed from. Runners do not
+	 * know their compiler, so the few current pools are asked in turn.
+	 */
+	@Override
+	public void returnRunner(WebResourceScriptRunner runner) {
+		if (runner == null) {
+			return;
+		}
+		for (WebResourceScriptRunnerPool currentPool : runnerPools.values()) {
+			if (currentPool.giveBack(runner)) {
+				return;
+			}
+		}
+		log.debug("Discarding script runner not owned by a current pool");
+	}
+
+	@Override
+	public Map<String, WebResourceScriptRunnerPoolStatistics> getRunnerPoolStatistics() {
+		Map<String, WebResourceScriptRunnerPoolStatistics> result = new HashMap<String, WebResourceScriptRunnerPoolStatistics>();
+		for (WebResourceScriptRunnerPool currentPool : runnerPools.values()) {
+			result.put(currentPool.getScriptCompilerName(),
+					currentPool.getStatistics());
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Creates a pool for a compiler, replacing one built from a different
+	 * global script.
+	 * 
+	 * @param scriptCompilerName
+	 * @param globalScript
+	 * @param globalScriptHash
+	 * @return
+	 */
+	private WebResourceScriptRunnerPool replaceRunnerPool(
+			String scriptCompilerName, byte[] globalScript,
+			String globalScriptHash) {
+		final WebResourceScriptRunnerPool result;
+		WebResourceScriptRunnerPool oldPool = null;
+		synchronized (runnerPools) {
+			WebResourceScriptRunnerPool currentPool = runnerPools
+					.get(scriptCompilerName);
+			if (currentPool != null
+					&& currentPool.getGlobalScriptHash().equals(
+							globalScriptHash)) {
+				return currentPool;
+			}
+			result = new WebResourceScriptRunnerPool(scriptCompilerName,
+					globalScript, globalScriptHash, this, poolMinIdle,
+					poolMaxSize, TimeUnit.SECONDS.toMillis(poolIdleTimeout),
+					TimeUnit.SECONDS.toMillis(poolBorrowTimeout),
+					isConcurrentRunner());
+			oldPool = runnerPools.put(scriptCompilerName, result);
+		}
+		if (oldPool != null) {
+			log.info("Global script changed. Replacing runner pool for "
+					+ scriptCompilerName);
+			oldPool.close();
+		}
+		if (poolMaintenanceService != null) {
+			poolMaintenanceService.submit(new Runnable() {
+				@Override
+				public void run() {
+					result.prefill();
+				}
+			});
+		}
+		return result;
+	}
+
+	public RhinoRunnerOptions getRunnerOptions() {
+		return runnerOptions;
+	}
+
+	private static RhinoRunnerOptions createRunnerOptions(
+			int scriptCacheMaxEntries, int optimizationLevel,
+			boolean sealedRootScope) {
+		RhinoRunnerOptions result = new RhinoRunnerOptions();
+		result.setCompiledScriptCache(new RhinoCompiledScriptCache(
+				scriptCacheMaxEntries));
+		result.setOptimizationLevel(Math.max(RhinoRunnerOptions.INTERPRETED,
+				Math.min(9, optimizationLevel)));
+		result.setSealedRootScope(sealedRootScope);
+		return result;
+	}
+
+	/**
+	 * 
+	 * Makes the next borrow of every pool compare the global script again,
+	 * as the bound compiler may bring a changed one.
+	 * 
+	 * @param webResourceScriptCompiler
+	 */
+	protected void bindWebResourceScriptCompiler(
+			WebResourceScriptCompiler webResourceScriptCompiler) {
+		compilerChangeCount.incrementAndGet();
+	}
+
+	protected void unbindWebResourceScriptCompiler(
+			WebResourceScriptCompiler webResourceScriptCompiler) {
+		compilerChangeCount.incrementAndGet();
+	}
+
+	/**
+	 * 
+	 * Replaces the runner pools when a script engine is selected, as the
+	 * engines available may have changed.
+	 * 
+	 * @param scriptEngineManager
+	 */
+	protected void bindScriptEngineManager(
+			ScriptEngineManager scriptEngineManager) {
+		this.scriptEngineManager = scriptEngineManager;
+		closeScriptEngineRunnerPools();
+	}
+
+	protected void unbindScriptEngineManager(
+			ScriptEngineManager scriptEngineManager) {
+		if (this.scriptEngineManager == scriptEngineManager) {
+			this.scriptEngineManager = null;
+			closeScriptEngineRunnerPools();
+		}
+	}
+
+	private void closeScriptEngineRunnerPools() {
+		if (ENGINE_RHINO.equals(engine)) {
+			return;
+		}
+		synchronized (runnerPools) {
+			for (WebResourceScriptRunnerPool currentPool : runnerPools
+					.values()) {
+				currentPool.close();
+			}
+			runnerPools.clear();
+			globalScriptChecks.clear();
+		}
+		log.info("Script engines changed. Runner pools are created again");
+	}
+
 	public void setWebResourceInventoryManager(
 			WebResourceInventoryManager webResourceInventoryManager) {
 		this.webResourceInventoryManager = webResourceInventoryManager;
 	}
-	
+
 	public void setWebResourceScriptCache(
 			WebResourceScriptCache webResourceScriptCache) {
 		this.webResourceScriptCache = webResourceScriptCache;
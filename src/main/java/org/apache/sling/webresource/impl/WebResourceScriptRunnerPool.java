@@ -0,0 +1,334 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.apache.sling.webresource.WebResourceScriptRunnerFactory;
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.model.WebResourceScriptRunnerPoolStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Pool of initialized script runners for a single script compiler. Idle
+ * runners are handed out most recently used first so the least used ones age
+ * out and can be evicted. Runners that can evaluate scripts concurrently are
+ * shared instead, in which case the pool only limits how many callers use the
+ * shared runner at once. Runners abandoned after a timeout are dropped when
+ * they are returned.
+ * 
+ */
+public class WebResourceScriptRunnerPool {
+
+	private final String scriptCompilerName;
+
+	private final byte[] globalScript;
+
+	private final String globalScriptHash;
+
+	private final WebResourceScriptRunnerFactory runnerFactory;
+
+	private final int minIdle;
+
+	private final int maxSize;
+
+	private final long idleTimeout;
+
+	private final long borrowTimeout;
+
+	private final boolean shareRunner;
+
+	private volatile WebResourceScriptRunner sharedRunner;
+
+	private final AtomicInteger sharedBorrowCount = new AtomicInteger();
+
+	private final LinkedBlockingDeque<IdleRunner> idleRunners = new LinkedBlockingDeque<IdleRunner>();
+
+	private final Set<WebResourceScriptRunner> borrowedRunners = Collections
+			.newSetFromMap(new ConcurrentHashMap<WebResourceScriptRunner, Boolean>());
+
+	private final Semaphore permits;
+
+	private final AtomicLong createdCount = new AtomicLong();
+
+	private final AtomicLong borrowedCount = new AtomicLong();
+
+	private final AtomicLong returnedCount = new AtomicLong();
+
+	private final AtomicLong evictedCount = new AtomicLong();
+
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	private volatile boolean closed;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * 
+	 * @param scriptCompilerName
+	 * @param globalScript
+	 *            global compiler script every runner is initialized with
+	 * @param globalScriptHash
+	 *            hash identifying the global script content
+	 * @param runnerFactory
+	 *            factory creating the underlying runners
+	 * @param minIdle
+	 *            runners kept initialized even when unused
+	 * @param maxSize
+	 *            maximum runners checked out at the same time
+	 * @param idleTimeout
+	 *            milliseconds a runner above minIdle may stay unused
+	 * @param borrowTimeout
+	 *            milliseconds to wait for a runner when all are checked out
+	 * @param shareRunner
+	 *            hand out one runner to all callers. Only for runners that
+	 *            can evaluate scripts concurrently.
+	 */
+	public WebResourceScriptRunnerPool(String scriptCompilerName,
+			byte[] globalScript, String globalScriptHash,
+			WebResourceScriptRunnerFactory runnerFactory, int minIdle,
+			int maxSize, long idleTimeout, long borrowTimeout,
+			boolean shareRunner) {
+		this.scriptCompilerName = scriptCompilerName;
+		this.globalScript = globalScript;
+		this.globalScriptHash = globalScriptHash;
+		this.runnerFactory = runnerFactory;
+		this.maxSize = Math.max(1, maxSize);
+		this.minIdle = Math.min(Math.max(0, minIdle), this.maxSize);
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.shareRunner = shareRunner;
+		this.permits = new Semaphore(this.maxSize, true);
+	}
+
+	/**
+	 * 
+	 * Checks out a runner. Waits up to the borrow timeout if the pool is
+	 * exhausted.
+	 * 
+	 * @return
+	 * @throws WebResourceCompileException
+	 */
+	public WebResourceScriptRunner borrow() throws WebResourceCompileException {
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new WebResourceCompileException(
+						"Timed out waiting for a script runner for "
+								+ scriptCompilerName);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WebResourceCompileException(
+					"Interrupted waiting for a script runner for "
+							+ scriptCompilerName, e);
+		}
+
+		WebResourceScriptRunner result = null;
+		try {
+			if (shareRunner) {
+				result = getSharedRunner();
+			} else {
+				IdleRunner idleRunner = idleRunners.pollFirst();
+				if (idleRunner != null) {
+					result = idleRunner.getRunner();
+				} else {
+					result = newRunner();
+				}
+			}
+		} finally {
+			if (result == null) {
+				permits.release();
+			}
+		}
+		if (shareRunner) {
+			sharedBorrowCount.incrementAndGet();
+		} else {
+			borrowedRunners.add(result);
+		}
+		borrowedCount.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * 
+	 * Hands a runner back to the pool.
+	 * 
+	 * @param runner
+	 * @return false if the runner was not checked out from this pool
+	 */
+	public boolean giveBack(WebResourceScriptRunner runner) {
+		if (shareRunner) {
+			return giveBackSharedRunner(runner);
+		}
+		if (!borrowedRunners.remove(runner)) {
+			return false;
+		}
+		returnedCount.incrementAndGet();
+		if (isAbandoned(runner)) {
+			evictedCount.incrementAndGet();
+		} else if (!closed) {
+			idleRunners.offerFirst(new IdleRunner(runner, System
+					.currentTimeMillis()));
+		}
+		permits.release();
+		return true;
+	}
+
+	private static boolean isAbandoned(WebResourceScriptRunner runner) {
+		return runner instanceof ScriptEngineWebResourceScriptRunnerImpl
+				&& ((ScriptEngineWebResourceScriptRunnerImpl) runner)
+						.isAbandoned();
+	}
+
+	private boolean giveBackSharedRunner(WebResourceScriptRunner runner) {
+		if (runner == null || runner != sharedRunner) {
+			return false;
+		}
+		int current;
+		do {
+			current = sharedBorrowCount.get();
+			if (current == 0) {
+				return false;
+			}
+		} while (!sharedBorrowCount.compareAndSet(current, current - 1));
+		returnedCount.incrementAndGet();
+		permits.release();
+		return true;
+	}
+
+	/**
+	 * 
+	 * Creates runners until minIdle runners are available.
+	 */
+	public void prefill() {
+		if (shareRunner) {
+			if (minIdle > 0 && !closed) {
+				getSharedRunner();
+			}
+			return;
+		}
+		while (!closed
+				&& idleRunners.size() + borrowedRunners.size() < minIdle) {
+			idleRunners.offerLast(new IdleRunner(newRunner(), System
+					.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * 
+	 * Drops runners that were unused for longer than the idle timeout while
+	 * keeping at least minIdle runners.
+	 */
+	public void evictIdleRunners() {
+		long now = System.currentTimeMillis();
+		while (idleRunners.size() > minIdle) {
+			IdleRunner oldest = idleRunners.pollLast();
+			if (oldest == null) {
+				break;
+			}
+			if (now - oldest.getLastUsed() < idleTimeout) {
+				idleRunners.offerLast(oldest);
+				break;
+			}
+			evictedCount.incrementAndGet();
+			log.debug("Evicted idle script runner for " + scriptCompilerName);
+		}
+	}
+
+	/**
+	 * 
+	 * Discards all idle runners. Runners still checked out are dropped when
+	 * they are returned.
+	 */
+	public void close() {
+		closed = true;
+		Iterator<IdleRunner> idleIt = idleRunners.iterator();
+		while (idleIt.hasNext()) {
+			idleIt.next();
+			idleIt.remove();
+			evictedCount.incrementAndGet();
+		}
+	}
+
+	public WebResourceScriptRunnerPoolStatistics getStatistics() {
+		WebResourceScriptRunnerPoolStatistics result = new WebResourceScriptRunnerPoolStatistics();
+		result.setScriptCompilerName(scriptCompilerName);
+		if (shareRunner) {
+			int activeCount = sharedBorrowCount.get();
+			result.setIdleCount(sharedRunner != null && activeCount == 0 ? 1
+					: 0);
+			result.setActiveCount(activeCount);
+		} else {
+			result.setIdleCount(idleRunners.size());
+			result.setActiveCount(borrowedRunners.size());
+		}
+		result.setMaxSize(maxSize);
+		result.setCreatedCount(createdCount.get());
+		result.setBorrowedCount(borrowedCount.get());
+		result.setReturnedCount(returnedCount.get());
+		result.setEvictedCount(evictedCount.get());
+		result.setTimeoutCount(timeoutCount.get());
+		return result;
+	}
+
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
+	public String getGlobalScriptHash() {
+		return globalScriptHash;
+	}
+
+	private WebResourceScriptRunner getSharedRunner() {
+		WebResourceScriptRunner result = sharedRunner;
+		if (result == null) {
+			synchronized (this) {
+				result = sharedRunner;
+				if (result == null) {
+					result = newRunner();
+					sharedRunner = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private WebResourceScriptRunner newRunner() {
+		WebResourceScriptRunner result = runnerFactory.createRunner(
+				scriptCompilerName, new ByteArrayInputStream(globalScript));
+		createdCount.incrementAndGet();
+		log.debug("Created pooled script runner for " + scriptCompilerName);
+		return result;
+	}
+
+	static class IdleRunner {
+
+		private final WebResourceScriptRunner runner;
+
+		private final long lastUsed;
+
+		IdleRunner(WebResourceScriptRunner runner, long lastUsed) {
+			this.runner = runner;
+			this.lastUsed = lastUsed;
+		}
+
+		public WebResourceScriptRunner getRunner() {
+			return runner;
+		}
+
+		public long getLastUsed() {
+			return lastUsed;
+		}
+	}
+}
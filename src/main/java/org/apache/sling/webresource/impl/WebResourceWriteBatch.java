@@ -0,0 +1,282 @@
+package org.apache.sling.webresource.impl;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.sling.webresource.model.WebResourceFingerprint;
+import org.apache.sling.webresource.util.JCRUtils;
+
+/**
+ * 
+ * Stages compiled web resources in one administrative session and saves them
+ * together, either once or every chunk of writes.
+ * 
+ * Written paths are registered in a map shared by all batches until they are
+ * saved so other threads can wait for them with
+ * {@link #awaitWrite(String)} instead of missing them in their own session.
+ * Waiting asks the batch to save at its next write or
+ * {@link #saveIfRequested()} instead of at the end of the chunk.
+ * 
+ * Actions depending on a write being persisted, like caching its path, are
+ * registered with {@link #afterSave(String, Runnable)} and dropped when the
+ * write is discarded.
+ * 
+ */
+public class WebResourceWriteBatch {
+
+	private final ResourceResolver resolver;
+
+	private final Session session;
+
+	private final int chunkSize;
+
+	private final ConcurrentMap<String, WebResourceWriteBatch> pendingWrites;
+
+	private final Set<String> pendingPaths = new HashSet<String>();
+
+	private final List<Runnable> afterSaveActions = new ArrayList<Runnable>();
+
+	private int saveCount;
+
+	private int writeCount;
+
+	private boolean closed;
+
+	private volatile boolean saveRequested;
+
+	/**
+	 * Set once a write failed part way, as saving could persist a partly
+	 * written node.
+	 */
+	private boolean writeFailed;
+
+	/**
+	 * 
+	 * @param resolver
+	 *            administrative resolver closed with the batch
+	 * @param chunkSize
+	 *            writes saved together, 0 or less to save only on
+	 *            {@link #save()}
+	 * @param pendingWrites
+	 *            unsaved paths of all batches
+	 */
+	public WebResourceWriteBatch(ResourceResolver resolver, int chunkSize,
+			ConcurrentMap<String, WebResourceWriteBatch> pendingWrites) {
+		this.resolver = resolver;
+		this.session = resolver.adaptTo(Session.class);
+		this.chunkSize = chunkSize;
+		this.pendingWrites = pendingWrites;
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	/**
+	 * 
+	 * Stages a compiled web resource and saves the batch once a chunk is
+	 * complete. Fingerprinted content is stored with its SHA-256.
+	 * 
+	 * @param destinationPath
+	 * @param content
+	 * @param fingerprint
+	 *            inputs the content was created from or null
+	 * @throws RepositoryException
+	 */
+	public void write(String destinationPath, InputStream content,
+			WebResourceFingerprint fingerprint) throws RepositoryException {
+		DigestInputStream digestContent = new DigestInputStream(content,
+				createContentDigest());
+		boolean written = false;
+		try {
+			JCRUtils.createFileContentNode(destinationPath, digestContent,
+					session);
+			if (fingerprint != null) {
+				Node compiledContent = session.getNode(destinationPath)
+						.getNode(Property.JCR_CONTENT);
+				fingerprint.writeTo(compiledContent);
+				compiledContent.setProperty(
+						WebResourceFingerprint.CONTENT_HASH,
+						Hex.encodeHexString(digestContent.getMessageDigest()
+								.digest()));
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				synchronized (this) {
+					writeFailed = true;
+				}
+			}
+		}
+		writeCount++;
+		synchronized (this) {
+			pendingPaths.add(destinationPath);
+		}
+		pendingWrites.put(destinationPath, this);
+		if ((chunkSize > 0 && getPendingCount() >= chunkSize)
+				|| saveRequested) {
+			save();
+		}
+	}
+
+	/**
+	 * 
+	 * Saves all staged writes.
+	 * 
+	 * @throws RepositoryException
+	 */
+	public void save() throws RepositoryException {
+		saveRequested = false;
+		if (getPendingCount() > 0) {
+			List<Runnable> savedActions = null;
+			try {
+				session.save();
+				saveCount++;
+				synchronized (this) {
+					savedActions = new ArrayList<Runnable>(afterSaveActions);
+				}
+			} finally {
+				releasePendingPaths();
+			}
+			for (Runnable currentAction : savedActions) {
+				currentAction.run();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Saves the writes staged so far if another thread waits for one of them.
+	 * 
+	 * @throws RepositoryException
+	 */
+	public void saveIfRequested() throws RepositoryException {
+		if (saveRequested) {
+			save();
+		}
+	}
+
+	/**
+	 * 
+	 * Saves the writes of compiles that completed, unless a write failed part
+	 * way. Used when a later compile of the batch failed.
+	 * 
+	 * @return true if nothing unsaved was left behind
+	 * @throws RepositoryException
+	 */
+	public boolean saveCompletedWrites() throws RepositoryException {
+		synchronized (this) {
+			if (writeFailed) {
+				return false;
+			}
+		}
+		save();
+		return true;
+	}
+
+	/**
+	 * 
+	 * Runs an action once a staged path is saved. The action is dropped if
+	 * the path is discarded.
+	 * 
+	 * @param path
+	 * @param action
+	 */
+	public void afterSave(String path, Runnable action) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (pendingPaths.contains(path)) {
+				afterSaveActions.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+
+	/**
+	 * 
+	 * Discards unsaved writes and closes the session.
+	 * 
+	 */
+	public void close() {
+		try {
+			if (getPendingCount() > 0 && session.isLive()) {
+				session.refresh(false);
+			}
+		} catch (RepositoryException e) {
+			// Session is closed below anyway
+		} finally {
+			synchronized (this) {
+				releasePendingPaths();
+				closed = true;
+			}
+			resolver.close();
+		}
+	}
+
+	/**
+	 * 
+	 * Waits until a path staged in this batch is saved or discarded, asking
+	 * the batch to save early.
+	 * 
+	 * @param path
+	 */
+	public synchronized void awaitWrite(String path) {
+		if (!closed && pendingPaths.contains(path)) {
+			saveRequested = true;
+		}
+		while (!closed && pendingPaths.contains(path)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingPaths.size();
+	}
+
+	public int getWriteCount() {
+		return writeCount;
+	}
+
+	public int getSaveCount() {
+		return saveCount;
+	}
+
+	private MessageDigest createContentDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private synchronized void releasePendingPaths() {
+		for (String currentPath : pendingPaths) {
+			pendingWrites.remove(currentPath, this);
+		}
+		pendingPaths.clear();
+		afterSaveActions.clear();
+		notifyAll();
+	}
+}
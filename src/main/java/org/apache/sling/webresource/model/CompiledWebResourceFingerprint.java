@@ -0,0 +1,206 @@
+package org.apache.sling.webresource.model;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+/**
+ * 
+ * Fingerprint of the inputs a web resource was compiled from. It is stored on
+ * the content node of the compiled web resource.
+ * 
+ */
+public class CompiledWebResourceFingerprint implements WebResourceFingerprint {
+
+	public static final String NODE_TYPE = "webresource:CompiledWebResource";
+
+	public static final String SOURCE_HASH = "webresource:sourceHash";
+
+	public static final String SOURCE_LAST_MODIFIED = "webresource:sourceLastModified";
+
+	public static final String OPTIONS_HASH = "webresource:optionsHash";
+
+	public static final String COMPILER_VERSION = "webresource:compilerVersion";
+
+	public static final String IMPORTS = "webresource:imports";
+
+	public static final String IMPORT_HASHES = "webresource:importHashes";
+
+	public static final String IMPORT_LAST_MODIFIED = "webresource:importLastModified";
+
+	private String sourceHash;
+
+	private Calendar sourceLastModified;
+
+	private String optionsHash;
+
+	private String compilerVersion;
+
+	private List<String> imports;
+
+	private List<String> importHashes;
+
+	private List<Calendar> importLastModified;
+
+	public CompiledWebResourceFingerprint() {
+		imports = new ArrayList<String>();
+		importHashes = new ArrayList<String>();
+		importLastModified = new ArrayList<Calendar>();
+	}
+
+	public CompiledWebResourceFingerprint(Node compiledContent)
+			throws RepositoryException {
+		this();
+
+		if (compiledContent.hasProperty(SOURCE_HASH)) {
+			this.sourceHash = compiledContent.getProperty(SOURCE_HASH)
+					.getString();
+		}
+
+		if (compiledContent.hasProperty(SOURCE_LAST_MODIFIED)) {
+			this.sourceLastModified = compiledContent.getProperty(
+					SOURCE_LAST_MODIFIED).getDate();
+		}
+
+		if (compiledContent.hasProperty(OPTIONS_HASH)) {
+			this.optionsHash = compiledContent.getProperty(OPTIONS_HASH)
+					.getString();
+		}
+
+		if (compiledContent.hasProperty(COMPILER_VERSION)) {
+			this.compilerVersion = compiledContent.getProperty(
+					COMPILER_VERSION).getString();
+		}
+
+		if (compiledContent.hasProperty(IMPORTS)) {
+			for (Value currentValue : compiledContent.getProperty(IMPORTS)
+					.getValues()) {
+				imports.add(currentValue.getString());
+			}
+		}
+
+		if (compiledContent.hasProperty(IMPORT_HASHES)) {
+			for (Value currentValue : compiledContent.getProperty(
+					IMPORT_HASHES).getValues()) {
+				importHashes.add(currentValue.getString());
+			}
+		}
+
+		if (compiledContent.hasProperty(IMPORT_LAST_MODIFIED)) {
+			for (Value currentValue : compiledContent.getProperty(
+					IMPORT_LAST_MODIFIED).getValues()) {
+				importLastModified.add(currentValue.getDate());
+			}
+		}
+	}
+
+	public void writeTo(Node compiledContent) throws RepositoryException {
+		if (!compiledContent.isNodeType(NODE_TYPE)) {
+			compiledContent.addMixin(NODE_TYPE);
+		}
+		compiledContent.setProperty(SOURCE_HASH, sourceHash);
+		compiledContent.setProperty(SOURCE_LAST_MODIFIED, sourceLastModified);
+		compiledContent.setProperty(OPTIONS_HASH, optionsHash);
+		compiledContent.setProperty(COMPILER_VERSION, compilerVersion);
+		compiledContent.setProperty(IMPORTS,
+				imports.toArray(new String[imports.size()]));
+		compiledContent.setProperty(IMPORT_HASHES,
+				importHashes.toArray(new String[importHashes.size()]));
+		Value[] importLastModifiedValues = null;
+		if (importLastModified.size() == imports.size()
+				&& !importLastModified.contains(null)) {
+			ValueFactory valueFactory = compiledContent.getSession()
+					.getValueFactory();
+			importLastModifiedValues = new Value[importLastModified.size()];
+			for (int i = 0; i < importLastModifiedValues.length; i++) {
+				importLastModifiedValues[i] = valueFactory
+						.createValue(importLastModified.get(i));
+			}
+		}
+		// Imports without dates are always hashed
+		compiledContent.setProperty(IMPORT_LAST_MODIFIED,
+				importLastModifiedValues);
+	}
+
+	public String getSourceHash() {
+		return sourceHash;
+	}
+
+	public void setSourceHash(String sourceHash) {
+		this.sourceHash = sourceHash;
+	}
+
+	public Calendar getSourceLastModified() {
+		return sourceLastModified;
+	}
+
+	public void setSourceLastModified(Calendar sourceLastModified) {
+		this.sourceLastModified = sourceLastModified;
+	}
+
+	public String getOptionsHash() {
+		return optionsHash;
+	}
+
+	public void setOptionsHash(String optionsHash) {
+		this.optionsHash = optionsHash;
+	}
+
+	public String getCompilerVersion() {
+		return compilerVersion;
+	}
+
+	public void setCompilerVersion(String compilerVersion) {
+		this.compilerVersion = compilerVersion;
+	}
+
+	/**
+	 * 
+	 * Paths of the files read while compiling.
+	 * 
+	 * @return
+	 */
+	public List<String> getImports() {
+		return imports;
+	}
+
+	public void setImports(List<String> imports) {
+		this.imports = imports;
+	}
+
+	/**
+	 * 
+	 * SHA-256 of the content of each import when it was read, in the order
+	 * of {@link #getImports()}.
+	 * 
+	 * @return
+	 */
+	public List<String> getImportHashes() {
+		return importHashes;
+	}
+
+	public void setImportHashes(List<String> importHashes) {
+		this.importHashes = importHashes;
+	}
+
+	/**
+	 * 
+	 * Modification date of each import before it was read, in the order of
+	 * {@link #getImports()}.
+	 * 
+	 * @return
+	 */
+	public List<Calendar> getImportLastModified() {
+		return importLastModified;
+	}
+
+	public void setImportLastModified(List<Calendar> importLastModified) {
+		this.importLastModified = importLastModified;
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.apache.sling.webresource.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ * 
+ * Ordered fingerprints of the compiled members a consolidated web resource
+ * was concatenated from.
+ * 
+ */
+public class ConsolidatedWebResourceFingerprint implements
+		WebResourceFingerprint {
+
+	public static final String NODE_TYPE = "webresource:ConsolidatedWebResource";
+
+	public static final String MEMBERS = "webresource:members";
+
+	private List<String> members;
+
+	public ConsolidatedWebResourceFingerprint() {
+		members = new ArrayList<String>();
+	}
+
+	public ConsolidatedWebResourceFingerprint(Node consolidatedContent)
+			throws RepositoryException {
+		this();
+
+		if (consolidatedContent.hasProperty(MEMBERS)) {
+			for (Value currentValue : consolidatedContent.getProperty(MEMBERS)
+					.getValues()) {
+				members.add(currentValue.getString());
+			}
+		}
+	}
+
+	public void writeTo(Node consolidatedContent) throws RepositoryException {
+		if (!consolidatedContent.isNodeType(NODE_TYPE)) {
+			consolidatedContent.addMixin(NODE_TYPE);
+		}
+		consolidatedContent.setProperty(MEMBERS,
+				members.toArray(new String[members.size()]));
+	}
+
+	/**
+	 * 
+	 * Fingerprints of the members in consolidation order.
+	 * 
+	 * @return
+	 */
+	public List<String> getMembers() {
+		return members;
+	}
+
+	public void setMembers(List<String> members) {
+		this.members = members;
+	}
+
+}
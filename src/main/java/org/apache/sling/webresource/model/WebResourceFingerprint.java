@@ -0,0 +1,28 @@
+package org.apache.sling.webresource.model;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Inputs a cached web resource was created from, stored on its content node
+ * to decide whether it has to be created again.
+ * 
+ */
+public interface WebResourceFingerprint {
+
+	/**
+	 * SHA-256 of the stored content, written with every fingerprint.
+	 */
+	public static final String CONTENT_HASH = "webresource:contentHash";
+
+	/**
+	 * 
+	 * Stores the fingerprint on the content node of a cached web resource.
+	 * 
+	 * @param content
+	 * @throws RepositoryException
+	 */
+	public void writeTo(Node content) throws RepositoryException;
+
+}
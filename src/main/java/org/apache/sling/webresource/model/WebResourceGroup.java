@@ -24,6 +24,8 @@ public class WebResourceGroup {
 
 	public static final String INVENTORY = "inventory";
 
+	public static final String COMPILE_OPTIONS = "compileOptions";
+
 	private String name;
 
 	private String groupPath;
@@ -61,9 +63,9 @@ public class WebResourceGroup {
 	private void createCompileOptions(Node webResourceGroup)
 			throws RepositoryException, PathNotFoundException,
 			ValueFormatException {
-		if (webResourceGroup.hasNode("compileOptions")) {
+		if (webResourceGroup.hasNode(COMPILE_OPTIONS)) {
 			Node compileOptionsNode = webResourceGroup
-					.getNode("compileOptions");
+					.getNode(COMPILE_OPTIONS);
 			NodeIterator compileOptionIt = compileOptionsNode.getNodes();
 
 			while (compileOptionIt.hasNext()) {
@@ -0,0 +1,111 @@
+package org.apache.sling.webresource.model;
+
+/**
+ * 
+ * Snapshot of the state of a script runner pool.
+ * 
+ */
+public class WebResourceScriptRunnerPoolStatistics {
+
+	private String scriptCompilerName;
+
+	private int idleCount;
+
+	private int activeCount;
+
+	private int maxSize;
+
+	private long createdCount;
+
+	private long borrowedCount;
+
+	private long returnedCount;
+
+	private long evictedCount;
+
+	private long timeoutCount;
+
+	public WebResourceScriptRunnerPoolStatistics() {
+	}
+
+	public String getScriptCompilerName() {
+		return scriptCompilerName;
+	}
+
+	public void setScriptCompilerName(String scriptCompilerName) {
+		this.scriptCompilerName = scriptCompilerName;
+	}
+
+	public int getIdleCount() {
+		return idleCount;
+	}
+
+	public void setIdleCount(int idleCount) {
+		this.idleCount = idleCount;
+	}
+
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	public void setActiveCount(int activeCount) {
+		this.activeCount = activeCount;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getCreatedCount() {
+		return createdCount;
+	}
+
+	public void setCreatedCount(long createdCount) {
+		this.createdCount = createdCount;
+	}
+
+	public long getBorrowedCount() {
+		return borrowedCount;
+	}
+
+	public void setBorrowedCount(long borrowedCount) {
+		this.borrowedCount = borrowedCount;
+	}
+
+	public long getReturnedCount() {
+		return returnedCount;
+	}
+
+	public void setReturnedCount(long returnedCount) {
+		this.returnedCount = returnedCount;
+	}
+
+	public long getEvictedCount() {
+		return evictedCount;
+	}
+
+	public void setEvictedCount(long evictedCount) {
+		this.evictedCount = evictedCount;
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	public void setTimeoutCount(long timeoutCount) {
+		this.timeoutCount = timeoutCount;
+	}
+
+	@Override
+	public String toString() {
+		return scriptCompilerName + " [idle=" + idleCount + ", active="
+				+ activeCount + ", max=" + maxSize + ", created="
+				+ createdCount + ", borrowed=" + borrowedCount
+				+ ", returned=" + returnedCount + ", evicted=" + evictedCount
+				+ ", timeouts=" + timeoutCount + "]";
+	}
+}
@@ -60,6 +60,7 @@ public class WebResourceTag extends TagSupport {
 			Session currentSession = currentNode.getSession();
 			Map<String, List<String>> webResourcePaths = null;
 			if (groupName != null) {
+				webResourceScriptCache.recordWebResourceGroupRequest(groupName);
 				webResourcePaths = webResourceScriptCache
 						.getWebResourceCachedInventoryPaths(currentSession,
 								groupName);
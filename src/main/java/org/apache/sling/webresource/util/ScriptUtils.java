@@ -1,5 +1,8 @@
 package org.apache.sling.webresource.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 import org.apache.sling.commons.json.JSONObject;
@@ -9,8 +12,11 @@ public class ScriptUtils {
 
 	/**
 	 * Transforms a java multi-line string into javascript multi-line string.
-	 * This technique was found at {@link http
-	 * ://stackoverflow.com/questions/805107/multiline-strings-in-javascript/}
+	 * Trailing new lines are dropped, carriage returns removed and a single
+	 * line gets a new line appended (otherwise cssLint fails).
+	 * 
+	 * Compilers that can should pass the source as a script variable instead,
+	 * which hands it to the engine without embedding and parsing it again.
 	 * 
 	 * @param data
 	 *            a string containing new lines.
@@ -18,30 +24,81 @@ public class ScriptUtils {
 	 *         as a correct multi-line string.
 	 */
 	public static String toJSMultiLineString(final String data) {
-		final String[] lines = data.split("\n");
-		final StringBuffer result = new StringBuffer("[");
-		if (lines.length == 0) {
-			result.append("\"\"");
+		int end = data.length();
+		while (end > 0 && data.charAt(end - 1) == '\n') {
+			end--;
 		}
-		for (int i = 0; i < lines.length; i++) {
-			final String line = lines[i];
-			result.append("\"");
-			result.append(line.replace("\\", "\\\\").replace("\"", "\\\"")
-					.replaceAll("\\r|\\n", ""));
-			// this is used to force a single line to have at least one new line
-			// (otherwise cssLint fails).
-			if (lines.length == 1) {
+		final StringBuilder result = new StringBuilder(end + end / 16 + 8);
+		result.append('"');
+		if (end > 0 || data.length() == 0) {
+			boolean multiLine = appendJSStringContent(result, data, 0, end);
+			if (!multiLine) {
 				result.append("\\n");
 			}
-			result.append("\"");
-			if (i < lines.length - 1) {
-				result.append(",");
-			}
 		}
-		result.append("].join(\"\\n\")");
+		result.append('"');
 		return result.toString();
 	}
 
+	/**
+	 * 
+	 * Appends a character sequence as a double quoted javascript string
+	 * literal in a single pass.
+	 * 
+	 * @param target
+	 * @param data
+	 */
+	public static void appendJSString(StringBuilder target, CharSequence data) {
+		target.ensureCapacity(target.length() + data.length() + 2);
+		target.append('"');
+		appendJSStringContent(target, data, 0, data.length());
+		target.append('"');
+	}
+
+	/**
+	 * 
+	 * Escapes characters for a double quoted javascript string literal.
+	 * Carriage returns are dropped.
+	 * 
+	 * @return whether the escaped range contained a new line
+	 */
+	private static boolean appendJSStringContent(StringBuilder target,
+			CharSequence data, int start, int end) {
+		boolean result = false;
+		int unescapedStart = start;
+		for (int i = start; i < end; i++) {
+			char c = data.charAt(i);
+			String replacement;
+			switch (c) {
+			case '\\':
+				replacement = "\\\\";
+				break;
+			case '"':
+				replacement = "\\\"";
+				break;
+			case '\n':
+				replacement = "\\n";
+				result = true;
+				break;
+			case '\r':
+				replacement = "";
+				break;
+			case '\u2028':
+				replacement = "\\u2028";
+				break;
+			case '\u2029':
+				replacement = "\\u2029";
+				break;
+			default:
+				continue;
+			}
+			target.append(data, unescapedStart, i).append(replacement);
+			unescapedStart = i + 1;
+		}
+		target.append(data, unescapedStart, end);
+		return result;
+	}
+
 	/**
 	 * 
 	 * Change compile options into a string
@@ -71,4 +128,41 @@ public class ScriptUtils {
 
 		return result;
 	}
+
+	/**
+	 * 
+	 * Reads a script stream fully into memory and closes it.
+	 * 
+	 * @param scriptStream
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] readScript(InputStream scriptStream)
+			throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = scriptStream.read(buffer)) != -1) {
+				result.write(buffer, 0, read);
+			}
+		} finally {
+			scriptStream.close();
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * 
+	 * Reads a script stream fully into a string using the platform encoding
+	 * and closes it.
+	 * 
+	 * @param scriptStream
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readScriptSource(InputStream scriptStream)
+			throws IOException {
+		return new String(readScript(scriptStream));
+	}
 }
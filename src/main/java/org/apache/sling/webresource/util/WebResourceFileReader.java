@@ -0,0 +1,74 @@
+package org.apache.sling.webresource.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+
+/**
+ * 
+ * Reads JCR files for compilers. Backs the readFile function of script
+ * engines that can not use the Rhino specific overrides script.
+ * 
+ */
+public class WebResourceFileReader {
+
+	public static final String WEB_RESOURCE_PROTOCOL = "webresource://";
+
+	private WebResourceInventoryManager webResourceInventoryManager;
+
+	public WebResourceFileReader(
+			WebResourceInventoryManager webResourceInventoryManager) {
+		this.webResourceInventoryManager = webResourceInventoryManager;
+	}
+
+	/**
+	 * 
+	 * Reads a file relative to the node being compiled. Paths starting with
+	 * webresource://groupName/ are resolved against the path of that web
+	 * resource group. The file is recorded as an import of the running
+	 * compile.
+	 * 
+	 * @param currentNode
+	 * @param filename
+	 * @param characterCoding
+	 *            may be null for the platform default
+	 * @return
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public String readFile(Node currentNode, String filename,
+			String characterCoding) throws RepositoryException, IOException {
+		Node fileNode = null;
+		if (filename.startsWith(WEB_RESOURCE_PROTOCOL)) {
+			String webResourceFile = filename.substring(WEB_RESOURCE_PROTOCOL
+					.length());
+			String webResourceName = webResourceFile.substring(0,
+					webResourceFile.indexOf('/'));
+			String webResourcePath = webResourceInventoryManager
+					.getWebResourcePathLookup(webResourceName);
+			fileNode = currentNode.getSession().getNode(
+					webResourcePath
+							+ webResourceFile.substring(webResourceName
+									.length()));
+		} else {
+			fileNode = currentNode.getNode(filename);
+		}
+
+		// Read first so a change while reading is found by its date
+		Calendar lastModified = JCRUtils.getJcrModifiedDate(fileNode);
+		InputStream fileStream = JCRUtils.getFileNodeAsStream(fileNode);
+		byte[] content = ScriptUtils.readScript(fileStream);
+		WebResourceImportRecorder.recordImport(fileNode, lastModified,
+				content);
+
+		Charset charset = characterCoding == null ? Charset.defaultCharset()
+				: Charset.forName(characterCoding);
+		return new String(content, charset.name());
+	}
+}
@@ -0,0 +1,116 @@
+package org.apache.sling.webresource.util;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * 
+ * Records the files read by compilers of the current thread, so the imports
+ * of a compile can be stored with its result.
+ * 
+ */
+public class WebResourceImportRecorder {
+
+	/**
+	 * 
+	 * A file read by a compile.
+	 * 
+	 */
+	public static class RecordedImport {
+
+		private final String hash;
+
+		private final Calendar lastModified;
+
+		public RecordedImport(String hash, Calendar lastModified) {
+			this.hash = hash;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * 
+		 * SHA-256 of the content that was read.
+		 * 
+		 * @return
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * 
+		 * Modification date of the file before it was read.
+		 * 
+		 * @return
+		 */
+		public Calendar getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private static final ThreadLocal<Map<String, RecordedImport>> currentImports = new ThreadLocal<Map<String, RecordedImport>>();
+
+	private WebResourceImportRecorder() {
+	}
+
+	/**
+	 * 
+	 * Starts recording the imports of a compile on the current thread.
+	 * 
+	 * @return the recording of an enclosing compile, to be handed to
+	 *         {@link #endRecording(Map)}
+	 */
+	public static Map<String, RecordedImport> beginRecording() {
+		Map<String, RecordedImport> enclosingImports = currentImports.get();
+		currentImports.set(new LinkedHashMap<String, RecordedImport>());
+		return enclosingImports;
+	}
+
+	/**
+	 * 
+	 * Ends the recording of the current thread.
+	 * 
+	 * @param enclosingImports
+	 *            returned by {@link #beginRecording()}
+	 * @return paths read since the recording began with what was read
+	 */
+	public static Map<String, RecordedImport> endRecording(
+			Map<String, RecordedImport> enclosingImports) {
+		Map<String, RecordedImport> result = currentImports.get();
+		if (enclosingImports != null) {
+			currentImports.set(enclosingImports);
+		} else {
+			currentImports.remove();
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * Records a file read while a recording is active. The content is hashed
+	 * as read, so a later change is found whatever modification date it
+	 * carries. The modification date lets checks skip hashing files that were
+	 * not touched since.
+	 * 
+	 * @param fileNode
+	 * @param lastModified
+	 *            modification date read before the content
+	 * @param content
+	 *            content read from the file
+	 * @throws RepositoryException
+	 */
+	public static void recordImport(Node fileNode, Calendar lastModified,
+			byte[] content) throws RepositoryException {
+		Map<String, RecordedImport> imports = currentImports.get();
+		if (imports != null) {
+			imports.put(fileNode.getPath(), new RecordedImport(
+					DigestUtils.sha256Hex(content), lastModified));
+		}
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ * Overrides to enable system to use sling functionality for: 
+ * File Reads
+ * 
+ * Engine neutral version of webresource-overrides.js for JSR-223 script
+ * engines. File access is delegated to the webResourceFileReader binding.
+ * 
+ */
+
+if (typeof String.prototype.startsWith != 'function') {
+	  String.prototype.startsWith = function (str){
+	    return this.slice(0, str.length) == str;
+	  };
+	}
+
+/**
+ * Overriding default readFile.
+ * Reads a JCR File
+ * 
+ * @param filename
+ */
+function readFile(filename, characterCoding)
+{
+	return String(webResourceFileReader.readFile(currentNode, String(filename),
+			characterCoding ? String(characterCoding) : null));
+}
@@ -20,32 +20,12 @@ if (typeof String.prototype.startsWith != 'function') {
 
 /**
  * Overriding default Rhino readFile.
- * Reads a JCR File
+ * Reads a JCR File and records it as import of the running compile.
  * 
  * @param filename
  */
 function readFile(filename, characterCoding)
 {
-	if(!characterCoding)
-	{
-		characterCoding = Charset.defaultCharset();
-	}
-	var fileNode = null;
-	if(filename.startsWith('webresource://'))
-	{
-		//Implement Web Resource stuff here.
-		filename = filename.replace('webresource://', '');
-		webResourceName = filename.slice(0, filename.indexOf('/'));
-		var webResourcePath = webResourceInventoryManager.getWebResourcePathLookup(webResourceName);
-		filename = filename.replace(webResourceName, webResourcePath);
-		fileNode = currentNode.getSession().getNode(filename);
-	}
-	else
-	{
-		fileNode = currentNode.getNode(filename);
-	}
-	
-	var inputStream = JCRUtils.getFileNodeAsStream(fileNode);
-	
-	return String(IOUtils.toString(inputStream, characterCoding));
+	return String(webResourceFileReader.readFile(currentNode, String(filename),
+			characterCoding ? String(characterCoding) : null));
 }
\ No newline at end of file
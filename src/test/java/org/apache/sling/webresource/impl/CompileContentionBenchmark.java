@@ -0,0 +1,176 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Compares the synchronized compile lock map the script cache used before
+ * with the single flight group on many threads requesting few paths. Not part
+ * of the regular test run, start it with -Dtest=CompileContentionBenchmark.
+ * 
+ * Every request runs a simulated freshness check against the repository and
+ * compiles when the path is not there yet. Compiled paths are dropped
+ * regularly to cause compiles while other threads keep requesting them.
+ * 
+ */
+public class CompileContentionBenchmark {
+
+	private static final int THREADS = Integer.getInteger(
+			"webresource.benchmark.threads", 32);
+
+	private static final int REQUESTS_PER_THREAD = 20000;
+
+	private static final int PATHS = 16;
+
+	private static final int INVALIDATE_EVERY = 5000;
+
+	private static final long CHECK_NANOS = 20000;
+
+	private static final long COMPILE_NANOS = 2000000;
+
+	interface CompileGuard {
+		String compile(String path, Callable<String> compile)
+				throws Exception;
+	}
+
+	/**
+	 * The lock map formerly used by WebResourceScriptCacheImpl.
+	 */
+	static class LockMapCompileGuard implements CompileGuard {
+
+		private final Map<String, ReentrantLock> compileLockMap = new HashMap<String, ReentrantLock>();
+
+		public String compile(String path, Callable<String> compile)
+				throws Exception {
+			aquireLock(path);
+			try {
+				return compile.call();
+			} finally {
+				releaseLock(path);
+			}
+		}
+
+		private ReentrantLock aquireLock(String path) {
+			ReentrantLock pathLock;
+			synchronized (this) {
+				pathLock = compileLockMap.get(path);
+				if (pathLock == null) {
+					pathLock = new ReentrantLock();
+					compileLockMap.put(path, pathLock);
+					pathLock.lock();
+				}
+			}
+			if (!pathLock.isHeldByCurrentThread()) {
+				pathLock.lock();
+				pathLock = aquireLock(path);
+			}
+			return pathLock;
+		}
+
+		private void releaseLock(String path) {
+			synchronized (this) {
+				ReentrantLock pathLock = compileLockMap.get(path);
+				if (pathLock != null) {
+					pathLock.unlock();
+					if (!pathLock.hasQueuedThreads()) {
+						compileLockMap.remove(path);
+					}
+				}
+			}
+		}
+	}
+
+	static class SingleFlightCompileGuard implements CompileGuard {
+
+		private final SingleFlightGroup<String> compileFlights = new SingleFlightGroup<String>();
+
+		public String compile(String path, Callable<String> compile)
+				throws Exception {
+			return compileFlights.execute(path, compile);
+		}
+	}
+
+	@Test
+	public void benchmarkCompileContention() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			runWorkload(new LockMapCompileGuard());
+			runWorkload(new SingleFlightCompileGuard());
+		}
+		report("Lock map", runWorkload(new LockMapCompileGuard()));
+		report("Single flight", runWorkload(new SingleFlightCompileGuard()));
+	}
+
+	private void report(String name, long[] result) {
+		System.out.println(name + ": " + THREADS + " threads, "
+				+ (THREADS * REQUESTS_PER_THREAD) + " requests in "
+				+ (result[0] / 1000000) + " ms, " + result[1] + " compiles");
+	}
+
+	/**
+	 * 
+	 * @return elapsed nanoseconds and number of compiles
+	 */
+	private long[] runWorkload(final CompileGuard compileGuard)
+			throws Exception {
+		final ConcurrentHashMap<String, String> repository = new ConcurrentHashMap<String, String>();
+		final AtomicInteger compileCount = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+
+		for (int t = 0; t < THREADS; t++) {
+			final int threadNumber = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+							final String path = "/var/webresource/script"
+									+ ((i + threadNumber) % PATHS) + ".js";
+							if (threadNumber == 0 && i % INVALIDATE_EVERY == 0) {
+								repository.clear();
+							}
+							compileGuard.compile(path, new Callable<String>() {
+								public String call() throws Exception {
+									spin(CHECK_NANOS);
+									String compiled = repository.get(path);
+									if (compiled == null) {
+										compileCount.incrementAndGet();
+										spin(COMPILE_NANOS);
+										compiled = path;
+										repository.put(path, compiled);
+									}
+									return compiled;
+								}
+							});
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		return new long[] { System.nanoTime() - startTime, compileCount.get() };
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+public class CompileEventCoalescerTest {
+
+	private EventAdmin mockEventAdmin;
+
+	private Capture<Event> postedEvents;
+
+	@Before
+	public void setUp() throws Exception {
+		mockEventAdmin = createMock(EventAdmin.class);
+		postedEvents = new Capture<Event>(CaptureType.ALL);
+		mockEventAdmin.postEvent(capture(postedEvents));
+		expectLastCall().anyTimes();
+		replay(mockEventAdmin);
+	}
+
+	@Test
+	public void testRequestsOfQuietPeriodAreMerged() throws Exception {
+		CompileEventCoalescer coalescer = new CompileEventCoalescer(
+				mockEventAdmin, 100, 1000, null);
+		for (int i = 0; i < 500; i++) {
+			coalescer.request("/apps/group", i);
+		}
+		coalescer.request("/apps/other", 560);
+
+		assertEquals("Nothing is due while changes arrive", 599,
+				coalescer.flushDue(549));
+		assertFalse(postedEvents.hasCaptured());
+
+		assertEquals("Only the other group is pending", 660,
+				coalescer.flushDue(599));
+		assertEquals(1, postedEvents.getValues().size());
+		Event compileEvent = postedEvents.getValue();
+		assertEquals(WebResourceInventoryManager.COMPILE_EVENT,
+				compileEvent.getTopic());
+		assertEquals(Collections.singletonList("/apps/group"),
+				compileEvent.getProperty("paths"));
+
+		assertEquals(-1, coalescer.flushDue(660));
+		assertEquals(2, coalescer.getEventCount());
+		assertEquals(501, coalescer.getRequestCount());
+	}
+
+	@Test
+	public void testMaxDelay() throws Exception {
+		CompileEventCoalescer coalescer = new CompileEventCoalescer(
+				mockEventAdmin, 100, 300, null);
+		for (int i = 0; i <= 300; i += 50) {
+			coalescer.request("/apps/group", i);
+		}
+
+		coalescer.flushDue(300);
+
+		assertEquals("Continuous changes should be compiled after max delay",
+				1, postedEvents.getValues().size());
+		assertEquals(0, coalescer.getPendingCount());
+	}
+
+	@Test
+	public void testWithoutQuietPeriod() throws Exception {
+		CompileEventCoalescer coalescer = new CompileEventCoalescer(
+				mockEventAdmin, 0, 0, null);
+		coalescer.request("/apps/group", 0);
+		coalescer.request("/apps/group", 0);
+
+		assertEquals(2, postedEvents.getValues().size());
+		assertEquals(Arrays.asList("/apps/group"), postedEvents.getValues()
+				.get(1).getProperty("paths"));
+	}
+
+	@Test
+	public void testFlushAll() throws Exception {
+		CompileEventCoalescer coalescer = new CompileEventCoalescer(
+				mockEventAdmin, 100, 1000, null);
+		coalescer.request("/apps/group");
+		coalescer.request("/apps/other");
+
+		coalescer.flushAll();
+
+		assertEquals(1, postedEvents.getValues().size());
+		assertEquals(Arrays.asList("/apps/group", "/apps/other"),
+				postedEvents.getValue().getProperty("paths"));
+	}
+}
@@ -0,0 +1,161 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledWebResourceCacheTest {
+
+	private CompiledWebResourceCache compiledWebResourceCache;
+
+	@Before
+	public void setUp() throws Exception {
+		compiledWebResourceCache = new CompiledWebResourceCache(1024 * 1024);
+	}
+
+	@Test
+	public void testGetCompiledPath() throws Exception {
+		compiledWebResourceCache.put("/apps/group/test.coffee", "group",
+				"/var/webresource/groups/test.js",
+				compiledWebResourceCache.getGeneration());
+
+		assertEquals("Compiled path should be cached",
+				"/var/webresource/groups/test.js",
+				compiledWebResourceCache.getCompiledPath(
+						"/apps/group/test.coffee", "group"));
+		assertNull("Other group should miss",
+				compiledWebResourceCache.getCompiledPath(
+						"/apps/group/test.coffee", null));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedByWeight() throws Exception {
+		CompiledWebResourceCache smallCache = new CompiledWebResourceCache(500);
+		smallCache.put("/apps/a.coffee", null, "/var/a.js", 0);
+		smallCache.put("/apps/b.coffee", null, "/var/b.js", 0);
+		smallCache.getCompiledPath("/apps/a.coffee", null);
+		smallCache.put("/apps/c.coffee", null, "/var/c.js", 0);
+
+		assertTrue("Cache should stay within its weight",
+				smallCache.getTotalBytes() <= 500);
+		assertNull("Least recently used entry should be evicted",
+				smallCache.getCompiledPath("/apps/b.coffee", null));
+		assertNotNull("Recently used entry should be kept",
+				smallCache.getCompiledPath("/apps/a.coffee", null));
+	}
+
+	@Test
+	public void testInvalidateSourceChange() throws Exception {
+		compiledWebResourceCache.put("/apps/group/test.coffee", null,
+				"/var/test.js", 0);
+		compiledWebResourceCache.put("/apps/group/other.coffee", null,
+				"/var/other.js", 0);
+
+		compiledWebResourceCache.invalidate(
+				"/apps/group/test.coffee/jcr:content", false);
+
+		assertNull("Changed source should be dropped",
+				compiledWebResourceCache.getCompiledPath(
+						"/apps/group/test.coffee", null));
+		assertNotNull("Unrelated source should be kept",
+				compiledWebResourceCache.getCompiledPath(
+						"/apps/group/other.coffee", null));
+
+		compiledWebResourceCache.invalidate("/apps/group", false);
+
+		assertNull("Sources below a changed group should be dropped",
+				compiledWebResourceCache.getCompiledPath(
+						"/apps/group/other.coffee", null));
+	}
+
+	@Test
+	public void testInvalidateAfterEviction() throws Exception {
+		CompiledWebResourceCache smallCache = new CompiledWebResourceCache(500);
+		smallCache.put("/apps/a.coffee", null, "/var/a.js", 0);
+		smallCache.put("/apps/b.coffee", null, "/var/b.js", 0);
+		smallCache.put("/apps/c.coffee", null, "/var/c.js", 0);
+		smallCache.put("/apps/a.coffee", null, "/var/a.js",
+				smallCache.getGeneration());
+
+		smallCache.invalidate("/apps/a.coffee", false);
+
+		assertNull("Entry cached again should be invalidated",
+				smallCache.getCompiledPath("/apps/a.coffee", null));
+		assertEquals("Entry should be invalidated once", 1,
+				smallCache.getInvalidationCount());
+
+		smallCache.invalidate("/", false);
+
+		assertEquals("Sources below the root should be dropped", 0,
+				smallCache.size());
+		assertEquals(0, smallCache.getTotalBytes());
+	}
+
+	@Test
+	public void testInvalidateCompiledNode() throws Exception {
+		compiledWebResourceCache.put("/apps/test.coffee", null,
+				"/var/test.js", 0);
+
+		compiledWebResourceCache.invalidate("/var/test.js/jcr:content", false);
+		compiledWebResourceCache.invalidate("/var/test.js", false);
+
+		assertNotNull("Compiled node writes should not invalidate",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						null));
+
+		compiledWebResourceCache.invalidate("/var", true);
+
+		assertNull("Removed compiled node should be dropped",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						null));
+	}
+
+	@Test
+	public void testPutSkippedAfterConcurrentInvalidation() throws Exception {
+		long generation = compiledWebResourceCache.getGeneration();
+		compiledWebResourceCache.invalidate("/apps/test.coffee", false);
+		compiledWebResourceCache.invalidate("/apps/unrelated.coffee", false);
+
+		compiledWebResourceCache.put("/apps/test.coffee", null,
+				"/var/test.js", generation);
+		compiledWebResourceCache.put("/apps/other.coffee", null,
+				"/var/other.js", generation);
+
+		assertNull("Result loaded before a change should not be cached",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						null));
+		assertNotNull("Unaffected result should be cached",
+				compiledWebResourceCache.getCompiledPath("/apps/other.coffee",
+						null));
+	}
+
+	@Test
+	public void testInvalidateGroup() throws Exception {
+		long generation = compiledWebResourceCache.getGeneration();
+		compiledWebResourceCache.put("/apps/test.coffee", "group",
+				"/var/group/test.js", generation);
+		compiledWebResourceCache.put("/apps/test.coffee", "other",
+				"/var/other/test.js", generation);
+		compiledWebResourceCache.put("/apps/test.coffee", null,
+				"/var/test.js", generation);
+
+		compiledWebResourceCache.invalidateGroup("group");
+
+		assertNull("Entry of the group should be invalidated",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						"group"));
+		assertNotNull("Entry of another group should be kept",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						"other"));
+		assertNotNull("Entry outside of groups should be kept",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						null));
+
+		compiledWebResourceCache.put("/apps/test.coffee", "group",
+				"/var/group/test.js", generation);
+		assertNull("Result loaded before the group changed should not be cached",
+				compiledWebResourceCache.getCompiledPath("/apps/test.coffee",
+						"group"));
+	}
+}
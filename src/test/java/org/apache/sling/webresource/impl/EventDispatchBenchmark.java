@@ -0,0 +1,107 @@
+package org.apache.sling.webresource.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * 
+ * Compares routing resource events to web resource groups through one path
+ * filter per group, as EventAdmin did for the former per group inventory
+ * handlers, with the single path trie dispatcher. Not part of the regular
+ * test run, start it with -Dtest=EventDispatchBenchmark.
+ * 
+ * Most events of a content heavy instance are outside of any group, so the
+ * events are mostly content paths with every tenth below a group.
+ * 
+ */
+public class EventDispatchBenchmark {
+
+	private static final int[] GROUP_COUNTS = { 10, 100, 800 };
+
+	private static final int EVENTS = 50000;
+
+	private static final int ROUNDS = 3;
+
+	@Test
+	public void testEventDispatch() throws Exception {
+		for (int groupCount : GROUP_COUNTS) {
+			List<Filter> filters = new ArrayList<Filter>();
+			PathTrie<String> pathTrie = new PathTrie<String>();
+			for (int i = 0; i < groupCount; i++) {
+				String groupPath = "/apps/site" + i + "/webresources";
+				filters.add(FrameworkUtil.createFilter("(path=" + groupPath
+						+ "/*)"));
+				pathTrie.put(groupPath, "group" + i);
+			}
+			List<Dictionary<String, Object>> events = createEvents(groupCount);
+
+			long filterNanos = Long.MAX_VALUE;
+			long trieNanos = Long.MAX_VALUE;
+			int filterMatches = 0;
+			int trieMatches = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				filterMatches = dispatchThroughFilters(filters, events);
+				filterNanos = Math.min(filterNanos, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				trieMatches = dispatchThroughTrie(pathTrie, events);
+				trieNanos = Math.min(trieNanos, System.nanoTime() - start);
+			}
+			if (filterMatches != trieMatches) {
+				throw new IllegalStateException("Dispatchers disagree: "
+						+ filterMatches + " != " + trieMatches);
+			}
+
+			System.out.println(groupCount + " groups: filters "
+					+ (filterNanos / EVENTS) + " ns/event, trie "
+					+ (trieNanos / EVENTS) + " ns/event");
+		}
+	}
+
+	private List<Dictionary<String, Object>> createEvents(int groupCount) {
+		List<Dictionary<String, Object>> events = new ArrayList<Dictionary<String, Object>>();
+		for (int i = 0; i < EVENTS; i++) {
+			Dictionary<String, Object> properties = new Hashtable<String, Object>();
+			if (i % 10 == 0) {
+				properties.put("path", "/apps/site" + (i % groupCount)
+						+ "/webresources/js/file" + i + ".coffee");
+			} else {
+				properties.put("path", "/content/site" + (i % groupCount)
+						+ "/page" + i + "/jcr:content/par/text");
+			}
+			events.add(properties);
+		}
+		return events;
+	}
+
+	private int dispatchThroughFilters(List<Filter> filters,
+			List<Dictionary<String, Object>> events) {
+		int matches = 0;
+		for (Dictionary<String, Object> currentEvent : events) {
+			for (Filter currentFilter : filters) {
+				if (currentFilter.match(currentEvent)) {
+					matches++;
+				}
+			}
+		}
+		return matches;
+	}
+
+	private int dispatchThroughTrie(PathTrie<String> pathTrie,
+			List<Dictionary<String, Object>> events) {
+		int matches = 0;
+		for (Dictionary<String, Object> currentEvent : events) {
+			if (pathTrie.getNearestAncestor((String) currentEvent.get("path")) != null) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,64 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathTrieTest {
+
+	private PathTrie<String> pathTrie;
+
+	@Before
+	public void setUp() throws Exception {
+		pathTrie = new PathTrie<String>();
+	}
+
+	@Test
+	public void testNearestAncestor() throws Exception {
+		pathTrie.put("/apps/site", "site");
+		pathTrie.put("/apps/site/nested", "nested");
+
+		assertEquals("site", pathTrie.getNearestAncestor("/apps/site/a.coffee"));
+		assertEquals("Nearest group should win", "nested",
+				pathTrie.getNearestAncestor("/apps/site/nested/js/a.coffee"));
+		assertEquals("Group path itself is not below the group", "site",
+				pathTrie.getNearestAncestor("/apps/site/nested"));
+		assertNull(pathTrie.getNearestAncestor("/apps/site"));
+		assertNull("Sibling with common prefix should not match",
+				pathTrie.getNearestAncestor("/apps/sitemap/a.coffee"));
+		assertEquals("nested", pathTrie.get("/apps/site/nested"));
+		assertEquals(2, pathTrie.size());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		pathTrie.put("/apps/site", "site");
+		pathTrie.put("/apps/site/nested", "nested");
+
+		assertEquals("nested", pathTrie.remove("/apps/site/nested"));
+		assertNull(pathTrie.remove("/apps/site/nested"));
+		assertEquals("site",
+				pathTrie.getNearestAncestor("/apps/site/nested/a.coffee"));
+
+		assertEquals("site", pathTrie.remove("/apps/site"));
+		assertNull(pathTrie.getNearestAncestor("/apps/site/a.coffee"));
+		assertEquals(0, pathTrie.size());
+	}
+
+	@Test
+	public void testContainsAtOrBelow() throws Exception {
+		pathTrie.put("/apps/site/nested", "nested");
+
+		assertTrue(pathTrie.containsAtOrBelow("/apps/site/nested"));
+		assertTrue(pathTrie.containsAtOrBelow("/apps"));
+		assertTrue(pathTrie.containsAtOrBelow("/"));
+		assertFalse(pathTrie.containsAtOrBelow("/apps/site/nested/a.coffee"));
+		assertFalse("Sibling with common prefix should not match",
+				pathTrie.containsAtOrBelow("/apps/sit"));
+
+		pathTrie.remove("/apps/site/nested");
+		assertFalse("Removed paths should be pruned",
+				pathTrie.containsAtOrBelow("/apps"));
+	}
+}
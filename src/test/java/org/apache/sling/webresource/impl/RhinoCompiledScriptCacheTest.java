@@ -0,0 +1,106 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+public class RhinoCompiledScriptCacheTest {
+	private RhinoCompiledScriptCache compiledScriptCache;
+
+	private Context rhinoContext;
+
+	@Before
+	public void setUp() throws Exception {
+		compiledScriptCache = new RhinoCompiledScriptCache(1);
+		rhinoContext = Context.enter();
+		rhinoContext.setOptimizationLevel(-1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Context.exit();
+	}
+
+	@Test
+	public void testGetScriptParsesOnce() throws Exception {
+		Script first = compiledScriptCache.getScript(rhinoContext, "first",
+				"'a' + 'b'");
+		Script second = compiledScriptCache.getScript(rhinoContext, "second",
+				"'a' + 'b'");
+
+		assertSame("Same source should reuse parsed script", first, second);
+		assertEquals("One miss expected", 1, compiledScriptCache.getMissCount());
+		assertEquals("One hit expected", 1, compiledScriptCache.getHitCount());
+
+		Scriptable scope = rhinoContext.initStandardObjects();
+		assertEquals("Parsed script should execute", "ab",
+				Context.toString(second.exec(rhinoContext, scope)));
+	}
+
+	@Test
+	public void testGetScriptEvictsLeastRecentlyUsed() throws Exception {
+		compiledScriptCache.getScript(rhinoContext, "first", "1");
+		compiledScriptCache.getScript(rhinoContext, "second", "2");
+		compiledScriptCache.getScript(rhinoContext, "first", "1");
+
+		assertEquals("Cache should be bounded", 1, compiledScriptCache.size());
+		assertEquals("Evicted script should be parsed again", 3,
+				compiledScriptCache.getMissCount());
+	}
+
+	@Test
+	public void testGetScriptFallsBackToInterpreter() throws Exception {
+		StringBuffer hugeFunction = new StringBuffer(
+				"(function() { var a = 0;");
+		for (int i = 0; i < 20000; i++) {
+			hugeFunction.append("a = a + ").append(i).append(";\n");
+		}
+		hugeFunction.append("return a; })()");
+
+		rhinoContext.setOptimizationLevel(9);
+		Script result = compiledScriptCache.getScript(rhinoContext, "huge",
+				hugeFunction.toString());
+
+		assertEquals("Script should fall back to interpreted mode", 1,
+				compiledScriptCache.getFallbackCount());
+		assertEquals("Optimization level should be restored", 9,
+				rhinoContext.getOptimizationLevel());
+
+		Scriptable scope = rhinoContext.initStandardObjects();
+		assertEquals("Interpreted script should execute", 199990000,
+				Context.toNumber(result.exec(rhinoContext, scope)), 0);
+	}
+
+	@Test
+	public void testGetScriptSyntaxErrorNotInterpreted() throws Exception {
+		rhinoContext.setOptimizationLevel(9);
+		try {
+			compiledScriptCache.getScript(rhinoContext, "broken",
+					"var a = ;");
+			fail("Syntax error should be thrown");
+		} catch (EvaluatorException e) {
+			assertEquals("Syntax error should not fall back", 0,
+					compiledScriptCache.getFallbackCount());
+		}
+	}
+
+	@Test
+	public void testGetScriptCompiledMode() throws Exception {
+		rhinoContext.setOptimizationLevel(9);
+		Script result = compiledScriptCache.getScript(rhinoContext, "small",
+				"'a' + 'b'");
+
+		assertEquals("Small script should compile to bytecode", 0,
+				compiledScriptCache.getFallbackCount());
+
+		Scriptable scope = rhinoContext.initStandardObjects();
+		assertEquals("Compiled script should execute", "ab",
+				Context.toString(result.exec(rhinoContext, scope)));
+	}
+}
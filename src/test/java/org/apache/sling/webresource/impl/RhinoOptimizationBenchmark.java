@@ -0,0 +1,138 @@
+package org.apache.sling.webresource.impl;
+
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.apache.sling.webresource.util.ScriptUtils;
+import org.junit.Test;
+
+/**
+ * 
+ * Compares interpreted and bytecode compiled Rhino runners on the same
+ * compile workload. Not part of the regular test run, start it with
+ * -Dtest=RhinoOptimizationBenchmark.
+ * 
+ * By default a small tokenizing compiler written in JavaScript is used. A real
+ * compiler library can be benchmarked by setting
+ * webresource.benchmark.compilerScript to the library file,
+ * webresource.benchmark.compileScript to the invocation script (the source is
+ * bound to the variable "source") and webresource.benchmark.source to the file
+ * to compile.
+ * 
+ */
+public class RhinoOptimizationBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int ITERATIONS = 20;
+
+	static final String BENCHMARK_COMPILER_SCRIPT = "var BenchmarkCompiler = {\n"
+			+ "  isIdentifier: function(c) {\n"
+			+ "    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$' || (c >= '0' && c <= '9');\n"
+			+ "  },\n"
+			+ "  tokenize: function(source) {\n"
+			+ "    var tokens = [];\n"
+			+ "    var i = 0;\n"
+			+ "    while (i < source.length) {\n"
+			+ "      var c = source.charAt(i);\n"
+			+ "      var start = i;\n"
+			+ "      if (this.isIdentifier(c)) {\n"
+			+ "        while (i < source.length && this.isIdentifier(source.charAt(i))) { i++; }\n"
+			+ "      } else if (c == ' ' || c == '\\t' || c == '\\n') {\n"
+			+ "        while (i < source.length && (source.charAt(i) == ' ' || source.charAt(i) == '\\t' || source.charAt(i) == '\\n')) { i++; }\n"
+			+ "        tokens.push({ type: 'ws', value: ' ' });\n"
+			+ "        continue;\n"
+			+ "      } else {\n"
+			+ "        i++;\n"
+			+ "      }\n"
+			+ "      tokens.push({ type: 'token', value: source.substring(start, i) });\n"
+			+ "    }\n"
+			+ "    return tokens;\n"
+			+ "  },\n"
+			+ "  compile: function(source) {\n"
+			+ "    var tokens = this.tokenize(source);\n"
+			+ "    var out = [];\n"
+			+ "    for (var i = 0; i < tokens.length; i++) {\n"
+			+ "      var token = tokens[i];\n"
+			+ "      if (token.value == '->') { out.push('function() '); }\n"
+			+ "      else { out.push(token.value); }\n"
+			+ "    }\n"
+			+ "    return out.join('');\n"
+			+ "  }\n"
+			+ "};\n";
+
+	static final String BENCHMARK_COMPILE_SCRIPT = "BenchmarkCompiler.compile(String(source));";
+
+	@Test
+	public void benchmarkOptimizationLevels() throws Exception {
+		byte[] compilerScript = getCompilerScript();
+		String source = getSource();
+
+		long interpreted = runWorkload(RhinoRunnerOptions.INTERPRETED,
+				compilerScript, source);
+		long compiled = runWorkload(9, compilerScript, source);
+
+		System.out.println("Rhino interpreted: " + interpreted
+				+ " ms per compile");
+		System.out.println("Rhino optimization level 9: " + compiled
+				+ " ms per compile");
+	}
+
+	private long runWorkload(int optimizationLevel, byte[] compilerScript,
+			String source) throws Exception {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setOptimizationLevel(optimizationLevel);
+
+		WebResourceScriptRunner runner = new RhinoWebResourceScriptRunnerImpl(
+				"benchmark", new ByteArrayInputStream(compilerScript),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+
+		byte[] compileScript = System.getProperty(
+				"webresource.benchmark.compileScript",
+				BENCHMARK_COMPILE_SCRIPT).getBytes();
+		Map<String, Object> scriptVariables = new HashMap<String, Object>();
+		scriptVariables.put("source", source);
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			runner.evaluateScript(new ByteArrayInputStream(compileScript),
+					scriptVariables);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			runner.evaluateScript(new ByteArrayInputStream(compileScript),
+					scriptVariables);
+		}
+		return (System.nanoTime() - start) / ITERATIONS / 1000000;
+	}
+
+	static byte[] getCompilerScript() throws Exception {
+		String compilerScriptPath = System
+				.getProperty("webresource.benchmark.compilerScript");
+		if (compilerScriptPath != null) {
+			return ScriptUtils.readScript(new FileInputStream(
+					compilerScriptPath));
+		}
+		return BENCHMARK_COMPILER_SCRIPT.getBytes();
+	}
+
+	static String getSource() throws Exception {
+		String sourcePath = System.getProperty("webresource.benchmark.source");
+		if (sourcePath != null) {
+			return ScriptUtils.readScriptSource(new FileInputStream(sourcePath));
+		}
+		StringBuffer result = new StringBuffer();
+		for (int i = 0; i < 2000; i++) {
+			result.append("square").append(i).append(" = (x) -> x * x + ")
+					.append(i).append("\n");
+		}
+		return result.toString();
+	}
+}
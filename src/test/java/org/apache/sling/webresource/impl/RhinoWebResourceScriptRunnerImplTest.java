@@ -0,0 +1,284 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.exception.WebResourceScriptException;
+import org.apache.sling.webresource.exception.WebResourceScriptLimitException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+
+public class RhinoWebResourceScriptRunnerImplTest {
+	private RhinoWebResourceScriptRunnerImpl scriptRunner;
+
+	@Before
+	public void setUp() throws Exception {
+		scriptRunner = new RhinoWebResourceScriptRunnerImpl("test",
+				new ByteArrayInputStream(
+						"function shout(value) { return value.toUpperCase(); }"
+								.getBytes()),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl());
+	}
+
+	@Test
+	public void testEvaluateScript() throws Exception {
+		Map<String, Object> scriptVariables = new HashMap<String, Object>();
+		scriptVariables.put("source", "coffee");
+
+		String result = scriptRunner.evaluateScript(new ByteArrayInputStream(
+				"String(shout(String(source)))".getBytes()), scriptVariables);
+
+		assertEquals("Global script function should be used", "COFFEE",
+				result);
+		assertNull("Context should be released from the thread",
+				Context.getCurrentContext());
+	}
+
+	@Test
+	public void testEvaluateScriptWithStringSource() throws Exception {
+		Map<String, Object> scriptVariables = new HashMap<String, Object>();
+		scriptVariables.put("source", new StringBuilder("coffee"));
+
+		String result = scriptRunner.evaluateScript(new ByteArrayInputStream(
+				"var out = typeof source; for (var i = 0; i < 500; i++) { out += shout(source); } out"
+						.getBytes()), scriptVariables);
+
+		assertTrue("Source should be a script string",
+				result.startsWith("stringCOFFEE"));
+		assertEquals("Concatenated result should be returned", 6 + 500 * 6,
+				result.length());
+	}
+
+	@Test
+	public void testEvaluateScriptReusesActiveContext() throws Exception {
+		Context outerContext = Context.enter();
+		try {
+			scriptRunner.evaluateScript(
+					new ByteArrayInputStream("'a'".getBytes()), null);
+
+			assertSame("Active context should be kept", outerContext,
+					Context.getCurrentContext());
+		} finally {
+			Context.exit();
+		}
+		assertNull("Context should be released from the thread",
+				Context.getCurrentContext());
+	}
+
+	@Test
+	public void testSealedRootScopeAdditions() throws Exception {
+		RhinoWebResourceScriptRunnerImpl sealedRunner = createSealedRunner();
+
+		sealedRunner.evaluateScriptInRootConext("added",
+				new ByteArrayInputStream(
+						"function whisper(value) { return value.toLowerCase(); }"
+								.getBytes()));
+
+		String result = sealedRunner.evaluateScript(new ByteArrayInputStream(
+				"String(whisper(shout('Coffee')))".getBytes()), null);
+
+		assertEquals("Root scope additions should be visible", "coffee",
+				result);
+	}
+
+	@Test(expected = EvaluatorException.class)
+	public void testSealedRootScopeRejectsStandardObjectChanges()
+			throws Exception {
+		RhinoWebResourceScriptRunnerImpl sealedRunner = createSealedRunner();
+
+		sealedRunner.evaluateScript(new ByteArrayInputStream(
+				"String.prototype.shout = function() {}; ''".getBytes()), null);
+	}
+
+	@Test(expected = EvaluatorException.class)
+	public void testSealedRootScopeRejectsLibraryObjectChanges()
+			throws Exception {
+		RhinoWebResourceScriptRunnerImpl sealedRunner = createSealedRunner();
+		sealedRunner.evaluateScriptInRootConext("library",
+				new ByteArrayInputStream("var library = { cache: {} };"
+						.getBytes()));
+
+		sealedRunner.evaluateScript(new ByteArrayInputStream(
+				"library.cache.coffee = 'COFFEE'; ''".getBytes()), null);
+	}
+
+	@Test(expected = EvaluatorException.class)
+	public void testSealedRootScopeRejectsModuleStateChanges()
+			throws Exception {
+		RhinoWebResourceScriptRunnerImpl sealedRunner = createSealedRunner();
+		sealedRunner.evaluateScriptInRootConext("library",
+				new ByteArrayInputStream(
+						"var count = (function() { var calls = 0; return function() { return ++calls; }; })();"
+								.getBytes()));
+
+		sealedRunner.evaluateScript(new ByteArrayInputStream("String(count())"
+				.getBytes()), null);
+	}
+
+	@Test
+	public void testRootScopeSnapshotRestored() throws Exception {
+		RhinoScopeSnapshotStore snapshotStore = new RhinoScopeSnapshotStore(
+				createSnapshotDirectory());
+
+		createSnapshotRunner(snapshotStore);
+		assertEquals("Snapshot should be written", 1,
+				countSnapshots(snapshotStore));
+
+		RhinoWebResourceScriptRunnerImpl restoredRunner = createSnapshotRunner(snapshotStore);
+		String result = restoredRunner.evaluateScript(new ByteArrayInputStream(
+				"String(Compiler.compile('coffee') + 'x'.twice())".getBytes()),
+				null);
+
+		assertEquals("Restored globals should be usable", "COFFEE1xx", result);
+	}
+
+	@Test
+	public void testUnreadableRootScopeSnapshotDiscarded() throws Exception {
+		RhinoScopeSnapshotStore snapshotStore = new RhinoScopeSnapshotStore(
+				createSnapshotDirectory());
+		createSnapshotRunner(snapshotStore);
+		for (File currentFile : snapshotStore.getSnapshotDirectory()
+				.listFiles()) {
+			FileOutputStream out = new FileOutputStream(currentFile);
+			out.write("broken".getBytes());
+			out.close();
+		}
+
+		RhinoWebResourceScriptRunnerImpl runner = createSnapshotRunner(snapshotStore);
+		String result = runner.evaluateScript(new ByteArrayInputStream(
+				"String(Compiler.compile('coffee'))".getBytes()), null);
+
+		assertEquals("Global script should be evaluated again", "COFFEE1",
+				result);
+	}
+
+	@Test
+	public void testInstructionLimit() throws Exception {
+		RhinoWebResourceScriptRunnerImpl limitedRunner = createLimitedRunner(
+				100000, 0, 0);
+		try {
+			limitedRunner.evaluateScript(new ByteArrayInputStream(
+					"try { while (true) {} } catch (e) {} 'done'".getBytes()),
+					null);
+			fail("Instruction limit should stop the script");
+		} catch (WebResourceScriptException e) {
+			WebResourceScriptLimitException limitException = (WebResourceScriptLimitException) e
+					.getCompileException();
+			assertEquals("Instruction limit should be reported",
+					WebResourceScriptLimitException.LIMIT_INSTRUCTIONS,
+					limitException.getLimit());
+			assertTrue("Executed instructions should be reported",
+					limitException.getInstructionCount() > 100000);
+		}
+		assertNull("Context should be released from the thread",
+				Context.getCurrentContext());
+
+		assertEquals("Runner should stay usable", "COFFEE",
+				limitedRunner.evaluateScript(new ByteArrayInputStream(
+						"String(shout('coffee'))".getBytes()), null));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		RhinoWebResourceScriptRunnerImpl limitedRunner = createLimitedRunner(0,
+				50, 0);
+		try {
+			limitedRunner.evaluateScript(
+					new ByteArrayInputStream("while (true) {}".getBytes()),
+					null);
+			fail("Timeout should stop the script");
+		} catch (WebResourceScriptException e) {
+			WebResourceScriptLimitException limitException = (WebResourceScriptLimitException) e
+					.getCompileException();
+			assertEquals("Timeout should be reported",
+					WebResourceScriptLimitException.LIMIT_TIMEOUT,
+					limitException.getLimit());
+			assertTrue("Elapsed time should be reported",
+					limitException.getElapsedTime() >= 50);
+		}
+	}
+
+	@Test
+	public void testOutputSizeLimit() throws Exception {
+		RhinoWebResourceScriptRunnerImpl limitedRunner = createLimitedRunner(0,
+				0, 3);
+		try {
+			limitedRunner.evaluateScript(new ByteArrayInputStream(
+					"String(shout('coffee'))".getBytes()), null);
+			fail("Output size limit should reject the result");
+		} catch (WebResourceScriptException e) {
+			WebResourceScriptLimitException limitException = (WebResourceScriptLimitException) e
+					.getCompileException();
+			assertEquals("Output size limit should be reported",
+					WebResourceScriptLimitException.LIMIT_OUTPUT_SIZE,
+					limitException.getLimit());
+			assertEquals("Output size should be reported", 6,
+					limitException.getOutputSize());
+		}
+	}
+
+	private RhinoWebResourceScriptRunnerImpl createLimitedRunner(
+			long maxInstructions, long evaluationTimeout, int maxOutputSize) {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setMaxInstructions(maxInstructions);
+		runnerOptions.setEvaluationTimeout(evaluationTimeout);
+		runnerOptions.setMaxOutputSize(maxOutputSize);
+		return new RhinoWebResourceScriptRunnerImpl("test",
+				new ByteArrayInputStream(
+						"function shout(value) { return value.toUpperCase(); }"
+								.getBytes()),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+	}
+
+	private RhinoWebResourceScriptRunnerImpl createSnapshotRunner(
+			RhinoScopeSnapshotStore snapshotStore) {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setScopeSnapshotStore(snapshotStore);
+		return new RhinoWebResourceScriptRunnerImpl(
+				"test",
+				new ByteArrayInputStream(
+						("var counter = 1;"
+								+ "var Compiler = { compile: function(value) { return value.toUpperCase() + counter; } };"
+								+ "String.prototype.twice = function() { return this + this; };")
+								.getBytes()),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+	}
+
+	private File createSnapshotDirectory() throws Exception {
+		File result = File.createTempFile("snapshots", "");
+		result.delete();
+		result.mkdirs();
+		result.deleteOnExit();
+		return result;
+	}
+
+	private int countSnapshots(RhinoScopeSnapshotStore snapshotStore) {
+		return snapshotStore.getSnapshotDirectory().list().length;
+	}
+
+	private RhinoWebResourceScriptRunnerImpl createSealedRunner() {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setSealedRootScope(true);
+		return new RhinoWebResourceScriptRunnerImpl("test",
+				new ByteArrayInputStream(
+						"function shout(value) { return value.toUpperCase(); }"
+								.getBytes()),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+	}
+}
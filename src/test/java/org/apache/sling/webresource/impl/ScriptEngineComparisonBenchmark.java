@@ -0,0 +1,93 @@
+package org.apache.sling.webresource.impl;
+
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.junit.Test;
+
+/**
+ * 
+ * Runs the compile workload of {@link RhinoOptimizationBenchmark} on every
+ * available engine: embedded Rhino in both modes and the JSR-223 engines
+ * Nashorn and GraalJS when they are on the classpath. Not part of the regular
+ * test run, start it with -Dtest=ScriptEngineComparisonBenchmark.
+ * 
+ */
+public class ScriptEngineComparisonBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int ITERATIONS = 20;
+
+	private static final String[] SCRIPT_ENGINE_NAMES = { "graal.js",
+			"nashorn" };
+
+	@Test
+	public void benchmarkEngines() throws Exception {
+		byte[] compilerScript = RhinoOptimizationBenchmark.getCompilerScript();
+		String source = RhinoOptimizationBenchmark.getSource();
+
+		System.out.println("Rhino interpreted: "
+				+ runWorkload(createRhinoRunner(
+						RhinoRunnerOptions.INTERPRETED, compilerScript), source)
+				+ " ms per compile");
+		System.out.println("Rhino optimization level 9: "
+				+ runWorkload(createRhinoRunner(9, compilerScript), source)
+				+ " ms per compile");
+
+		ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
+		for (String currentEngineName : SCRIPT_ENGINE_NAMES) {
+			ScriptEngine scriptEngine = scriptEngineManager
+					.getEngineByName(currentEngineName);
+			if (scriptEngine == null) {
+				System.out.println(currentEngineName + ": not available");
+			} else {
+				WebResourceScriptRunner runner = new ScriptEngineWebResourceScriptRunnerImpl(
+						"benchmark", new ByteArrayInputStream(compilerScript),
+						scriptEngine,
+						createNiceMock(WebResourceInventoryManager.class));
+				System.out.println(currentEngineName + ": "
+						+ runWorkload(runner, source) + " ms per compile");
+			}
+		}
+	}
+
+	private WebResourceScriptRunner createRhinoRunner(int optimizationLevel,
+			byte[] compilerScript) {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setOptimizationLevel(optimizationLevel);
+		return new RhinoWebResourceScriptRunnerImpl("benchmark",
+				new ByteArrayInputStream(compilerScript),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+	}
+
+	private long runWorkload(WebResourceScriptRunner runner, String source)
+			throws Exception {
+		byte[] compileScript = System.getProperty(
+				"webresource.benchmark.compileScript",
+				RhinoOptimizationBenchmark.BENCHMARK_COMPILE_SCRIPT).getBytes();
+		Map<String, Object> scriptVariables = new HashMap<String, Object>();
+		scriptVariables.put("source", source);
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			runner.evaluateScript(new ByteArrayInputStream(compileScript),
+					scriptVariables);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			runner.evaluateScript(new ByteArrayInputStream(compileScript),
+					scriptVariables);
+		}
+		return (System.nanoTime() - start) / ITERATIONS / 1000000;
+	}
+}
@@ -0,0 +1,177 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.exception.WebResourceScriptException;
+import org.apache.sling.webresource.exception.WebResourceScriptLimitException;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptEngineWebResourceScriptRunnerImplTest {
+
+	private ScriptEngine mockScriptEngine;
+
+	@Before
+	public void setUp() throws Exception {
+		mockScriptEngine = createNiceMock(ScriptEngine.class);
+	}
+
+	@Test
+	public void testScriptErrorIsCompileException() throws Exception {
+		// Engine overrides and global script load, then the compile fails
+		expect(mockScriptEngine.eval(anyObject(String.class))).andReturn(null)
+				.times(2);
+		expect(
+				mockScriptEngine.eval(anyObject(String.class),
+						anyObject(ScriptContext.class))).andThrow(new ScriptException("broken"));
+		replay(mockScriptEngine);
+
+		ScriptEngineWebResourceScriptRunnerImpl runner = createRunner(0, 0);
+		try {
+			runner.evaluateScript(
+					new ByteArrayInputStream("broken(".getBytes()), null);
+			fail("Script error should fail the evaluation");
+		} catch (WebResourceScriptException e) {
+			WebResourceCompileException compileException = e
+					.getCompileException();
+			assertTrue("Script error should be the cause",
+					compileException.getCause() instanceof ScriptException);
+		}
+	}
+
+	@Test
+	public void testOutputSizeLimit() throws Exception {
+		expect(mockScriptEngine.eval(anyObject(String.class))).andReturn(null)
+				.times(2);
+		expect(
+				mockScriptEngine.eval(anyObject(String.class),
+						anyObject(ScriptContext.class))).andReturn("COFFEE");
+		replay(mockScriptEngine);
+
+		ScriptEngineWebResourceScriptRunnerImpl runner = createRunner(3, 0);
+		try {
+			runner.evaluateScript(new ByteArrayInputStream(
+					"shout('coffee')".getBytes()), null);
+			fail("Output size limit should reject the result");
+		} catch (WebResourceScriptException e) {
+			WebResourceScriptLimitException limitException = (WebResourceScriptLimitException) e
+					.getCompileException();
+			assertEquals("Output size limit should be reported",
+					WebResourceScriptLimitException.LIMIT_OUTPUT_SIZE,
+					limitException.getLimit());
+			assertEquals("Output size should be reported", 6,
+					limitException.getOutputSize());
+		}
+	}
+
+	@Test
+	public void testTimeoutAbandonsRunner() throws Exception {
+		expect(mockScriptEngine.eval(anyObject(String.class))).andReturn(null)
+				.times(2);
+		expect(
+				mockScriptEngine.eval(anyObject(String.class),
+						anyObject(ScriptContext.class))).andAnswer(new IAnswer<Object>() {
+					public Object answer() throws Throwable {
+						Thread.sleep(10000);
+						return "late";
+					}
+				});
+		replay(mockScriptEngine);
+
+		ScriptEngineWebResourceScriptRunnerImpl runner = createRunner(0, 50);
+		try {
+			runner.evaluateScript(new ByteArrayInputStream(
+					"while (true) {}".getBytes()), null);
+			fail("Timeout should stop waiting for the evaluation");
+		} catch (WebResourceScriptException e) {
+			WebResourceScriptLimitException limitException = (WebResourceScriptLimitException) e
+					.getCompileException();
+			assertEquals("Timeout should be reported",
+					WebResourceScriptLimitException.LIMIT_TIMEOUT,
+					limitException.getLimit());
+		}
+		assertTrue("Runner should be abandoned", runner.isAbandoned());
+		try {
+			runner.evaluateScript(new ByteArrayInputStream("1".getBytes()),
+					null);
+			fail("Abandoned runner should not evaluate again");
+		} catch (WebResourceScriptException e) {
+			assertFalse(e.getCompileException() instanceof WebResourceScriptLimitException);
+		}
+	}
+
+	@Test
+	public void testEvaluationWithinTimeout() throws Exception {
+		expect(mockScriptEngine.eval(anyObject(String.class))).andReturn(null)
+				.times(2);
+		expect(
+				mockScriptEngine.eval(anyObject(String.class),
+						anyObject(ScriptContext.class))).andReturn("COFFEE");
+		replay(mockScriptEngine);
+
+		ScriptEngineWebResourceScriptRunnerImpl runner = createRunner(0, 5000);
+		assertEquals("COFFEE", runner.evaluateScript(new ByteArrayInputStream(
+				"shout('coffee')".getBytes()), null));
+		assertFalse(runner.isAbandoned());
+	}
+
+	@Test
+	public void testVariablesBoundPerEvaluation() throws Exception {
+		final Bindings engineBindings = new SimpleBindings();
+		engineBindings.put("less", "library");
+		expect(mockScriptEngine.getBindings(ScriptContext.ENGINE_SCOPE))
+				.andReturn(engineBindings).anyTimes();
+		expect(mockScriptEngine.eval(anyObject(String.class))).andReturn(null)
+				.times(2);
+		expect(
+				mockScriptEngine.eval(anyObject(String.class),
+						anyObject(ScriptContext.class))).andAnswer(
+				new IAnswer<Object>() {
+					public Object answer() throws Throwable {
+						ScriptContext scriptContext = (ScriptContext) getCurrentArguments()[1];
+						assertSame("Engine scope should be the global scope",
+								engineBindings, scriptContext
+										.getBindings(ScriptContext.GLOBAL_SCOPE));
+						Bindings variableBindings = scriptContext
+								.getBindings(ScriptContext.ENGINE_SCOPE);
+						assertNotSame(engineBindings, variableBindings);
+						variableBindings.put("leaked", "value");
+						return variableBindings.get("input");
+					}
+				});
+		replay(mockScriptEngine);
+
+		ScriptEngineWebResourceScriptRunnerImpl runner = createRunner(0, 0);
+		assertEquals("source", runner.evaluateScript(new ByteArrayInputStream(
+				"input".getBytes()), Collections.<String, Object> singletonMap(
+				"input", "source")));
+		assertEquals("Globals should be kept", "library",
+				engineBindings.get("less"));
+		assertFalse("Variables should not reach the engine scope",
+				engineBindings.containsKey("input"));
+		assertFalse("Script globals should not reach the engine scope",
+				engineBindings.containsKey("leaked"));
+	}
+
+	private ScriptEngineWebResourceScriptRunnerImpl createRunner(
+			int maxOutputSize, long evaluationTimeout) {
+		return new ScriptEngineWebResourceScriptRunnerImpl("test",
+				new ByteArrayInputStream("var loaded = true;".getBytes()),
+				mockScriptEngine,
+				createNiceMock(WebResourceInventoryManager.class), null,
+				maxOutputSize, evaluationTimeout);
+	}
+}
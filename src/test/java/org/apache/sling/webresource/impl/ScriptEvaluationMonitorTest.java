@@ -0,0 +1,92 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptEvaluationMonitorTest {
+
+	private ScriptEvaluationMonitor evaluationMonitor;
+
+	@Before
+	public void setUp() throws Exception {
+		evaluationMonitor = new ScriptEvaluationMonitor(true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		evaluationMonitor.close();
+	}
+
+	@Test
+	public void testEvaluationRecorded() throws Exception {
+		RhinoRunnerOptions runnerOptions = new RhinoRunnerOptions();
+		runnerOptions.setCompiledScriptCache(new RhinoCompiledScriptCache(16));
+		runnerOptions.setEvaluationMonitor(evaluationMonitor);
+		RhinoWebResourceScriptRunnerImpl runner = new RhinoWebResourceScriptRunnerImpl(
+				"monitored", new ByteArrayInputStream(new byte[0]),
+				createNiceMock(WebResourceInventoryManager.class),
+				new WebResourceScriptCacheImpl(), runnerOptions);
+
+		runner.evaluateScript(new ByteArrayInputStream(
+				"var total = 0; for (var i = 0; i < 100000; i++) { total += i; } String(total)"
+						.getBytes()), null);
+
+		ScriptEvaluationStatistics statistics = evaluationMonitor
+				.getStatistics("monitored");
+		assertEquals("Evaluation should be counted", 1,
+				statistics.getEvaluationCount());
+		assertEquals("Output size should be recorded", 10,
+				statistics.getOutputCharacters());
+		assertTrue("Instructions should be counted",
+				statistics.getInstructionCount() > 0);
+		assertEquals("Execute time should be in the histogram", 1,
+				countHistogram(statistics.getExecuteTimeHistogram()));
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = ScriptEvaluationMonitor
+				.getObjectName("monitored");
+		assertEquals("Statistics should be published", 1L,
+				mbeanServer.getAttribute(objectName, "EvaluationCount"));
+
+		evaluationMonitor.close();
+		assertFalse("MBean should be unregistered",
+				mbeanServer.isRegistered(objectName));
+	}
+
+	@Test
+	public void testLatencyHistogramPercentiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals("Empty histogram has no percentile", -1,
+				histogram.getPercentile(50));
+
+		for (int i = 0; i < 9; i++) {
+			histogram.record(3000000);
+		}
+		histogram.record(700000000);
+
+		assertEquals("Median should fall into the 5ms bucket", 5,
+				histogram.getPercentile(50));
+		assertEquals("Maximum should fall into the 1s bucket", 1000,
+				histogram.getPercentile(100));
+	}
+
+	private long countHistogram(String[] buckets) {
+		long result = 0;
+		for (String currentBucket : buckets) {
+			result += Long.parseLong(currentBucket.substring(currentBucket
+					.indexOf(": ") + 2));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,142 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightGroupTest {
+
+	private SingleFlightGroup<String> singleFlightGroup;
+
+	private ExecutorService executorService;
+
+	@Before
+	public void setUp() throws Exception {
+		singleFlightGroup = new SingleFlightGroup<String>();
+		executorService = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentCallersShareFlight() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> compile = new Callable<String>() {
+			public String call() throws Exception {
+				callCount.incrementAndGet();
+				started.countDown();
+				release.await();
+				return "/var/test.js";
+			}
+		};
+
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		results.add(executorService.submit(createCaller("/var/test.js",
+				compile)));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++) {
+			results.add(executorService.submit(createCaller("/var/test.js",
+					compile)));
+		}
+		Thread.sleep(100);
+		release.countDown();
+
+		for (Future<String> currentResult : results) {
+			assertEquals("Callers should share the result", "/var/test.js",
+					currentResult.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals("Only one call should run", 1, callCount.get());
+		assertEquals("Finished flight should be removed", 0,
+				singleFlightGroup.getFlightCount());
+	}
+
+	@Test
+	public void testOtherKeysDoNotWait() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Future<String> blocked = executorService.submit(createCaller(
+				"/var/slow.js", new Callable<String>() {
+					public String call() throws Exception {
+						release.await();
+						return "slow";
+					}
+				}));
+
+		Future<String> other = executorService.submit(createCaller(
+				"/var/fast.js", new Callable<String>() {
+					public String call() throws Exception {
+						return "fast";
+					}
+				}));
+
+		assertEquals("Other key should not wait", "fast",
+				other.get(5, TimeUnit.SECONDS));
+		release.countDown();
+		assertEquals("slow", blocked.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testNestedCallForSameKey() throws Exception {
+		String result = singleFlightGroup.execute("/var/test.js",
+				new Callable<String>() {
+					public String call() throws Exception {
+						return singleFlightGroup.execute("/var/test.js",
+								new Callable<String>() {
+									public String call() throws Exception {
+										return "nested";
+									}
+								});
+					}
+				});
+
+		assertEquals("Nested call should run directly", "nested", result);
+	}
+
+	@Test
+	public void testFailureIsReportedAndForgotten() throws Exception {
+		try {
+			singleFlightGroup.execute("/var/test.js", new Callable<String>() {
+				public String call() throws Exception {
+					throw new IllegalStateException("broken");
+				}
+			});
+			fail("Failure should be reported");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals("Failed flight should not be reused", "fixed",
+				singleFlightGroup.execute("/var/test.js",
+						new Callable<String>() {
+							public String call() throws Exception {
+								return "fixed";
+							}
+						}));
+	}
+
+	private Callable<String> createCaller(final String key,
+			final Callable<String> callable) {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				return singleFlightGroup.execute(key, callable);
+			}
+		};
+	}
+}
@@ -0,0 +1,89 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.sling.webresource.impl.WebResourceDependencyIndex.Dependent;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebResourceDependencyIndexTest {
+
+	private WebResourceDependencyIndex dependencyIndex;
+
+	@Before
+	public void setUp() throws Exception {
+		dependencyIndex = new WebResourceDependencyIndex();
+	}
+
+	@Test
+	public void testTransitiveDependentsAcrossGroups() throws Exception {
+		dependencyIndex.setImports("/apps/site/main.less", "site",
+				Arrays.asList("/apps/site/_theme.less"));
+		dependencyIndex.setImports("/apps/site/_theme.less", "site",
+				Arrays.asList("/apps/shared/_colors.less"));
+		dependencyIndex.setImports("/apps/admin/admin.less", "admin",
+				Arrays.asList("/apps/shared/_colors.less"));
+		dependencyIndex.setImports("/apps/site/other.less", "site",
+				Arrays.asList("/apps/site/_unrelated.less"));
+
+		Set<Dependent> result = dependencyIndex
+				.getTransitiveDependents("/apps/shared/_colors.less");
+
+		assertEquals("Direct and transitive dependents should be found", 3,
+				result.size());
+		assertTrue(result.contains(new Dependent("/apps/site/main.less",
+				"site")));
+		assertTrue(result.contains(new Dependent("/apps/site/_theme.less",
+				"site")));
+		assertTrue(result.contains(new Dependent("/apps/admin/admin.less",
+				"admin")));
+	}
+
+	@Test
+	public void testDependentsOfFolder() throws Exception {
+		dependencyIndex.setImports("/apps/site/main.less", "site",
+				Arrays.asList("/apps/shared/mixins/_grid.less"));
+		dependencyIndex.setImports("/apps/site/print.less", "site",
+				Arrays.asList("/apps/shared-print/_print.less"));
+
+		Set<Dependent> result = dependencyIndex
+				.getTransitiveDependents("/apps/shared");
+
+		assertEquals("Only imports below the folder should match",
+				Collections.singleton(new Dependent("/apps/site/main.less",
+						"site")), result);
+	}
+
+	@Test
+	public void testSetImportsReplacesImports() throws Exception {
+		dependencyIndex.setImports("/apps/site/main.less", "site",
+				Arrays.asList("/apps/site/_old.less"));
+		dependencyIndex.setImports("/apps/site/main.less", "site",
+				Arrays.asList("/apps/site/_new.less"));
+
+		assertTrue("Former imports should be forgotten", dependencyIndex
+				.getTransitiveDependents("/apps/site/_old.less").isEmpty());
+		assertEquals(1,
+				dependencyIndex.getTransitiveDependents("/apps/site/_new.less")
+						.size());
+	}
+
+	@Test
+	public void testRemoveSources() throws Exception {
+		dependencyIndex.setImports("/apps/site/main.less", "site",
+				Arrays.asList("/apps/site/_theme.less"));
+		dependencyIndex.setImports("/apps/site/main.less", null,
+				Arrays.asList("/apps/site/_theme.less"));
+
+		dependencyIndex.removeSources("/apps/site/main.less");
+
+		assertEquals("Sources of all groups should be removed", 0,
+				dependencyIndex.size());
+		assertTrue(dependencyIndex.getTransitiveDependents(
+				"/apps/site/_theme.less").isEmpty());
+	}
+}
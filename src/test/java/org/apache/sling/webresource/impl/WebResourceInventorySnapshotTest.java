@@ -0,0 +1,49 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WebResourceInventorySnapshotTest {
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		WebResourceInventory webResourceInventory = new WebResourceInventory();
+		webResourceInventory.replaceGroup("group", Arrays.asList(
+				"/apps/group/a.coffee", "/apps/group/b.less",
+				"/apps/group/c.coffee"));
+		Map<String, String> webResourceNamePathMap = new LinkedHashMap<String, String>();
+		webResourceNamePathMap.put("group", "/apps/group");
+		webResourceNamePathMap.put("empty", "/apps/empty");
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WebResourceInventorySnapshot.create(1234L, webResourceNamePathMap,
+				webResourceInventory).write(output);
+		WebResourceInventorySnapshot snapshot = WebResourceInventorySnapshot
+				.read(new ByteArrayInputStream(output.toByteArray()));
+
+		assertEquals(1234L, snapshot.getChangeMarker());
+		assertEquals(webResourceNamePathMap,
+				snapshot.getWebResourceGroupPaths());
+		assertEquals(Arrays.asList("/apps/group/a.coffee",
+				"/apps/group/c.coffee", "/apps/group/b.less"),
+				snapshot.getSources("group"));
+		assertTrue(snapshot.getSources("empty").isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadRejectsOtherFormat() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new DataOutputStream(output).writeInt(99);
+		WebResourceInventorySnapshot.read(new ByteArrayInputStream(output
+				.toByteArray()));
+	}
+}
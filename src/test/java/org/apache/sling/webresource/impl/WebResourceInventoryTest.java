@@ -0,0 +1,98 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebResourceInventoryTest {
+
+	private WebResourceInventory webResourceInventory;
+
+	@Before
+	public void setUp() throws Exception {
+		webResourceInventory = new WebResourceInventory();
+	}
+
+	@Test
+	public void testAddIgnoresDuplicates() throws Exception {
+		webResourceInventory.add("group", "/apps/group/a.coffee");
+		webResourceInventory.add("group", "/apps/group/a.coffee");
+		webResourceInventory.add("group", "/apps/group/b.less");
+
+		Map<String, List<String>> inventory = webResourceInventory
+				.getInventory("group");
+		assertEquals(Collections.singletonList("/apps/group/a.coffee"),
+				inventory.get("coffee"));
+		assertEquals(Collections.singletonList("/apps/group/b.less"),
+				inventory.get("less"));
+		assertEquals("group",
+				webResourceInventory
+						.getWebResourceGroupName("/apps/group/b.less"));
+	}
+
+	@Test
+	public void testSnapshotsAreNotModified() throws Exception {
+		webResourceInventory.add("group", "/apps/group/a.coffee");
+		Map<String, List<String>> snapshot = webResourceInventory
+				.getInventory("group");
+
+		webResourceInventory.add("group", "/apps/group/b.coffee");
+		webResourceInventory.remove("/apps/group/a.coffee");
+
+		assertEquals(Collections.singletonList("/apps/group/a.coffee"),
+				snapshot.get("coffee"));
+		assertEquals(Collections.singletonList("/apps/group/b.coffee"),
+				webResourceInventory.getInventory("group").get("coffee"));
+		try {
+			snapshot.get("coffee").add("/apps/group/c.coffee");
+			fail("Snapshots should be read only");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRemoveUsesReverseIndex() throws Exception {
+		webResourceInventory.add("first", "/apps/first/a.coffee");
+		webResourceInventory.add("second", "/apps/second/a.coffee");
+
+		assertEquals("second",
+				webResourceInventory.remove("/apps/second/a.coffee"));
+		assertNull("Unknown paths should not be found",
+				webResourceInventory.remove("/apps/second/a.coffee"));
+		assertEquals(Collections.singletonList("/apps/first/a.coffee"),
+				webResourceInventory.getInventory("first").get("coffee"));
+		assertTrue(webResourceInventory.getInventory("second").get("coffee")
+				.isEmpty());
+	}
+
+	@Test
+	public void testReplaceGroup() throws Exception {
+		webResourceInventory.add("group", "/apps/group/old.coffee");
+		webResourceInventory.add("other", "/apps/group/moved.coffee");
+
+		webResourceInventory.replaceGroup("group", Arrays.asList(
+				"/apps/group/new.coffee", "/apps/group/moved.coffee",
+				"/apps/group/new.coffee"));
+
+		assertEquals(Arrays.asList("/apps/group/new.coffee",
+				"/apps/group/moved.coffee"), webResourceInventory
+				.getInventory("group").get("coffee"));
+		assertNull(webResourceInventory
+				.getWebResourceGroupName("/apps/group/old.coffee"));
+		assertTrue(webResourceInventory.getInventory("other").get("coffee")
+				.isEmpty());
+
+		webResourceInventory.removeGroup("group");
+
+		assertTrue(webResourceInventory.getInventory("group").isEmpty());
+		assertNull(webResourceInventory
+				.getWebResourceGroupName("/apps/group/new.coffee"));
+	}
+}
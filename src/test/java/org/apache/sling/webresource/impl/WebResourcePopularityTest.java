@@ -0,0 +1,86 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebResourcePopularityTest {
+
+	private WebResourcePopularity popularity;
+
+	@Before
+	public void setUp() throws Exception {
+		popularity = new WebResourcePopularity();
+	}
+
+	@Test
+	public void testMostRequestedFirst() throws Exception {
+		popularity.recordGroupRequest("rare");
+		popularity.recordGroupRequest("common");
+		popularity.recordGroupRequest("common");
+		popularity.recordResourceRequest("/apps/b.coffee");
+		popularity.recordResourceRequest("/apps/a.coffee");
+
+		assertEquals(Arrays.asList("common", "rare"),
+				popularity.getGroupsByPopularity());
+		assertEquals("Equal counts should be ordered by path",
+				Arrays.asList("/apps/a.coffee", "/apps/b.coffee"),
+				popularity.getResourcesByPopularity());
+	}
+
+	@Test
+	public void testStoreAndLoad() throws Exception {
+		popularity.recordGroupRequest("group.with.dots");
+		popularity.recordGroupRequest("group.with.dots");
+		popularity.recordGroupRequest("once");
+		for (int i = 0; i < 4; i++) {
+			popularity.recordResourceRequest("/apps/a b.coffee");
+		}
+		assertTrue(popularity.isModified());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		popularity.store(output);
+		assertFalse("Stored counts should not be modified",
+				popularity.isModified());
+
+		WebResourcePopularity loadedPopularity = new WebResourcePopularity();
+		loadedPopularity.recordResourceRequest("/apps/a b.coffee");
+		loadedPopularity.load(new ByteArrayInputStream(output.toByteArray()));
+
+		assertEquals("Loaded counts should be halved", 1,
+				loadedPopularity.getGroupCount("group.with.dots"));
+		assertEquals("Counts halved to 0 should be dropped",
+				Arrays.asList("group.with.dots"),
+				loadedPopularity.getGroupsByPopularity());
+		assertEquals("Loaded counts should be added", 3,
+				loadedPopularity.getResourceCount("/apps/a b.coffee"));
+	}
+
+	@Test
+	public void testLeastRequestedTrimmed() throws Exception {
+		popularity = new WebResourcePopularity(2);
+		popularity.recordResourceRequest("/apps/common.coffee");
+		popularity.recordResourceRequest("/apps/common.coffee");
+		popularity.recordResourceRequest("/apps/frequent.coffee");
+		popularity.recordResourceRequest("/apps/frequent.coffee");
+		for (int i = 0; i < 3; i++) {
+			popularity.recordResourceRequest("/apps/rare" + i + ".coffee");
+		}
+
+		assertEquals("Only the most requested should be counted",
+				Arrays.asList("/apps/common.coffee", "/apps/frequent.coffee"),
+				popularity.getResourcesByPopularity());
+
+		popularity.recordResourceRequest("/apps/rare.coffee");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		popularity.store(output);
+		assertEquals("Only the most requested should be stored",
+				Arrays.asList("/apps/common.coffee", "/apps/frequent.coffee"),
+				popularity.getResourcesByPopularity());
+	}
+}
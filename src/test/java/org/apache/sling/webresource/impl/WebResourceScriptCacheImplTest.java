@@ -3,15 +3,45 @@ package org.apache.sling.webresource.impl;
 import static org.junit.Assert.*;
 import static org.easymock.EasyMock.*;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
-
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.webresource.WebResourceInventoryManager;
 import org.apache.sling.webresource.WebResourceScriptCompiler;
+import org.apache.sling.webresource.WebResourceScriptCompilerProvider;
+import org.apache.sling.webresource.model.CompiledWebResourceFingerprint;
+import org.apache.sling.webresource.model.ConsolidatedWebResourceFingerprint;
+import org.apache.sling.webresource.model.WebResourceFingerprint;
 import org.apache.sling.webresource.model.WebResourceGroup;
 import org.junit.Before;
 import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.Value;
 
 public class WebResourceScriptCacheImplTest {
 	private WebResourceScriptCacheImpl webResourceScriptCache;
@@ -182,4 +212,675 @@ public class WebResourceScriptCacheImplTest {
 
 	}
 
+	@Test
+	public void testIsCacheFreshFingerprintSameModifiedDate() throws Exception {
+		Calendar sourceLastModified = Calendar.getInstance();
+		Node mockSourceNode = createSourceNode("a = 1", sourceLastModified);
+		Node mockCacheNode = createCacheNode("unread", sourceLastModified,
+				webResourceScriptCache.createOptionsHash(webResourceScriptCache
+						.createCompileOptions(mockSourceNode, null)),
+				webResourceScriptCache.getCompilerVersion(mockScriptCompiler));
+
+		assertTrue("Unchanged source should not be hashed",
+				webResourceScriptCache.isCacheFresh(mockCacheNode,
+						mockSourceNode, null, mockScriptCompiler));
+	}
+
+	@Test
+	public void testIsCacheFreshFingerprintTouchedSource() throws Exception {
+		Calendar compiledLastModified = Calendar.getInstance();
+		Calendar sourceLastModified = Calendar.getInstance();
+		sourceLastModified.add(Calendar.MINUTE, 5);
+		Node mockSourceNode = createSourceNode("a = 1", sourceLastModified);
+		Node mockCacheNode = createCacheNode(
+				webResourceScriptCache.createSourceHash(createSourceNode(
+						"a = 1", compiledLastModified)),
+				compiledLastModified,
+				webResourceScriptCache.createOptionsHash(webResourceScriptCache
+						.createCompileOptions(mockSourceNode, null)),
+				webResourceScriptCache.getCompilerVersion(mockScriptCompiler));
+
+		assertTrue("Touched source with same content should be fresh",
+				webResourceScriptCache.isCacheFresh(mockCacheNode,
+						mockSourceNode, null, mockScriptCompiler));
+
+		Node mockChangedSourceNode = createSourceNode("a = 2",
+				sourceLastModified);
+		assertFalse("Changed content should not be fresh",
+				webResourceScriptCache.isCacheFresh(mockCacheNode,
+						mockChangedSourceNode, null, mockScriptCompiler));
+	}
+
+	@Test
+	public void testIsCacheNotFreshCompileOptionsChanged() throws Exception {
+		Calendar sourceLastModified = Calendar.getInstance();
+		Node mockSourceNode = createSourceNode("a = 1", sourceLastModified);
+		Node mockCacheNode = createCacheNode("unread", sourceLastModified,
+				webResourceScriptCache.createOptionsHash(webResourceScriptCache
+						.createCompileOptions(mockSourceNode, null)),
+				webResourceScriptCache.getCompilerVersion(mockScriptCompiler));
+
+		WebResourceGroup webResourceGroup = new WebResourceGroup();
+		Map<String, Object> coffeeOptions = new HashMap<String, Object>();
+		coffeeOptions.put("bare", "true");
+		webResourceGroup.getCompileOptions().put("coffee", coffeeOptions);
+
+		assertFalse("Changed compile options should not be fresh",
+				webResourceScriptCache.isCacheFresh(mockCacheNode,
+						mockSourceNode, webResourceGroup, mockScriptCompiler));
+	}
+
+	@Test
+	public void testCreateOptionsHashIgnoresOrder() throws Exception {
+		Map<String, Object> firstOptions = new LinkedHashMap<String, Object>();
+		firstOptions.put("bare", "true");
+		firstOptions.put("header", "false");
+		Map<String, Object> secondOptions = new LinkedHashMap<String, Object>();
+		secondOptions.put("header", "false");
+		secondOptions.put("bare", "true");
+
+		assertEquals("Option order should not change the hash",
+				webResourceScriptCache.createOptionsHash(firstOptions),
+				webResourceScriptCache.createOptionsHash(secondOptions));
+
+		secondOptions.put("bare", "false");
+		assertFalse("Option values should change the hash",
+				webResourceScriptCache.createOptionsHash(firstOptions).equals(
+						webResourceScriptCache.createOptionsHash(secondOptions)));
+	}
+
+	@Test
+	public void testIsImportsFresh() throws Exception {
+		Calendar readLastModified = Calendar.getInstance();
+		Calendar olderLastModified = Calendar.getInstance();
+		olderLastModified.add(Calendar.MINUTE, -5);
+
+		CompiledWebResourceFingerprint fingerprint = new CompiledWebResourceFingerprint();
+		fingerprint.getImports().add("/apps/_import.less");
+		fingerprint.getImportHashes().add(DigestUtils.sha256Hex("a"));
+
+		assertTrue("Unchanged imports should be fresh", isImportsFresh(
+				fingerprint, "a", readLastModified));
+		assertFalse("Imports replaced with an older date should not be fresh",
+				isImportsFresh(fingerprint, "b", olderLastModified));
+
+		fingerprint.getImportHashes().clear();
+
+		assertFalse("Imports recorded without hash should not be fresh",
+				isImportsFresh(fingerprint, "a", readLastModified));
+	}
+
+	@Test
+	public void testIsImportsFreshSkipsHashForSameDate() throws Exception {
+		Calendar readLastModified = Calendar.getInstance();
+		Calendar touchedLastModified = Calendar.getInstance();
+		touchedLastModified.add(Calendar.MINUTE, 5);
+
+		CompiledWebResourceFingerprint fingerprint = new CompiledWebResourceFingerprint();
+		fingerprint.getImports().add("/apps/_import.less");
+		fingerprint.getImportHashes().add(DigestUtils.sha256Hex("a"));
+		fingerprint.getImportLastModified().add(readLastModified);
+
+		// The content is not read when the date is unchanged
+		assertTrue("Imports with the date they were read at should be fresh",
+				isImportsFresh(fingerprint, "unread", readLastModified));
+		assertTrue("Touched imports with same content should be fresh",
+				isImportsFresh(fingerprint, "a", touchedLastModified));
+		assertFalse("Changed imports should not be fresh", isImportsFresh(
+				fingerprint, "b", touchedLastModified));
+	}
+
+	@Test
+	public void testGetMemberFingerprint() throws Exception {
+		Node mockCompiledNode = createNiceMock(Node.class);
+		Node mockContentNode = createNiceMock(Node.class);
+		expect(mockCompiledNode.getPath()).andReturn("/var/test.js")
+				.anyTimes();
+		expect(mockCompiledNode.getNode(Property.JCR_CONTENT)).andReturn(
+				mockContentNode).anyTimes();
+		expectProperty(mockContentNode, WebResourceFingerprint.CONTENT_HASH,
+				"abc", null);
+		replay(mockCompiledNode, mockContentNode);
+
+		assertEquals("Member should be identified by its content hash",
+				"/var/test.js#abc",
+				webResourceScriptCache.getMemberFingerprint(mockCompiledNode));
+	}
+
+	@Test
+	public void testIsConsolidationFresh() throws Exception {
+		Session mockSession = createNiceMock(Session.class);
+		Node mockConsolidatedNode = createNiceMock(Node.class);
+		Node mockContentNode = createNiceMock(Node.class);
+		Property mockMembersProperty = createNiceMock(Property.class);
+		Value mockFirstValue = createNiceMock(Value.class);
+		Value mockSecondValue = createNiceMock(Value.class);
+		expect(mockSession.nodeExists("/var/groups/site.js")).andReturn(true)
+				.anyTimes();
+		expect(mockSession.getNode("/var/groups/site.js")).andReturn(
+				mockConsolidatedNode).anyTimes();
+		expect(mockConsolidatedNode.getNode(Property.JCR_CONTENT)).andReturn(
+				mockContentNode).anyTimes();
+		expect(
+				mockContentNode
+						.hasProperty(ConsolidatedWebResourceFingerprint.MEMBERS))
+				.andReturn(true).anyTimes();
+		expect(
+				mockContentNode
+						.getProperty(ConsolidatedWebResourceFingerprint.MEMBERS))
+				.andReturn(mockMembersProperty).anyTimes();
+		expect(mockMembersProperty.getValues()).andReturn(
+				new Value[] { mockFirstValue, mockSecondValue }).anyTimes();
+		expect(mockFirstValue.getString()).andReturn("/var/a.js#1").anyTimes();
+		expect(mockSecondValue.getString()).andReturn("/var/b.js#2")
+				.anyTimes();
+		replay(mockSession, mockConsolidatedNode, mockContentNode,
+				mockMembersProperty, mockFirstValue, mockSecondValue);
+
+		ConsolidatedWebResourceFingerprint fingerprint = new ConsolidatedWebResourceFingerprint();
+		fingerprint.getMembers().add("/var/a.js#1");
+		fingerprint.getMembers().add("/var/b.js#2");
+		assertTrue("Unchanged members should not be consolidated again",
+				webResourceScriptCache.isConsolidationFresh(mockSession,
+						"/var/groups/site.js", fingerprint));
+
+		Collections.reverse(fingerprint.getMembers());
+		assertFalse("Reordered members should be consolidated again",
+				webResourceScriptCache.isConsolidationFresh(mockSession,
+						"/var/groups/site.js", fingerprint));
+
+		assertFalse("Missing consolidation should be created",
+				webResourceScriptCache.isConsolidationFresh(mockSession,
+						"/var/groups/other.js", fingerprint));
+	}
+
+	@Test
+	public void testCompileGroupMembersInParallel() throws Exception {
+		final Set<Thread> compileThreads = Collections
+				.synchronizedSet(new HashSet<Thread>());
+		final ResourceResolver mockResolver = createNiceMock(ResourceResolver.class);
+		expect(mockResolver.adaptTo(Session.class)).andReturn(
+				createNiceMock(Session.class)).anyTimes();
+		replay(mockResolver);
+		WebResourceScriptCacheImpl parallelCache = new WebResourceScriptCacheImpl() {
+			@Override
+			protected String[] compileGroupMember(Session session,
+					String webResourcePath, WebResourceGroup webResourceGroup) {
+				compileThreads.add(Thread.currentThread());
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (webResourcePath.endsWith(".txt")) {
+					return null;
+				}
+				return new String[] {
+						webResourcePath.replace(".coffee", ".js"), "js" };
+			}
+
+			@Override
+			protected WebResourceWriteBatch openWriteBatch(int chunkSize) {
+				return new WebResourceWriteBatch(mockResolver, chunkSize,
+						new ConcurrentHashMap<String, WebResourceWriteBatch>());
+			}
+		};
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptCacheImpl.COMPILE_THREADS, 4);
+		ComponentContext mockContext = createComponentContext(properties);
+		parallelCache.activate(mockContext);
+
+		List<String> webResourcePathList = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			webResourcePathList.add("/apps/group/file" + i
+					+ (i == 7 ? ".txt" : ".coffee"));
+		}
+		try {
+			String[][] result = parallelCache.compileGroupMembers(
+					createNiceMock(Session.class), webResourcePathList,
+					new WebResourceGroup());
+
+			assertTrue("Files should be compiled by several threads",
+					compileThreads.size() > 1);
+			assertNull("File without compiler should be skipped", result[7]);
+			for (int i = 0; i < 20; i++) {
+				if (i != 7) {
+					assertEquals("Results should be in inventory order",
+							"/apps/group/file" + i + ".js", result[i][0]);
+				}
+			}
+		} finally {
+			parallelCache.deactivate(mockContext);
+		}
+	}
+
+	@Test
+	public void testLoadCompiledScriptPathServesStale() throws Exception {
+		final List<String> compiledPaths = new ArrayList<String>();
+		final List<String> revalidatedPaths = new ArrayList<String>();
+		final Node mockCompiledNode = createNiceMock(Node.class);
+		expect(mockCompiledNode.getPath()).andReturn("/var/test.js")
+				.anyTimes();
+		Session mockSession = createNiceMock(Session.class);
+		expect(mockSession.nodeExists("/var/test.js")).andReturn(true)
+				.anyTimes();
+		expect(mockSession.getNode("/var/test.js")).andReturn(
+				mockCompiledNode).anyTimes();
+		Node mockSourceNode = createNiceMock(Node.class);
+		expect(mockSourceNode.getPath()).andReturn("/apps/test.coffee")
+				.anyTimes();
+		replay(mockCompiledNode, mockSession, mockSourceNode);
+		WebResourceScriptCacheImpl staleCache = new WebResourceScriptCacheImpl() {
+			@Override
+			protected boolean isCacheFresh(Node cacheScriptNode,
+					Node sourceNode, WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				return false;
+			}
+
+			@Override
+			protected Node compileWebResourceToNode(Node sourceNode,
+					WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				compiledPaths.add("/var/test.js");
+				return mockCompiledNode;
+			}
+
+			@Override
+			protected void scheduleRevalidation(String sourcePath,
+					WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler, String compiledPath) {
+				revalidatedPaths.add(sourcePath);
+			}
+		};
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptCacheImpl.STALE_WHILE_REVALIDATE, true);
+		properties.put(WebResourceScriptCacheImpl.MAX_STALENESS, 50L);
+		ComponentContext mockContext = createComponentContext(properties);
+		staleCache.activate(mockContext);
+		try {
+			assertEquals("Stale path should be served", "/var/test.js",
+					staleCache.loadCompiledScriptPath(mockSession,
+							mockSourceNode, null, mockScriptCompiler,
+							"/var/test.js"));
+			assertTrue("Request should not compile", compiledPaths.isEmpty());
+			assertEquals("Recompile should be scheduled",
+					Collections.singletonList("/apps/test.coffee"),
+					revalidatedPaths);
+
+			Thread.sleep(100);
+
+			assertEquals("/var/test.js", staleCache.loadCompiledScriptPath(
+					mockSession, mockSourceNode, null, mockScriptCompiler,
+					"/var/test.js"));
+			assertEquals("Request should compile once staleness is exceeded",
+					1, compiledPaths.size());
+			assertEquals(1, revalidatedPaths.size());
+		} finally {
+			staleCache.deactivate(mockContext);
+		}
+	}
+
+	@Test
+	public void testRevalidateDoesNotJoinRequestFlight() throws Exception {
+		final List<String> compiledPaths = Collections
+				.synchronizedList(new ArrayList<String>());
+		final Node mockCompiledNode = createNiceMock(Node.class);
+		final Session mockSession = createNiceMock(Session.class);
+		expect(mockSession.nodeExists("/var/test.js")).andReturn(true)
+				.anyTimes();
+		expect(mockSession.getNode("/var/test.js")).andReturn(
+				mockCompiledNode).anyTimes();
+		final Node mockSourceNode = createNiceMock(Node.class);
+		replay(mockCompiledNode, mockSession, mockSourceNode);
+		final WebResourceScriptCacheImpl staleCache = new WebResourceScriptCacheImpl() {
+			@Override
+			protected boolean isCacheFresh(Node cacheScriptNode,
+					Node sourceNode, WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				return false;
+			}
+
+			@Override
+			protected Node compileWebResourceToNode(Node sourceNode,
+					WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				compiledPaths.add("/var/test.js");
+				return mockCompiledNode;
+			}
+		};
+
+		// A request still in its flight serving the stale path
+		final CountDownLatch requestStarted = new CountDownLatch(1);
+		final CountDownLatch requestReleased = new CountDownLatch(1);
+		Thread requestThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					staleCache.compileFlights.execute("/var/test.js",
+							new Callable<String>() {
+								public String call() throws Exception {
+									requestStarted.countDown();
+									requestReleased.await();
+									return "/var/test.js";
+								}
+							});
+				} catch (Exception e) {
+					// Checked by the assertions below
+				}
+			}
+		};
+		requestThread.start();
+		assertTrue(requestStarted.await(5, TimeUnit.SECONDS));
+
+		final CountDownLatch revalidated = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					staleCache.revalidate(mockSession, mockSourceNode, null,
+							mockScriptCompiler, "/var/test.js");
+				} catch (Exception e) {
+					// Checked by the assertions below
+				}
+				revalidated.countDown();
+			}
+		}.start();
+		try {
+			assertTrue("Revalidation should not wait for the request",
+					revalidated.await(5, TimeUnit.SECONDS));
+			assertEquals("Revalidation should compile",
+					Collections.singletonList("/var/test.js"), compiledPaths);
+		} finally {
+			requestReleased.countDown();
+			requestThread.join();
+		}
+	}
+
+	@Test
+	public void testExceededStalenessWaitsForRevalidation() throws Exception {
+		final List<String> compiledPaths = Collections
+				.synchronizedList(new ArrayList<String>());
+		final CountDownLatch compileStarted = new CountDownLatch(1);
+		final CountDownLatch compileReleased = new CountDownLatch(1);
+		final Node mockCompiledNode = createNiceMock(Node.class);
+		final Session mockSession = createNiceMock(Session.class);
+		expect(mockSession.nodeExists("/var/test.js")).andReturn(true)
+				.anyTimes();
+		expect(mockSession.getNode("/var/test.js")).andReturn(
+				mockCompiledNode).anyTimes();
+		final Node mockSourceNode = createNiceMock(Node.class);
+		replay(mockCompiledNode, mockSession, mockSourceNode);
+		final WebResourceScriptCacheImpl staleCache = new WebResourceScriptCacheImpl() {
+			@Override
+			protected boolean isCacheFresh(Node cacheScriptNode,
+					Node sourceNode, WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				return !compiledPaths.isEmpty();
+			}
+
+			@Override
+			protected Node compileWebResourceToNode(Node sourceNode,
+					WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				compileStarted.countDown();
+				try {
+					compileReleased.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				compiledPaths.add("/var/test.js");
+				return mockCompiledNode;
+			}
+		};
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptCacheImpl.STALE_WHILE_REVALIDATE, true);
+		properties.put(WebResourceScriptCacheImpl.MAX_STALENESS, 50L);
+		ComponentContext mockContext = createComponentContext(properties);
+		staleCache.activate(mockContext);
+		try {
+			staleCache.markStale("/var/test.js");
+			Thread.sleep(100);
+
+			// Background recompile still compiling
+			Thread revalidateThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						staleCache.revalidate(mockSession, mockSourceNode,
+								null, mockScriptCompiler, "/var/test.js");
+					} catch (Exception e) {
+						// Checked by the assertions below
+					}
+				}
+			};
+			revalidateThread.start();
+			assertTrue(compileStarted.await(5, TimeUnit.SECONDS));
+
+			final List<String> requestResults = Collections
+					.synchronizedList(new ArrayList<String>());
+			Thread requestThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						requestResults.add(staleCache.loadCompiledScriptPath(
+								mockSession, mockSourceNode, null,
+								mockScriptCompiler, "/var/test.js"));
+					} catch (Exception e) {
+						// Checked by the assertions below
+					}
+				}
+			};
+			requestThread.start();
+			requestThread.join(200);
+			assertTrue("Request should wait for the background recompile",
+					requestThread.isAlive());
+
+			compileReleased.countDown();
+			requestThread.join(5000);
+			revalidateThread.join(5000);
+			assertEquals(Collections.singletonList("/var/test.js"),
+					requestResults);
+			assertEquals("Path should be compiled once", 1,
+					compiledPaths.size());
+		} finally {
+			compileReleased.countDown();
+			staleCache.deactivate(mockContext);
+		}
+	}
+
+	@Test
+	public void testCompileOptionsChangeRecompilesCachedGroup()
+			throws Exception {
+		final List<String> loadedPaths = new ArrayList<String>();
+		final List<Event> postedEvents = new ArrayList<Event>();
+		Node mockCompiledNode = createNiceMock(Node.class);
+		Session mockSession = createNiceMock(Session.class);
+		expect(mockSession.getNode("/var/group/test.js")).andReturn(
+				mockCompiledNode).anyTimes();
+		Node mockSourceNode = createNiceMock(Node.class);
+		expect(mockSourceNode.getPath()).andReturn("/apps/group/test.coffee")
+				.anyTimes();
+		WebResourceScriptCompilerProvider mockCompilerProvider = createNiceMock(WebResourceScriptCompilerProvider.class);
+		expect(mockCompilerProvider.getWebResourceCompilerForNode(
+				mockSourceNode)).andReturn(mockScriptCompiler).anyTimes();
+		WebResourceInventoryManager mockInventoryManager = createNiceMock(WebResourceInventoryManager.class);
+		expect(mockInventoryManager.getAllWebResourceNames()).andReturn(
+				Collections.singleton("group")).anyTimes();
+		expect(mockInventoryManager.getWebResourcePathLookup("group"))
+				.andReturn("/apps/group").anyTimes();
+		replay(mockCompiledNode, mockSession, mockSourceNode,
+				mockCompilerProvider, mockInventoryManager);
+		WebResourceScriptCacheImpl groupCache = new WebResourceScriptCacheImpl() {
+			@Override
+			protected String getCachedCompiledScriptPath(Node sourceNode,
+					WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler) {
+				return "/var/group/test.js";
+			}
+
+			@Override
+			protected String loadCompiledScriptPath(Session session,
+					Node sourceNode, WebResourceGroup webResourceGroup,
+					WebResourceScriptCompiler compiler, String compiledPath) {
+				loadedPaths.add(compiledPath);
+				return compiledPath;
+			}
+		};
+		groupCache.setWebResourceScriptCompilerProvider(mockCompilerProvider);
+		groupCache.setWebResourceInventoryManager(mockInventoryManager);
+		groupCache.setEventAdmin(new EventAdmin() {
+			public void postEvent(Event event) {
+				postedEvents.add(event);
+			}
+
+			public void sendEvent(Event event) {
+				postedEvents.add(event);
+			}
+		});
+		WebResourceGroup webResourceGroup = new WebResourceGroup();
+		webResourceGroup.setName("group");
+		webResourceGroup.setGroupPath("/apps/group");
+		ComponentContext mockContext = createComponentContext(new Hashtable<String, Object>());
+		groupCache.activate(mockContext);
+		try {
+			groupCache.getCompiledScriptNode(mockSession, mockSourceNode,
+					webResourceGroup);
+			groupCache.getCompiledScriptNode(mockSession, mockSourceNode,
+					webResourceGroup);
+			assertEquals("Second request should be served from the cache", 1,
+					loadedPaths.size());
+
+			Dictionary<String, Object> properties = new Hashtable<String, Object>();
+			properties.put("path", "/apps/group/compileOptions/less");
+			groupCache.new CompiledCacheInvalidator().handleEvent(new Event(
+					SlingConstants.TOPIC_RESOURCE_CHANGED, properties));
+			assertEquals("Group should be requested for compile", 1,
+					postedEvents.size());
+			assertEquals(WebResourceInventoryManager.COMPILE_REQUEST_EVENT,
+					postedEvents.get(0).getTopic());
+			assertEquals(Collections.singletonList("/apps/group"),
+					postedEvents.get(0).getProperty("paths"));
+
+			properties.put("path", "/content/other/compileOptions");
+			groupCache.new CompiledCacheInvalidator().handleEvent(new Event(
+					SlingConstants.TOPIC_RESOURCE_CHANGED, properties));
+			assertEquals("Events outside watched paths should be ignored", 1,
+					postedEvents.size());
+			assertTrue("Removed ancestor should affect the cached source",
+					groupCache.isWatchedPath("/apps"));
+			assertTrue(groupCache.isWatchedPath("/var/group/test.js"));
+			assertFalse(groupCache.isWatchedPath("/content/other"));
+
+			groupCache.getCompiledScriptNode(mockSession, mockSourceNode,
+					webResourceGroup);
+			assertEquals("Changed options should be checked again", 2,
+					loadedPaths.size());
+
+			groupCache.bindWebResourceScriptCompiler(mockScriptCompiler);
+			groupCache.getCompiledScriptNode(mockSession, mockSourceNode,
+					webResourceGroup);
+			assertEquals("Changed compilers should be checked again", 3,
+					loadedPaths.size());
+		} finally {
+			groupCache.deactivate(mockContext);
+		}
+	}
+
+	@Test
+	public void testGetCompileOptionsGroupPath() throws Exception {
+		assertEquals("/apps/group", webResourceScriptCache
+				.getCompileOptionsGroupPath("/apps/group/compileOptions"));
+		assertEquals("/apps/group", webResourceScriptCache
+				.getCompileOptionsGroupPath("/apps/group/compileOptions/less"));
+		assertNull(webResourceScriptCache
+				.getCompileOptionsGroupPath("/apps/group/compileOptionsOld"));
+		assertNull(webResourceScriptCache
+				.getCompileOptionsGroupPath("/apps/group/test.coffee"));
+	}
+
+	private boolean isImportsFresh(CompiledWebResourceFingerprint fingerprint,
+			String importSource, Calendar importLastModified) throws Exception {
+		Session mockSession = createNiceMock(Session.class);
+		expect(mockSession.nodeExists("/apps/_import.less")).andReturn(true)
+				.anyTimes();
+		expect(mockSession.getNode("/apps/_import.less")).andReturn(
+				createSourceNode(importSource, importLastModified)).anyTimes();
+		replay(mockSession);
+		return webResourceScriptCache.isImportsFresh(fingerprint, mockSession);
+	}
+
+	private ComponentContext createComponentContext(
+			Hashtable<String, Object> properties) {
+		ComponentContext mockContext = createNiceMock(ComponentContext.class);
+		expect(mockContext.getProperties()).andReturn(properties).anyTimes();
+		expect(mockContext.getBundleContext()).andReturn(
+				createNiceMock(BundleContext.class)).anyTimes();
+		replay(mockContext);
+		return mockContext;
+	}
+
+	private Node createSourceNode(String source, Calendar lastModified)
+			throws Exception {
+		Node mockSourceNode = createNiceMock(Node.class);
+		Node mockContentNode = createNiceMock(Node.class);
+		Property mockDateProperty = createNiceMock(Property.class);
+		Property mockDataProperty = createNiceMock(Property.class);
+		Binary mockBinary = createNiceMock(Binary.class);
+
+		expect(mockSourceNode.getPath()).andReturn("/apps/test.coffee")
+				.anyTimes();
+		expect(mockSourceNode.hasNode(Property.JCR_CONTENT)).andReturn(true)
+				.anyTimes();
+		expect(mockSourceNode.getNode(Property.JCR_CONTENT)).andReturn(
+				mockContentNode).anyTimes();
+		expect(mockContentNode.hasProperty(Property.JCR_LAST_MODIFIED))
+				.andReturn(true).anyTimes();
+		expect(mockContentNode.getProperty(Property.JCR_LAST_MODIFIED))
+				.andReturn(mockDateProperty).anyTimes();
+		expect(mockDateProperty.getDate()).andReturn(lastModified).anyTimes();
+		expect(mockContentNode.getProperty(Property.JCR_DATA)).andReturn(
+				mockDataProperty).anyTimes();
+		expect(mockDataProperty.getBinary()).andReturn(mockBinary).anyTimes();
+		expect(mockBinary.getStream()).andReturn(
+				new ByteArrayInputStream(source.getBytes("UTF-8"))).once();
+
+		replay(mockSourceNode, mockContentNode, mockDateProperty,
+				mockDataProperty, mockBinary);
+		return mockSourceNode;
+	}
+
+	private Node createCacheNode(String sourceHash,
+			Calendar sourceLastModified, String optionsHash,
+			String compilerVersion) throws Exception {
+		Node mockCacheNode = createNiceMock(Node.class);
+		Node mockContentNode = createNiceMock(Node.class);
+
+		expect(mockCacheNode.getNode(Property.JCR_CONTENT)).andReturn(
+				mockContentNode).anyTimes();
+		expectProperty(mockContentNode,
+				CompiledWebResourceFingerprint.SOURCE_HASH, sourceHash, null);
+		expectProperty(mockContentNode,
+				CompiledWebResourceFingerprint.SOURCE_LAST_MODIFIED, null,
+				sourceLastModified);
+		expectProperty(mockContentNode,
+				CompiledWebResourceFingerprint.OPTIONS_HASH, optionsHash, null);
+		expectProperty(mockContentNode,
+				CompiledWebResourceFingerprint.COMPILER_VERSION,
+				compilerVersion, null);
+
+		replay(mockCacheNode, mockContentNode);
+		return mockCacheNode;
+	}
+
+	private void expectProperty(Node mockNode, String name, String value,
+			Calendar date) throws Exception {
+		Property mockProperty = createNiceMock(Property.class);
+		expect(mockNode.hasProperty(name)).andReturn(true).anyTimes();
+		expect(mockNode.getProperty(name)).andReturn(mockProperty).anyTimes();
+		expect(mockProperty.getString()).andReturn(value).anyTimes();
+		expect(mockProperty.getDate()).andReturn(date).anyTimes();
+		replay(mockProperty);
+	}
+
 }
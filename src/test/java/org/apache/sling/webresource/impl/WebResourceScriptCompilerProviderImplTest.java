@@ -0,0 +1,113 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+
+import org.apache.sling.webresource.WebResourceScriptCompiler;
+import org.apache.sling.webresource.exception.WebResourceCompilerNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+public class WebResourceScriptCompilerProviderImplTest {
+
+	private WebResourceScriptCompilerProviderImpl compilerProvider;
+
+	@Before
+	public void setUp() throws Exception {
+		compilerProvider = new WebResourceScriptCompilerProviderImpl();
+	}
+
+	@Test
+	public void testHighestRankedCompilerWins() throws Exception {
+		WebResourceScriptCompiler lowCompiler = createCompiler();
+		WebResourceScriptCompiler highCompiler = createCompiler();
+		compilerProvider.bindWebResourceCompilerProvider(lowCompiler,
+				createProperties(1L, 0));
+		compilerProvider.bindWebResourceCompilerProvider(highCompiler,
+				createProperties(2L, 10));
+
+		assertSame("Highest ranking should win", highCompiler,
+				compilerProvider
+						.getWebResourceCompilerForNode(createNode("a.coffee")));
+
+		compilerProvider.unbindWebResourceCompilerProvider(highCompiler,
+				createProperties(2L, 10));
+
+		assertSame("Registry should be rebuilt on unbind", lowCompiler,
+				compilerProvider
+						.getWebResourceCompilerForNode(createNode("a.coffee")));
+	}
+
+	@Test
+	public void testCompilerResolvedOncePerExtension() throws Exception {
+		WebResourceScriptCompiler mockCompiler = createMock(WebResourceScriptCompiler.class);
+		expect(mockCompiler.canCompileNode(anyObject(Node.class))).andReturn(
+				true).once();
+		replay(mockCompiler);
+		compilerProvider.bindWebResourceCompilerProvider(mockCompiler,
+				createProperties(1L, 0));
+
+		assertSame(mockCompiler,
+				compilerProvider
+						.findWebResourceCompilerForNode(createNode("a.less")));
+		assertSame(mockCompiler,
+				compilerProvider
+						.findWebResourceCompilerForNode(createNode("b.less")));
+
+		verify(mockCompiler);
+	}
+
+	@Test
+	public void testNoCompilerIsCached() throws Exception {
+		WebResourceScriptCompiler mockCompiler = createMock(WebResourceScriptCompiler.class);
+		expect(mockCompiler.canCompileNode(anyObject(Node.class))).andReturn(
+				false).once();
+		replay(mockCompiler);
+		compilerProvider.bindWebResourceCompilerProvider(mockCompiler,
+				createProperties(1L, 0));
+
+		assertNull(compilerProvider
+				.findWebResourceCompilerForNode(createNode("a.txt")));
+		assertNull(compilerProvider
+				.findWebResourceCompilerForNode(createNode("b.txt")));
+		try {
+			compilerProvider.getWebResourceCompilerForNode(createNode("c.txt"));
+			fail("Missing compiler should be reported");
+		} catch (WebResourceCompilerNotFoundException e) {
+			// expected
+		}
+		assertEquals(1, compilerProvider.getCompilerRegistry()
+				.getResolvedExtensionCount());
+
+		verify(mockCompiler);
+	}
+
+	private WebResourceScriptCompiler createCompiler()
+			throws Exception {
+		WebResourceScriptCompiler mockCompiler = createMock(WebResourceScriptCompiler.class);
+		expect(mockCompiler.canCompileNode(anyObject(Node.class))).andReturn(
+				true).anyTimes();
+		replay(mockCompiler);
+		return mockCompiler;
+	}
+
+	private Node createNode(String name) throws Exception {
+		Node mockNode = createMock(Node.class);
+		expect(mockNode.getName()).andReturn(name).anyTimes();
+		replay(mockNode);
+		return mockNode;
+	}
+
+	private Map<String, Object> createProperties(long serviceId, int ranking) {
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(Constants.SERVICE_ID, serviceId);
+		properties.put(Constants.SERVICE_RANKING, ranking);
+		return properties;
+	}
+}
@@ -0,0 +1,166 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.sling.webresource.WebResourceInventoryManager;
+import org.apache.sling.webresource.WebResourceScriptCompiler;
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+public class WebResourceScriptRunnerFactoryImplTest {
+
+	private WebResourceScriptRunnerFactoryImpl runnerFactory;
+
+	private ComponentContext mockContext;
+
+	@Before
+	public void setUp() throws Exception {
+		runnerFactory = new WebResourceScriptRunnerFactoryImpl() {
+			@Override
+			protected ScriptEngine getScriptEngine() {
+				ScriptEngine mockScriptEngine = createNiceMock(ScriptEngine.class);
+				replay(mockScriptEngine);
+				return mockScriptEngine;
+			}
+		};
+		runnerFactory
+				.setWebResourceInventoryManager(createNiceMock(WebResourceInventoryManager.class));
+		runnerFactory.setWebResourceScriptCache(new WebResourceScriptCacheImpl());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (mockContext != null) {
+			runnerFactory.deactivate(mockContext);
+		}
+	}
+
+	@Test
+	public void testScriptEngineRefusedWithInstructionLimit() throws Exception {
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptRunnerFactoryImpl.ENGINE,
+				WebResourceScriptRunnerFactoryImpl.ENGINE_JSR223);
+		properties.put(WebResourceScriptRunnerFactoryImpl.MAX_INSTRUCTIONS,
+				Long.valueOf(1000000));
+		activate(properties);
+
+		assertTrue("Script engine can not enforce instruction limits",
+				runnerFactory.createRunner("coffee",
+						createGlobalScript("one")) instanceof RhinoWebResourceScriptRunnerImpl);
+	}
+
+	@Test
+	public void testScriptEngineUsedWithDefaultTimeout() throws Exception {
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptRunnerFactoryImpl.ENGINE,
+				WebResourceScriptRunnerFactoryImpl.ENGINE_JSR223);
+		activate(properties);
+
+		assertTrue("Script engine should enforce the default timeout",
+				runnerFactory.createRunner("coffee",
+						createGlobalScript("one")) instanceof ScriptEngineWebResourceScriptRunnerImpl);
+	}
+
+	@Test
+	public void testScriptEngineUsedWithoutLimits() throws Exception {
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptRunnerFactoryImpl.ENGINE,
+				WebResourceScriptRunnerFactoryImpl.ENGINE_JSR223);
+		properties.put(WebResourceScriptRunnerFactoryImpl.EVALUATION_TIMEOUT,
+				Long.valueOf(0));
+		activate(properties);
+
+		assertTrue("Script engine should be used without limits",
+				runnerFactory.createRunner("coffee",
+						createGlobalScript("one")) instanceof ScriptEngineWebResourceScriptRunnerImpl);
+	}
+
+	@Test
+	public void testScriptEngineFromBoundManager() throws Exception {
+		runnerFactory = new WebResourceScriptRunnerFactoryImpl();
+		runnerFactory
+				.setWebResourceInventoryManager(createNiceMock(WebResourceInventoryManager.class));
+		runnerFactory.setWebResourceScriptCache(new WebResourceScriptCacheImpl());
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(WebResourceScriptRunnerFactoryImpl.ENGINE,
+				WebResourceScriptRunnerFactoryImpl.ENGINE_JSR223);
+		properties.put(WebResourceScriptRunnerFactoryImpl.EVALUATION_TIMEOUT,
+				Long.valueOf(0));
+		activate(properties);
+
+		assertTrue("Rhino should be used without a script engine manager",
+				runnerFactory.borrowRunner("coffee", createGlobalScript("one")) instanceof RhinoWebResourceScriptRunnerImpl);
+
+		ScriptEngineManager scriptEngineManager = new ScriptEngineManager() {
+			@Override
+			public ScriptEngine getEngineByName(String shortName) {
+				ScriptEngine mockScriptEngine = createNiceMock(ScriptEngine.class);
+				replay(mockScriptEngine);
+				return mockScriptEngine;
+			}
+		};
+		runnerFactory.bindScriptEngineManager(scriptEngineManager);
+		assertTrue("Bound script engine manager should replace the pool",
+				runnerFactory.borrowRunner("coffee", createGlobalScript("one")) instanceof ScriptEngineWebResourceScriptRunnerImpl);
+
+		runnerFactory.unbindScriptEngineManager(scriptEngineManager);
+		assertTrue("Rhino should be used once the manager is unbound",
+				runnerFactory.borrowRunner("coffee", createGlobalScript("one")) instanceof RhinoWebResourceScriptRunnerImpl);
+	}
+
+	@Test
+	public void testGlobalScriptComparedAfterCompilerChange()
+			throws Exception {
+		WebResourceScriptRunner first = runnerFactory.borrowRunner("coffee",
+				createGlobalScript("one"));
+		runnerFactory.returnRunner(first);
+
+		WebResourceScriptRunner second = runnerFactory.borrowRunner("coffee",
+				createGlobalScript("two"));
+		runnerFactory.returnRunner(second);
+		assertSame("Pool should be kept while compilers are unchanged",
+				first, second);
+
+		runnerFactory
+				.bindWebResourceScriptCompiler(createMock(WebResourceScriptCompiler.class));
+		WebResourceScriptRunner third = runnerFactory.borrowRunner("coffee",
+				createGlobalScript("two"));
+		runnerFactory.returnRunner(third);
+		assertNotSame("Changed global script should replace the pool", first,
+				third);
+		assertEquals("Runner should use the changed global script", "two",
+				third.evaluateScript(new ByteArrayInputStream(
+						"version()".getBytes()), null));
+
+		WebResourceScriptRunner fourth = runnerFactory.borrowRunner("coffee",
+				createGlobalScript("two"));
+		assertSame("Unchanged global script should keep the pool", third,
+				fourth);
+	}
+
+	private void activate(Hashtable<String, Object> properties) {
+		mockContext = createNiceMock(ComponentContext.class);
+		expect(mockContext.getProperties()).andReturn(properties).anyTimes();
+		expect(mockContext.getBundleContext()).andReturn(
+				createNiceMock(BundleContext.class)).anyTimes();
+		replay(mockContext);
+		runnerFactory.activate(mockContext);
+	}
+
+	private InputStream createGlobalScript(String version) {
+		return new ByteArrayInputStream(("function version() { return '"
+				+ version + "'; }").getBytes());
+	}
+}
@@ -0,0 +1,142 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.InputStream;
+
+import org.apache.sling.webresource.WebResourceScriptRunner;
+import org.apache.sling.webresource.WebResourceScriptRunnerFactory;
+import org.apache.sling.webresource.exception.WebResourceCompileException;
+import org.apache.sling.webresource.model.WebResourceScriptRunnerPoolStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebResourceScriptRunnerPoolTest {
+
+	// Mocks
+
+	private WebResourceScriptRunnerFactory mockRunnerFactory;
+	private WebResourceScriptRunner mockRunner;
+
+	@Before
+	public void setUp() throws Exception {
+		mockRunnerFactory = createMock(WebResourceScriptRunnerFactory.class);
+		mockRunner = createMock(WebResourceScriptRunner.class);
+	}
+
+	@Test
+	public void testBorrowReusesReturnedRunner() throws Exception {
+		expect(
+				mockRunnerFactory.createRunner(eq("coffee"),
+						anyObject(InputStream.class))).andReturn(mockRunner)
+				.once();
+
+		replay(mockRunnerFactory);
+
+		WebResourceScriptRunnerPool pool = createPool(0, 2, 60000);
+
+		WebResourceScriptRunner first = pool.borrow();
+		assertTrue("Runner should be returned", pool.giveBack(first));
+		WebResourceScriptRunner second = pool.borrow();
+
+		assertSame("Runner should be reused", first, second);
+
+		WebResourceScriptRunnerPoolStatistics statistics = pool
+				.getStatistics();
+		assertEquals("One runner should be created", 1,
+				statistics.getCreatedCount());
+		assertEquals("Two borrows should be counted", 2,
+				statistics.getBorrowedCount());
+		assertEquals("One runner should be active", 1,
+				statistics.getActiveCount());
+
+		verify(mockRunnerFactory);
+	}
+
+	@Test(expected = WebResourceCompileException.class)
+	public void testBorrowTimesOutWhenExhausted() throws Exception {
+		expect(
+				mockRunnerFactory.createRunner(eq("coffee"),
+						anyObject(InputStream.class))).andReturn(mockRunner);
+
+		replay(mockRunnerFactory);
+
+		WebResourceScriptRunnerPool pool = createPool(0, 1, 60000);
+
+		pool.borrow();
+		pool.borrow();
+	}
+
+	@Test
+	public void testGiveBackForeignRunner() throws Exception {
+		WebResourceScriptRunnerPool pool = createPool(0, 1, 60000);
+
+		assertFalse("Runner was never borrowed", pool.giveBack(mockRunner));
+	}
+
+	@Test
+	public void testEvictIdleRunnersKeepsMinIdle() throws Exception {
+		WebResourceScriptRunner otherRunner = createMock(WebResourceScriptRunner.class);
+		expect(
+				mockRunnerFactory.createRunner(eq("coffee"),
+						anyObject(InputStream.class))).andReturn(mockRunner);
+		expect(
+				mockRunnerFactory.createRunner(eq("coffee"),
+						anyObject(InputStream.class))).andReturn(otherRunner);
+
+		replay(mockRunnerFactory);
+
+		WebResourceScriptRunnerPool pool = createPool(1, 2, 0);
+
+		WebResourceScriptRunner first = pool.borrow();
+		WebResourceScriptRunner second = pool.borrow();
+		pool.giveBack(first);
+		pool.giveBack(second);
+
+		pool.evictIdleRunners();
+
+		WebResourceScriptRunnerPoolStatistics statistics = pool
+				.getStatistics();
+		assertEquals("Min idle runner should be kept", 1,
+				statistics.getIdleCount());
+		assertEquals("One runner should be evicted", 1,
+				statistics.getEvictedCount());
+
+		verify(mockRunnerFactory);
+	}
+
+	@Test
+	public void testSharedRunnerBorrowedConcurrently() throws Exception {
+		expect(
+				mockRunnerFactory.createRunner(eq("coffee"),
+						anyObject(InputStream.class))).andReturn(mockRunner)
+				.once();
+
+		replay(mockRunnerFactory);
+
+		WebResourceScriptRunnerPool pool = new WebResourceScriptRunnerPool(
+				"coffee", new byte[0], "hash", mockRunnerFactory, 0, 2, 60000,
+				10, true);
+
+		WebResourceScriptRunner first = pool.borrow();
+		WebResourceScriptRunner second = pool.borrow();
+
+		assertSame("Runner should be shared", first, second);
+		assertEquals("Two callers should be active", 2, pool.getStatistics()
+				.getActiveCount());
+
+		assertTrue("Runner should be returned", pool.giveBack(first));
+		assertTrue("Runner should be returned", pool.giveBack(second));
+		assertFalse("Runner was already returned", pool.giveBack(second));
+
+		verify(mockRunnerFactory);
+	}
+
+	private WebResourceScriptRunnerPool createPool(int minIdle, int maxSize,
+			long idleTimeout) {
+		return new WebResourceScriptRunnerPool("coffee", new byte[0],
+				"hash", mockRunnerFactory, minIdle, maxSize, idleTimeout, 10,
+				false);
+	}
+}
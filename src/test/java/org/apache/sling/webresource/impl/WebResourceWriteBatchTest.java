@@ -0,0 +1,177 @@
+package org.apache.sling.webresource.impl;
+
+import static org.junit.Assert.*;
+import static org.easymock.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebResourceWriteBatchTest {
+
+	private ConcurrentMap<String, WebResourceWriteBatch> pendingWrites;
+
+	private ResourceResolver mockResolver;
+
+	private Session mockSession;
+
+	@Before
+	public void setUp() throws Exception {
+		pendingWrites = new ConcurrentHashMap<String, WebResourceWriteBatch>();
+		mockResolver = createMock(ResourceResolver.class);
+		mockSession = createMock(Session.class);
+		Node mockNode = createNiceMock(Node.class);
+		ValueFactory mockValueFactory = createNiceMock(ValueFactory.class);
+
+		expect(mockResolver.adaptTo(Session.class)).andReturn(mockSession);
+		expect(mockSession.getRootNode()).andReturn(mockNode).anyTimes();
+		expect(mockSession.getValueFactory()).andReturn(mockValueFactory)
+				.anyTimes();
+		expect(mockNode.addNode((String) anyObject(), (String) anyObject()))
+				.andReturn(mockNode).anyTimes();
+		replay(mockNode, mockValueFactory);
+	}
+
+	@Test
+	public void testSavesInChunks() throws Exception {
+		mockSession.save();
+		expectLastCall().times(2);
+		mockResolver.close();
+		replay(mockResolver, mockSession);
+
+		WebResourceWriteBatch writeBatch = new WebResourceWriteBatch(
+				mockResolver, 2, pendingWrites);
+		writeBatch.write("/var/a.js", createContent(), null);
+		assertSame("Unsaved path should be registered", writeBatch,
+				pendingWrites.get("/var/a.js"));
+		writeBatch.write("/var/b.js", createContent(), null);
+		assertTrue("Chunk should be saved", pendingWrites.isEmpty());
+		writeBatch.write("/var/c.js", createContent(), null);
+		writeBatch.save();
+		writeBatch.close();
+
+		assertEquals(3, writeBatch.getWriteCount());
+		assertEquals(2, writeBatch.getSaveCount());
+		verify(mockResolver, mockSession);
+	}
+
+	@Test
+	public void testCloseDiscardsUnsavedWrites() throws Exception {
+		expect(mockSession.isLive()).andReturn(true);
+		mockSession.refresh(false);
+		mockResolver.close();
+		replay(mockResolver, mockSession);
+
+		WebResourceWriteBatch writeBatch = new WebResourceWriteBatch(
+				mockResolver, 0, pendingWrites);
+		writeBatch.write("/var/a.js", createContent(), null);
+		writeBatch.close();
+
+		assertTrue("Discarded path should not be pending",
+				pendingWrites.isEmpty());
+		verify(mockResolver, mockSession);
+	}
+
+	@Test
+	public void testAwaitWrite() throws Exception {
+		mockSession.save();
+		replay(mockResolver, mockSession);
+
+		final WebResourceWriteBatch writeBatch = new WebResourceWriteBatch(
+				mockResolver, 0, pendingWrites);
+		writeBatch.write("/var/a.js", createContent(), null);
+
+		final CountDownLatch written = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				writeBatch.awaitWrite("/var/a.js");
+				written.countDown();
+			}
+		}.start();
+
+		assertFalse("Unsaved write should be waited for",
+				written.await(100, TimeUnit.MILLISECONDS));
+		writeBatch.save();
+		assertTrue("Saved write should release waiters",
+				written.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAfterSaveRunsOnlyForSavedWrites() throws Exception {
+		mockSession.save();
+		expect(mockSession.isLive()).andReturn(true);
+		mockSession.refresh(false);
+		mockResolver.close();
+		replay(mockResolver, mockSession);
+
+		final List<String> cachedPaths = new ArrayList<String>();
+		WebResourceWriteBatch writeBatch = new WebResourceWriteBatch(
+				mockResolver, 0, pendingWrites);
+		writeBatch.write("/var/a.js", createContent(), null);
+		writeBatch.afterSave("/var/a.js", createCacheAction(cachedPaths,
+				"/var/a.js"));
+		assertTrue("Unsaved path should not be cached", cachedPaths.isEmpty());
+		writeBatch.save();
+		assertEquals(Collections.singletonList("/var/a.js"), cachedPaths);
+
+		writeBatch.write("/var/b.js", createContent(), null);
+		writeBatch.afterSave("/var/b.js", createCacheAction(cachedPaths,
+				"/var/b.js"));
+		writeBatch.close();
+		assertEquals("Discarded path should not be cached",
+				Collections.singletonList("/var/a.js"), cachedPaths);
+		verify(mockResolver, mockSession);
+	}
+
+	@Test
+	public void testAwaitWriteRequestsSave() throws Exception {
+		mockSession.save();
+		replay(mockResolver, mockSession);
+
+		final WebResourceWriteBatch writeBatch = new WebResourceWriteBatch(
+				mockResolver, 100, pendingWrites);
+		writeBatch.write("/var/a.js", createContent(), null);
+
+		final CountDownLatch written = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				writeBatch.awaitWrite("/var/a.js");
+				written.countDown();
+			}
+		}.start();
+
+		assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+		writeBatch.saveIfRequested();
+		assertTrue("Waiting should save before the chunk is complete",
+				written.await(5, TimeUnit.SECONDS));
+		assertEquals(1, writeBatch.getSaveCount());
+	}
+
+	private Runnable createCacheAction(final List<String> cachedPaths,
+			final String path) {
+		return new Runnable() {
+			public void run() {
+				cachedPaths.add(path);
+			}
+		};
+	}
+
+	private ByteArrayInputStream createContent() {
+		return new ByteArrayInputStream("compiled".getBytes());
+	}
+}
@@ -0,0 +1,77 @@
+package org.apache.sling.webresource.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+public class ScriptUtilsTest {
+
+	private static final String[] SOURCES = { "", "single line",
+			"first\nsecond\n", "a\r\nb\r\n\n\n", "\n\n", "\n\nafter",
+			"quote \" and back\\slash\\\n\"", "trailing\r",
+			"middle\n\n\nempty", "separators \u2028 \u2029" };
+
+	@Test
+	public void testToJSMultiLineStringMatchesArrayJoin() throws Exception {
+		Context rhinoContext = Context.enter();
+		try {
+			Scriptable scope = rhinoContext.initStandardObjects();
+			for (String currentSource : SOURCES) {
+				assertEquals(
+						"Literal should evaluate like the joined array for "
+								+ currentSource,
+						evaluate(rhinoContext, scope,
+								toJSArrayJoin(currentSource)),
+						evaluate(rhinoContext, scope,
+								ScriptUtils.toJSMultiLineString(currentSource)));
+			}
+		} finally {
+			Context.exit();
+		}
+	}
+
+	@Test
+	public void testAppendJSString() throws Exception {
+		StringBuilder result = new StringBuilder("x = ");
+
+		ScriptUtils.appendJSString(result, "say \"hi\"\\\n");
+
+		assertEquals("Literal should be escaped",
+				"x = \"say \\\"hi\\\"\\\\\\n\"", result.toString());
+	}
+
+	private String evaluate(Context rhinoContext, Scriptable scope,
+			String expression) {
+		return Context.toString(rhinoContext.evaluateString(scope, expression,
+				"test", 1, null));
+	}
+
+	/**
+	 * Array join encoding used before the single pass escaper. Line
+	 * separators are escaped as they can not appear in a literal.
+	 */
+	private String toJSArrayJoin(String data) {
+		String[] lines = data.split("\n");
+		StringBuffer result = new StringBuffer("[");
+		if (lines.length == 0) {
+			result.append("\"\"");
+		}
+		for (int i = 0; i < lines.length; i++) {
+			result.append("\"");
+			result.append(lines[i].replace("\\", "\\\\").replace("\"", "\\\"")
+					.replaceAll("\\r|\\n", "").replace("\u2028", "\\u2028")
+					.replace("\u2029", "\\u2029"));
+			if (lines.length == 1) {
+				result.append("\\n");
+			}
+			result.append("\"");
+			if (i < lines.length - 1) {
+				result.append(",");
+			}
+		}
+		result.append("].join(\"\\n\")");
+		return result.toString();
+	}
+}